@@ -0,0 +1,247 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.stolsvik.machinelearning.experiment.mnist.MnistImages;
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.nn.api.Updater;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.listeners.ScoreIterationListener;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Data-parallel training of a {@link MultiLayerNetwork} on local threads: N replicas of the model are fitted
+ * concurrently, each on its own shard of the training {@link MnistImages}, and every <code>averagingFrequency</code>
+ * minibatches the workers meet at a barrier where the parameters and updater state of all replicas are averaged and
+ * written back into every replica and into the original model.
+ * <p>
+ * Note that ND4J itself also spreads each op over OpenMP threads, so on a CPU the number of workers times the
+ * OpenMP thread count should not exceed the number of cores (set <code>OMP_NUM_THREADS</code> accordingly).
+ * <p>
+ * The <code>main</code> method trains the {@link Dl4j_Mnist} model this way, and reports the scaling efficiency against
+ * a single-thread baseline measured on the same model.
+ */
+public class DataParallelTrainer {
+
+    private static final Logger log = LoggerFactory.getLogger(DataParallelTrainer.class);
+
+    private final MultiLayerNetwork _model;
+    private final MultiLayerNetwork[] _replicas;
+    private final int _averagingFrequency;
+    private final ExecutorService _executor;
+
+    /**
+     * @param model the model to train - this instance ends up with the averaged parameters after each {@link #fit}.
+     * @param numberOfWorkers the number of replicas, and thus threads.
+     * @param averagingFrequency how many minibatches each replica fits between each parameter averaging.
+     */
+    public DataParallelTrainer(MultiLayerNetwork model, int numberOfWorkers, int averagingFrequency) {
+        if (numberOfWorkers < 1) {
+            throw new IllegalArgumentException("numberOfWorkers must be at least 1, was [" + numberOfWorkers + "].");
+        }
+        if (averagingFrequency < 1) {
+            throw new IllegalArgumentException("averagingFrequency must be at least 1, was ["
+                    + averagingFrequency + "].");
+        }
+        _model = model;
+        _averagingFrequency = averagingFrequency;
+        _replicas = new MultiLayerNetwork[numberOfWorkers];
+        for (int i = 0; i < numberOfWorkers; i++) {
+            _replicas[i] = model.clone();
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        _executor = Executors.newFixedThreadPool(numberOfWorkers, r -> {
+            Thread thread = new Thread(r, "DataParallel worker #" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getNumberOfWorkers() {
+        return _replicas.length;
+    }
+
+    /**
+     * @return the replica that worker #0 trains - e.g. to attach a {@link ScoreIterationListener} to.
+     */
+    public MultiLayerNetwork getFirstReplica() {
+        return _replicas[0];
+    }
+
+    /**
+     * Splits the provided images into one {@link MnistImages#shard(int, int) shard} per worker.
+     */
+    public MnistImages[] shard(MnistImages images) {
+        MnistImages[] shards = new MnistImages[_replicas.length];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = images.shard(i, shards.length).randomize();
+        }
+        return shards;
+    }
+
+    /**
+     * Lets each worker fit <code>roundsPerWorker</code> minibatches from its own shard, averaging the replicas every
+     * <code>averagingFrequency</code> rounds, and once more at the end if the rounds do not divide evenly.
+     *
+     * @param shards one shard per worker, e.g. from {@link #shard(MnistImages)}.
+     */
+    public void fit(MnistImages[] shards, int miniBatchSize, int roundsPerWorker) {
+        if (shards.length != _replicas.length) {
+            throw new IllegalArgumentException("Need one shard per worker: got [" + shards.length
+                    + "] shards for [" + _replicas.length + "] workers.");
+        }
+        CyclicBarrier barrier = new CyclicBarrier(_replicas.length, this::averageReplicas);
+        List<Future<?>> futures = new ArrayList<>(_replicas.length);
+        for (int i = 0; i < _replicas.length; i++) {
+            MultiLayerNetwork replica = _replicas[i];
+            MnistImages shard = shards[i];
+            futures.add(_executor.submit(() -> {
+                try {
+                    for (int round = 1; round <= roundsPerWorker; round++) {
+                        DataSet featuresAndLabels = Dl4j_Mnist.getNextFeatureAndLabelDataSet(shard, miniBatchSize);
+                        replica.fit(featuresAndLabels);
+                        if ((round % _averagingFrequency == 0) || (round == roundsPerWorker)) {
+                            barrier.await();
+                        }
+                    }
+                }
+                catch (InterruptedException | BrokenBarrierException e) {
+                    throw new IllegalStateException("Worker was interrupted, or another worker failed.", e);
+                }
+                catch (RuntimeException e) {
+                    // Release the other workers, which otherwise would wait forever at the barrier.
+                    barrier.reset();
+                    throw e;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException e) {
+                throw new IllegalStateException("Interrupted while waiting for workers.", e);
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException("Worker failed.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Invoked as the barrier action, i.e. by the last worker arriving, while all other workers are waiting.
+     */
+    private void averageReplicas() {
+        int n = _replicas.length;
+        INDArray averagedParams = _replicas[0].params().dup();
+        for (int i = 1; i < n; i++) {
+            averagedParams.addi(_replicas[i].params());
+        }
+        averagedParams.divi(n);
+        for (MultiLayerNetwork replica : _replicas) {
+            replica.setParams(averagedParams);
+        }
+        _model.setParams(averagedParams);
+
+        // Averaging the updater state (e.g. the Nesterov momentum) too, as otherwise each replica's momentum keeps
+        // pushing in the direction of its own shard's gradients.
+        INDArray firstState = getUpdaterState(_replicas[0]);
+        if (firstState != null) {
+            INDArray averagedState = firstState.dup();
+            for (int i = 1; i < n; i++) {
+                averagedState.addi(getUpdaterState(_replicas[i]));
+            }
+            averagedState.divi(n);
+            for (MultiLayerNetwork replica : _replicas) {
+                getUpdaterState(replica).assign(averagedState);
+            }
+        }
+    }
+
+    private static INDArray getUpdaterState(MultiLayerNetwork model) {
+        Updater updater = model.getUpdater();
+        return updater == null ? null : updater.getStateViewArray();
+    }
+
+    public void shutdown() {
+        _executor.shutdown();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int randomSeed = 123;
+        int miniBatchSize = 128;
+        int epochs = 30;
+        int numberOfWorkers = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        int averagingFrequency = 5;
+        int baselineRounds = 100;
+
+        MnistImages trainingImages = MnistImages.getTraining().randomize();
+        MnistImages testImages = MnistImages.getTest();
+
+        // The learning rate schedule counts iterations per replica, which each only see its share of every epoch.
+        int roundsPerEpoch = trainingImages.getSize() / miniBatchSize;
+        int roundsPerWorkerPerEpoch = roundsPerEpoch / numberOfWorkers;
+        MultiLayerConfiguration conf = Dl4j_Mnist.createConfiguration(randomSeed, roundsPerWorkerPerEpoch);
+
+        // :: Single-thread baseline, on a throw-away model.
+        log.info("Measuring single-thread baseline over [" + baselineRounds + "] minibatches....");
+        MultiLayerNetwork baselineModel = new MultiLayerNetwork(conf.clone());
+        baselineModel.init();
+        // Warm up first, so that the JIT and ND4J's allocations don't count against the baseline.
+        timeRounds(baselineModel, trainingImages, miniBatchSize, baselineRounds / 10);
+        long baselineNanos = timeRounds(baselineModel, trainingImages, miniBatchSize, baselineRounds);
+        double baselineSamplesPerSecond = baselineRounds * miniBatchSize / (baselineNanos / 1_000_000_000d);
+        log.info("  \\- baseline: [" + String.format("%.1f", baselineSamplesPerSecond) + "] samples/sec.");
+
+        // :: Data-parallel training.
+        MultiLayerNetwork model = new MultiLayerNetwork(conf);
+        model.init();
+        DataParallelTrainer trainer = new DataParallelTrainer(model, numberOfWorkers, averagingFrequency);
+        trainer.getFirstReplica().setListeners(new ScoreIterationListener(100));
+        MnistImages[] shards = trainer.shard(trainingImages);
+
+        log.info("Train model.... workers:[" + numberOfWorkers + "], averagingFrequency:[" + averagingFrequency
+                + "], roundsPerWorkerPerEpoch:[" + roundsPerWorkerPerEpoch + "], epochs:[" + epochs + "].");
+        long parallelNanos = 0;
+        for (int i = 0; i < epochs; i++) {
+            log.info("Epoch " + i);
+            long nanosStart = System.nanoTime();
+            trainer.fit(shards, miniBatchSize, roundsPerWorkerPerEpoch);
+            parallelNanos += System.nanoTime() - nanosStart;
+        }
+        trainer.shutdown();
+
+        long parallelSamples = (long) epochs * numberOfWorkers * roundsPerWorkerPerEpoch * miniBatchSize;
+        double parallelSamplesPerSecond = parallelSamples / (parallelNanos / 1_000_000_000d);
+        double speedup = parallelSamplesPerSecond / baselineSamplesPerSecond;
+        log.info("Throughput: [" + String.format("%.1f", parallelSamplesPerSecond) + "] samples/sec with ["
+                + numberOfWorkers + "] workers, vs. [" + String.format("%.1f", baselineSamplesPerSecond)
+                + "] samples/sec single-threaded: speedup [" + String.format("%.2f", speedup)
+                + "x], scaling efficiency [" + String.format("%.1f", 100 * speedup / numberOfWorkers) + "%].");
+
+        System.out.println("Evaluate model....");
+        Evaluation eval = ParallelMnistEvaluator.evaluate(model, testImages);
+        System.out.println(eval.stats());
+    }
+
+    private static long timeRounds(MultiLayerNetwork model, MnistImages images, int miniBatchSize, int rounds) {
+        long nanosStart = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            model.fit(Dl4j_Mnist.getNextFeatureAndLabelDataSet(images, miniBatchSize));
+        }
+        return System.nanoTime() - nanosStart;
+    }
+}
@@ -0,0 +1,235 @@
+package com.stolsvik.machinelearning.experiment;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Renders the decision surface of a 2-input classifier into an image, as gray levels of the probability of class 0 -
+ * without evaluating the model on every pixel. The surface is rendered in levels: first one sample per coarse cell of
+ * {@link #INITIAL_CELL_SIZE} x {@link #INITIAL_CELL_SIZE} pixels, then, level by level, only the cells next to a cell
+ * of another (argmax) class are split in four and sampled again, down to single pixels. Cells in uniform areas just keep
+ * the value of their coarse sample. Since class boundaries are lines, the number of evaluations grows with the side of
+ * the image, not with its area.
+ * <p>
+ * The samples of each level are evaluated in parallel, in tiles of {@link #TILE_SIZE} points, on worker threads that
+ * each borrow one of the renderer's model copies. After each level, a copy of the image so far is handed to the
+ * progress consumer - e.g. to update a chart - so a coarse surface shows up at once and sharpens as the levels
+ * complete.
+ */
+public class DecisionSurfaceRenderer {
+
+    private static final Logger log = LoggerFactory.getLogger(DecisionSurfaceRenderer.class);
+
+    static final int INITIAL_CELL_SIZE = 32;
+    static final int TILE_SIZE = 2048;
+
+    private final ExecutorService _executor;
+    private final BlockingQueue<MultiLayerNetwork> _models;
+
+    /**
+     * Clones the model once per worker, on the calling thread - so the model must not be used by another thread while
+     * this runs, but is free for any use afterwards.
+     */
+    public DecisionSurfaceRenderer(MultiLayerNetwork model, int numberOfWorkers) {
+        if (model.layerInputSize(0) != 2) {
+            throw new IllegalArgumentException("The model must have 2 inputs, has [" + model.layerInputSize(0) + "].");
+        }
+        _models = new ArrayBlockingQueue<>(numberOfWorkers);
+        for (int i = 0; i < numberOfWorkers; i++) {
+            _models.add(model.clone());
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        _executor = Executors.newFixedThreadPool(numberOfWorkers, r -> {
+            Thread thread = new Thread(r, "DecisionSurface worker #" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void shutdown() {
+        _executor.shutdown();
+    }
+
+    /**
+     * @param size the image width and height in pixels, a multiple of {@link #INITIAL_CELL_SIZE}.
+     * @param onProgress gets a copy of the image after each level, on the calling thread. May be <code>null</code>.
+     * @return the final image, where row 0 is <code>yMax</code>.
+     */
+    public BufferedImage render(double xMin, double xMax, double yMin, double yMax, int size,
+            Consumer<BufferedImage> onProgress) {
+        if ((size < INITIAL_CELL_SIZE) || (size % INITIAL_CELL_SIZE != 0)) {
+            throw new IllegalArgumentException("size [" + size + "] must be a multiple of [" + INITIAL_CELL_SIZE
+                    + "].");
+        }
+        long nanosStart = System.nanoTime();
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        int cellSize = INITIAL_CELL_SIZE;
+        int cells = size / cellSize;
+        // Which cells of the current level to sample: all, on the first level.
+        boolean[] sample = new boolean[cells * cells];
+        Arrays.fill(sample, true);
+        int[] classes = new int[cells * cells];
+        long evaluated = 0;
+        while (true) {
+            evaluated += evaluateLevel(xMin, xMax, yMin, yMax, size, cellSize, cells, sample, classes, image);
+            if (onProgress != null) {
+                onProgress.accept(copy(image));
+            }
+            if (cellSize == 1) {
+                break;
+            }
+            // :: Next level: split the cells that have a neighbour of another class; the rest inherit their class.
+            int nextCells = cells * 2;
+            boolean[] nextSample = new boolean[nextCells * nextCells];
+            int[] nextClasses = new int[nextCells * nextCells];
+            for (int gy = 0; gy < cells; gy++) {
+                for (int gx = 0; gx < cells; gx++) {
+                    boolean split = isNearBoundary(classes, cells, gx, gy);
+                    for (int child = 0; child < 4; child++) {
+                        int index = (gy * 2 + child / 2) * nextCells + (gx * 2 + child % 2);
+                        nextSample[index] = split;
+                        nextClasses[index] = classes[gy * cells + gx];
+                    }
+                }
+            }
+            cellSize /= 2;
+            cells = nextCells;
+            sample = nextSample;
+            classes = nextClasses;
+        }
+        log.info("Rendered [" + size + "x" + size + "] decision surface from [" + evaluated + "] evaluations ("
+                + String.format("%.1f", 100d * evaluated / ((long) size * size)) + "% of the full grid), took ["
+                + ((System.nanoTime() - nanosStart) / 1_000_000) + " ms].");
+        return image;
+    }
+
+    private static boolean isNearBoundary(int[] classes, int cells, int gx, int gy) {
+        int own = classes[gy * cells + gx];
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                int nx = gx + dx;
+                int ny = gy + dy;
+                if ((nx >= 0) && (ny >= 0) && (nx < cells) && (ny < cells) && (classes[ny * cells + nx] != own)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Samples the center of each cell marked in <code>sample</code>, in parallel tiles, then records the class and
+     * paints the cell.
+     *
+     * @return the number of evaluations.
+     */
+    private int evaluateLevel(double xMin, double xMax, double yMin, double yMax, int size, int cellSize, int cells,
+            boolean[] sample, int[] classes, BufferedImage image) {
+        int count = 0;
+        for (boolean s : sample) {
+            count += s ? 1 : 0;
+        }
+        int[] cellIndexes = new int[count];
+        double[] points = new double[count * 2];
+        int n = 0;
+        for (int i = 0; i < sample.length; i++) {
+            if (sample[i]) {
+                cellIndexes[n] = i;
+                points[n * 2] = xMin + ((i % cells) * cellSize + cellSize / 2d) / size * (xMax - xMin);
+                points[n * 2 + 1] = yMax - ((i / cells) * cellSize + cellSize / 2d) / size * (yMax - yMin);
+                n++;
+            }
+        }
+
+        List<Future<TileResult>> futures = new ArrayList<>();
+        for (int from = 0; from < count; from += TILE_SIZE) {
+            int tileFrom = from;
+            int tileRows = Math.min(TILE_SIZE, count - from);
+            futures.add(_executor.submit(() -> evaluateTile(points, tileFrom, tileRows)));
+        }
+        for (int t = 0; t < futures.size(); t++) {
+            TileResult result;
+            try {
+                result = futures.get(t).get();
+            }
+            catch (InterruptedException e) {
+                throw new IllegalStateException("Interrupted while waiting for decision surface workers.", e);
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException("Decision surface worker failed.", e.getCause());
+            }
+            for (int r = 0; r < result._probabilityClass0.length; r++) {
+                int cellIndex = cellIndexes[t * TILE_SIZE + r];
+                classes[cellIndex] = result._classes[r];
+                int gray = Math.max(0, Math.min(255, (int) (result._probabilityClass0[r] * 255)));
+                int rgb = (gray << 16) | (gray << 8) | gray;
+                int px = (cellIndex % cells) * cellSize;
+                int py = (cellIndex / cells) * cellSize;
+                for (int y = py; y < py + cellSize; y++) {
+                    for (int x = px; x < px + cellSize; x++) {
+                        image.setRGB(x, y, rgb);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static class TileResult {
+        private final float[] _probabilityClass0;
+        private final int[] _classes;
+
+        private TileResult(float[] probabilityClass0, int[] classes) {
+            _probabilityClass0 = probabilityClass0;
+            _classes = classes;
+        }
+    }
+
+    private TileResult evaluateTile(double[] points, int from, int rows) throws InterruptedException {
+        double[] tile = new double[rows * 2];
+        System.arraycopy(points, from * 2, tile, 0, rows * 2);
+        MultiLayerNetwork model = _models.take();
+        try {
+            INDArray output = model.output(Nd4j.create(tile, new int[] { rows, 2 }), false);
+            float[] probabilityClass0 = new float[rows];
+            int[] argMax = new int[rows];
+            int classes = output.columns();
+            for (int r = 0; r < rows; r++) {
+                probabilityClass0[r] = output.getFloat(r, 0);
+                int best = 0;
+                for (int c = 1; c < classes; c++) {
+                    if (output.getFloat(r, c) > output.getFloat(r, best)) {
+                        best = c;
+                    }
+                }
+                argMax[r] = best;
+            }
+            return new TileResult(probabilityClass0, argMax);
+        }
+        finally {
+            _models.add(model);
+        }
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        copy.setData(image.getRaster());
+        return copy;
+    }
+}
@@ -25,6 +25,7 @@ import org.nd4j.linalg.lossfunctions.LossFunctions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -33,88 +34,108 @@ public class Dl4j_Mnist {
     private static final Logger log = LoggerFactory.getLogger(Dl4j_Mnist.class);
 
     public static void main(String[] args) throws Exception {
-        // number of rows and columns in the input pictures
-        final int numInputs = 28 * 28;
-
-        // Output: 10 classes: digits 0-9
-        int numOutputs = 10;
-
         int randomSeed = 123;
         double learningRate = 0.005d;  // Started with 0.005.
         int miniBatchSize = 128;
-        int epochs = 30;
+        int maxEpochs = 30;
+        int patience = 5;
 
         MnistImages trainingImages = MnistImages.getTraining().randomize();
+        MnistImages validationImages = trainingImages.splitOffValidation(5000);
         MnistImages testImages = MnistImages.getTest();
 
         int roundsPerEpoch = trainingImages.getSize() / miniBatchSize;
 
+        log.info("Build model....");
+        MultiLayerConfiguration conf = createConfiguration(randomSeed, roundsPerEpoch);
+
+        MultiLayerNetwork model = new MultiLayerNetwork(conf);
+        model.init();
+
+        model.setListeners(new ScoreIterationListener(100),
+                new TrainingMetricsListener(Dl4j_Mnist.class.getSimpleName(), 1000, 1000));
+
+        EarlyStoppingTrainer trainer = new EarlyStoppingTrainer(model, validationImages, maxEpochs, patience,
+                new File("checkpoints/dl4j_mnist"));
+        EarlyStoppingTrainer.Result result = trainer.train((m, epoch) -> {
+            for (int j = 0; j < roundsPerEpoch; j++) {
+                DataSet featuresAndLabels = getNextFeatureAndLabelDataSet(trainingImages, miniBatchSize);
+                m.fit(featuresAndLabels);
+            }
+        });
+        log.info("Training done: " + result);
+
+        System.out.println("Evaluate model....");
+        Evaluation eval = ParallelMnistEvaluator.evaluate(model, testImages);
+
+        // Print the evaluation statistics
+        System.out.println(eval.stats());
+    }
+
+    /**
+     * Creates the 784-1000-1000-1000-10 configuration used by this experiment, with the learning rate schedule laid out
+     * in units of the given number of rounds (minibatches) per epoch.
+     */
+    static MultiLayerConfiguration createConfiguration(int randomSeed, int roundsPerEpoch) {
+        return createConfiguration(randomSeed, roundsPerEpoch, 1000, 0.98d, 1d, 0.01);
+    }
+
+    /**
+     * Variant of {@link #createConfiguration(int, int)} with the hand-tuned constants as parameters, for
+     * {@link HyperparameterSearch}.
+     *
+     * @param layerWidth the number of units in each of the three hidden layers.
+     * @param momentum the Nesterov momentum.
+     * @param learningRateScale factor which every learning rate in the schedule is multiplied with.
+     * @param l2 the L2 regularization coefficient.
+     */
+    static MultiLayerConfiguration createConfiguration(int randomSeed, int roundsPerEpoch, int layerWidth,
+            double momentum, double learningRateScale, double l2) {
+        // number of rows and columns in the input pictures
+        final int numInputs = 28 * 28;
+
+        // Output: 10 classes: digits 0-9
+        int numOutputs = 10;
+
 //        Adam updater = new Adam();
 //        updater.setLearningRate(5d);
 
         // learning rate schedule in the form of <Iteration #, Learning Rate>
         Map<Integer, Double> lrSchedule = new HashMap<>();
-        lrSchedule.put(0, 0.05);
-        lrSchedule.put(roundsPerEpoch * 5, 0.01);
-        lrSchedule.put(roundsPerEpoch * 10, 0.005);
-        lrSchedule.put(roundsPerEpoch * 15, 0.001);
-        lrSchedule.put(roundsPerEpoch * 20, 0.0005);
-        lrSchedule.put(roundsPerEpoch * 25, 0.0001);
-
-        log.info("Build model....");
-        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+        lrSchedule.put(0, 0.05 * learningRateScale);
+        lrSchedule.put(roundsPerEpoch * 5, 0.01 * learningRateScale);
+        lrSchedule.put(roundsPerEpoch * 10, 0.005 * learningRateScale);
+        lrSchedule.put(roundsPerEpoch * 15, 0.001 * learningRateScale);
+        lrSchedule.put(roundsPerEpoch * 20, 0.0005 * learningRateScale);
+        lrSchedule.put(roundsPerEpoch * 25, 0.0001 * learningRateScale);
+
+        return new NeuralNetConfiguration.Builder()
                 .seed(randomSeed) //include a random seed for reproducibility
                 .optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT) // use stochastic gradient descent as an optimization algorithm
                 // .learningRate(learningRate) //specify the learning rate
                 .learningRateDecayPolicy(LearningRatePolicy.Schedule)
                 .learningRateSchedule(lrSchedule)
-                .updater(new Nesterovs.Builder().momentum(0.98d).build())
+                .updater(new Nesterovs.Builder().momentum(momentum).build())
                 .regularization(true)
                 //.l1(0.0001)
-                .l2(0.01)
+                .l2(l2)
                 .iterations(1)
                 .activation(Activation.RELU)
                 .weightInit(WeightInit.XAVIER)
                 .list()
                 // .layer(0, new DropoutLayer.Builder().build())
-                .layer(0, new DenseLayer.Builder().nOut(1000).build())
-                .layer(1, new DenseLayer.Builder().nOut(1000).build())
-                .layer(2, new DenseLayer.Builder().nOut(1000).build())
+                .layer(0, new DenseLayer.Builder().nOut(layerWidth).build())
+                .layer(1, new DenseLayer.Builder().nOut(layerWidth).build())
+                .layer(2, new DenseLayer.Builder().nOut(layerWidth).build())
                 .layer(3, new OutputLayer.Builder(LossFunctions.LossFunction.NEGATIVELOGLIKELIHOOD) //create hidden layer
                         .activation(Activation.SOFTMAX)
                         .nOut(numOutputs)
                         .build())
                 .setInputType(InputType.feedForward(numInputs))
                 .build();
-
-        MultiLayerNetwork model = new MultiLayerNetwork(conf);
-        model.init();
-
-        model.setListeners(new ScoreIterationListener(100));
-
-        for (int i = 0; i < epochs; i++) {
-            log.info("Epoch "+i);
-            for (int j = 0; j < roundsPerEpoch; j++) {
-                DataSet featuresAndLabels = getNextFeatureAndLabelDataSet(trainingImages, miniBatchSize);
-                model.fit(featuresAndLabels);
-            }
-        }
-
-        System.out.println("Evaluate model....");
-        Evaluation eval = new Evaluation(numOutputs);
-
-        // Evaluate
-        DataSet t = getNextFeatureAndLabelDataSet(testImages, testImages.getSize());
-        INDArray features = t.getFeatureMatrix();
-        INDArray labels = t.getLabels();
-        INDArray predicted = model.output(features, false);
-        eval.eval(labels, predicted);
-
-        // Print the evaluation statistics
-        System.out.println(eval.stats());
     }
 
-    private static DataSet getNextFeatureAndLabelDataSet(MnistImages mnistImages, int miniBatchSize) {
+    static DataSet getNextFeatureAndLabelDataSet(MnistImages mnistImages, int miniBatchSize) {
         double[][] javaFeatureMatrix = new double[miniBatchSize][];
         double[][] javaLabelMatrix = new double[miniBatchSize][];
         for (int i = 0; i < miniBatchSize; i++) {
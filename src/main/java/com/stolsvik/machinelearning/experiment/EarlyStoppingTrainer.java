@@ -0,0 +1,202 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.stolsvik.machinelearning.experiment.mnist.MnistImages;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Training driver which runs epochs until the accuracy on a validation holdout (typically from
+ * {@link MnistImages#splitOffValidation(int)}) has not improved for <code>patience</code> epochs, or until
+ * <code>maxEpochs</code> is reached. Each time the validation accuracy improves, the model is checkpointed to the
+ * checkpoint directory.
+ * <p>
+ * The checkpoint serialization runs on a background thread, from a snapshot of the parameters taken on the training
+ * thread - so training continues while the zip is being written. If a new best model arrives while the previous one is
+ * still being written, only the newest is written afterwards. When training ends, the best parameters are put back into
+ * the model. An instance is meant for a single {@link #train(EpochTrainer)} run.
+ */
+public class EarlyStoppingTrainer {
+
+    private static final Logger log = LoggerFactory.getLogger(EarlyStoppingTrainer.class);
+
+    /**
+     * Trains one epoch on the provided model.
+     */
+    @FunctionalInterface
+    public interface EpochTrainer {
+        void trainEpoch(MultiLayerNetwork model, int epoch);
+    }
+
+    private final MultiLayerNetwork _model;
+    private final MnistImages _validationImages;
+    private final int _maxEpochs;
+    private final int _patience;
+    private final File _checkpointFile;
+    private final ParallelMnistEvaluator _validationEvaluator;
+
+    private final ExecutorService _checkpointExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Checkpoint writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<Snapshot> _pendingSnapshot = new AtomicReference<>();
+
+    /**
+     * @param checkpointDirectory where the best model is written, as "best_model.zip".
+     */
+    public EarlyStoppingTrainer(MultiLayerNetwork model, MnistImages validationImages, int maxEpochs, int patience,
+            File checkpointDirectory) {
+        _model = model;
+        _validationImages = validationImages;
+        _maxEpochs = maxEpochs;
+        _patience = patience;
+        if (!checkpointDirectory.isDirectory() && !checkpointDirectory.mkdirs()) {
+            throw new IllegalArgumentException("Couldn't create checkpoint directory [" + checkpointDirectory + "].");
+        }
+        _checkpointFile = new File(checkpointDirectory, "best_model.zip");
+        _validationEvaluator = new ParallelMnistEvaluator(model,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 500);
+    }
+
+    /**
+     * The outcome of {@link #train(EpochTrainer)}.
+     */
+    public static class Result {
+        private final int _bestEpoch;
+        private final double _bestAccuracy;
+        private final int _epochsRun;
+
+        private Result(int bestEpoch, double bestAccuracy, int epochsRun) {
+            _bestEpoch = bestEpoch;
+            _bestAccuracy = bestAccuracy;
+            _epochsRun = epochsRun;
+        }
+
+        public int getBestEpoch() {
+            return _bestEpoch;
+        }
+
+        public double getBestAccuracy() {
+            return _bestAccuracy;
+        }
+
+        public int getEpochsRun() {
+            return _epochsRun;
+        }
+
+        @Override
+        public String toString() {
+            return "best epoch:[" + _bestEpoch + "], best validation accuracy:[" + _bestAccuracy
+                    + "], epochs run:[" + _epochsRun + "]";
+        }
+    }
+
+    public Result train(EpochTrainer epochTrainer) {
+        int bestEpoch = -1;
+        double bestAccuracy = -1;
+        INDArray bestParams = null;
+        int epoch = 0;
+        try {
+            for (; epoch < _maxEpochs; epoch++) {
+                log.info("Epoch " + epoch);
+                epochTrainer.trainEpoch(_model, epoch);
+                double accuracy = validationAccuracy();
+                if (accuracy > bestAccuracy) {
+                    log.info("  \\- validation accuracy improved: [" + bestAccuracy + "] -> [" + accuracy + "].");
+                    bestAccuracy = accuracy;
+                    bestEpoch = epoch;
+                    bestParams = _model.params().dup();
+                    checkpoint(new Snapshot(_model.getLayerWiseConfigurations().toJson(), bestParams, epoch));
+                }
+                else {
+                    log.info("  \\- validation accuracy [" + accuracy + "], best is still [" + bestAccuracy
+                            + "] from epoch [" + bestEpoch + "].");
+                    if (epoch - bestEpoch >= _patience) {
+                        log.info("No improvement for [" + _patience + "] epochs - stopping early.");
+                        epoch++;
+                        break;
+                    }
+                }
+            }
+        }
+        finally {
+            _validationEvaluator.shutdown();
+            awaitCheckpoints();
+        }
+        if (bestParams != null) {
+            _model.setParams(bestParams);
+        }
+        return new Result(bestEpoch, bestAccuracy, epoch);
+    }
+
+    private double validationAccuracy() {
+        return _validationEvaluator.evaluate(_validationImages).accuracy();
+    }
+
+    private static class Snapshot {
+        private final String _configurationJson;
+        private final INDArray _params;
+        private final int _epoch;
+
+        private Snapshot(String configurationJson, INDArray params, int epoch) {
+            _configurationJson = configurationJson;
+            _params = params;
+            _epoch = epoch;
+        }
+    }
+
+    private void checkpoint(Snapshot snapshot) {
+        // Only schedule a write if there wasn't one pending already - the pending one will pick up this newer snapshot.
+        if (_pendingSnapshot.getAndSet(snapshot) == null) {
+            _checkpointExecutor.submit(this::writePendingSnapshot);
+        }
+    }
+
+    private void writePendingSnapshot() {
+        Snapshot snapshot = _pendingSnapshot.getAndSet(null);
+        if (snapshot == null) {
+            return;
+        }
+        long nanosStart = System.nanoTime();
+        try {
+            MultiLayerNetwork copy = new MultiLayerNetwork(
+                    MultiLayerConfiguration.fromJson(snapshot._configurationJson));
+            copy.init(snapshot._params, false);
+            File tempFile = new File(_checkpointFile.getPath() + ".tmp");
+            ModelSerializer.writeModel(copy, tempFile, false);
+            Files.move(tempFile.toPath(), _checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            log.info("Checkpointed model from epoch [" + snapshot._epoch + "] to [" + _checkpointFile + "], took ["
+                    + ((System.nanoTime() - nanosStart) / 1_000_000) + " ms].");
+        }
+        catch (IOException | RuntimeException e) {
+            log.error("Couldn't write checkpoint from epoch [" + snapshot._epoch + "] to ["
+                    + _checkpointFile + "].", e);
+        }
+    }
+
+    private void awaitCheckpoints() {
+        _checkpointExecutor.shutdown();
+        try {
+            if (!_checkpointExecutor.awaitTermination(5, TimeUnit.MINUTES)) {
+                log.warn("Checkpoint writer didn't finish within 5 minutes.");
+            }
+        }
+        catch (InterruptedException e) {
+            throw new IllegalStateException("Interrupted while waiting for checkpoint writer.", e);
+        }
+    }
+}
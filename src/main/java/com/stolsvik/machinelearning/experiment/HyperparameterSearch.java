@@ -0,0 +1,258 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.stolsvik.machinelearning.experiment.mnist.MnistImages;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.nativeblas.NativeOpsHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent hyperparameter search over the {@link Dl4j_Mnist} model family (hidden layer width, Nesterov momentum,
+ * learning rate schedule scale and L2), using <i>successive halving</i> to stop weak trials early: all trials are
+ * trained for <code>minEpochs</code> and validated, the best <code>1/eta</code> of them continue until they have been
+ * trained for <code>eta</code> times as many epochs, and so on until one trial is left or <code>maxEpochs</code> is
+ * reached. Trials are trained further from where they left off, not restarted.
+ * <p>
+ * A fixed CPU thread budget is split across the trials: each trial gets <code>threadsPerTrial</code> threads, and
+ * <code>threadBudget / threadsPerTrial</code> trials run concurrently. The ND4J OpenMP thread count is set to
+ * <code>threadsPerTrial</code> too - this is process-wide in ND4J, which is fine since every concurrent trial gets the
+ * same share - so that the concurrent trials don't oversubscribe the cores.
+ * <p>
+ * The results are logged, and written as a tab-separated table.
+ */
+public class HyperparameterSearch {
+
+    private static final Logger log = LoggerFactory.getLogger(HyperparameterSearch.class);
+
+    private final MnistImages _trainingImages;
+    private final MnistImages _validationImages;
+    private final int _miniBatchSize;
+    private final int _threadBudget;
+    private final int _threadsPerTrial;
+    private final int _minEpochs;
+    private final int _maxEpochs;
+    private final int _eta;
+
+    public HyperparameterSearch(MnistImages trainingImages, MnistImages validationImages, int miniBatchSize,
+            int threadBudget, int threadsPerTrial, int minEpochs, int maxEpochs, int eta) {
+        if (threadsPerTrial < 1 || threadsPerTrial > threadBudget) {
+            throw new IllegalArgumentException("threadsPerTrial [" + threadsPerTrial
+                    + "] must be between 1 and threadBudget [" + threadBudget + "].");
+        }
+        if (eta < 2) {
+            throw new IllegalArgumentException("eta must be at least 2, was [" + eta + "].");
+        }
+        // With minEpochs 0, the epoch budget would never grow.
+        if (minEpochs < 1 || maxEpochs < minEpochs) {
+            throw new IllegalArgumentException("minEpochs [" + minEpochs + "] must be at least 1, and maxEpochs ["
+                    + maxEpochs + "] at least minEpochs.");
+        }
+        _trainingImages = trainingImages;
+        _validationImages = validationImages;
+        _miniBatchSize = miniBatchSize;
+        _threadBudget = threadBudget;
+        _threadsPerTrial = threadsPerTrial;
+        _minEpochs = minEpochs;
+        _maxEpochs = maxEpochs;
+        _eta = eta;
+    }
+
+    /**
+     * One point in the hyperparameter space, along with its progress through the search.
+     */
+    public static class Trial {
+        private final int _id;
+        private final int _layerWidth;
+        private final double _momentum;
+        private final double _learningRateScale;
+        private final double _l2;
+
+        private MultiLayerNetwork _model;
+        private MnistImages _images;
+        private int _epochsTrained;
+        private double _validationAccuracy = Double.NaN;
+        private int _rungReached;
+        private long _trainingMillis;
+
+        public Trial(int id, int layerWidth, double momentum, double learningRateScale, double l2) {
+            _id = id;
+            _layerWidth = layerWidth;
+            _momentum = momentum;
+            _learningRateScale = learningRateScale;
+            _l2 = l2;
+        }
+
+        public double getValidationAccuracy() {
+            return _validationAccuracy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "#%d [width:%d, momentum:%.3f, lrScale:%.3f, l2:%.4f]",
+                    _id, _layerWidth, _momentum, _learningRateScale, _l2);
+        }
+    }
+
+    /**
+     * Runs successive halving over the provided trials.
+     *
+     * @param trials at least one.
+     * @return all trials, best first.
+     */
+    public List<Trial> run(List<Trial> trials) {
+        if (trials.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one trial.");
+        }
+        NativeOpsHolder.getInstance().getDeviceNativeOps().setOmpNumThreads(_threadsPerTrial);
+        int concurrentTrials = _threadBudget / _threadsPerTrial;
+        log.info("Running [" + trials.size() + "] trials, [" + concurrentTrials + "] concurrently with ["
+                + _threadsPerTrial + "] threads each.");
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrentTrials, r -> {
+            Thread thread = new Thread(r, "Trial runner #" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Trial> surviving = new ArrayList<>(trials);
+            int rung = 0;
+            int epochBudget = _minEpochs;
+            while (true) {
+                log.info("Rung [" + rung + "]: training [" + surviving.size() + "] trials to [" + epochBudget
+                        + "] epochs.");
+                int rungNumber = rung;
+                int epochs = epochBudget;
+                List<Future<?>> futures = new ArrayList<>(surviving.size());
+                for (Trial trial : surviving) {
+                    futures.add(executor.submit(() -> trainAndValidate(trial, epochs, rungNumber)));
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    }
+                    catch (InterruptedException e) {
+                        throw new IllegalStateException("Interrupted while waiting for trials.", e);
+                    }
+                    catch (ExecutionException e) {
+                        throw new IllegalStateException("Trial failed.", e.getCause());
+                    }
+                }
+                surviving.sort(byAccuracyDescending());
+                log.info("Rung [" + rung + "] done, best: " + surviving.get(0) + ", accuracy ["
+                        + surviving.get(0)._validationAccuracy + "].");
+
+                int keep = Math.max(1, surviving.size() / _eta);
+                if ((surviving.size() == 1) || (epochBudget >= _maxEpochs)) {
+                    break;
+                }
+                // The stopped trials won't be trained further, so let their models go.
+                for (Trial stopped : surviving.subList(keep, surviving.size())) {
+                    stopped._model = null;
+                    stopped._images = null;
+                }
+                surviving = new ArrayList<>(surviving.subList(0, keep));
+                epochBudget = Math.min(_maxEpochs, epochBudget * _eta);
+                rung++;
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        List<Trial> results = new ArrayList<>(trials);
+        results.sort(Comparator.comparingInt((Trial t) -> t._rungReached).reversed()
+                .thenComparing(byAccuracyDescending()));
+        return results;
+    }
+
+    private static Comparator<Trial> byAccuracyDescending() {
+        return Comparator.comparingDouble((Trial t) -> t._validationAccuracy).reversed();
+    }
+
+    private void trainAndValidate(Trial trial, int epochs, int rung) {
+        int roundsPerEpoch = _trainingImages.getSize() / _miniBatchSize;
+        if (trial._model == null) {
+            trial._model = new MultiLayerNetwork(Dl4j_Mnist.createConfiguration(123, roundsPerEpoch,
+                    trial._layerWidth, trial._momentum, trial._learningRateScale, trial._l2));
+            trial._model.init();
+            // A single shard is a lightweight copy, with its own ordering and position.
+            trial._images = _trainingImages.shard(0, 1).randomize();
+        }
+        long nanosStart = System.nanoTime();
+        for (; trial._epochsTrained < epochs; trial._epochsTrained++) {
+            for (int j = 0; j < roundsPerEpoch; j++) {
+                trial._model.fit(Dl4j_Mnist.getNextFeatureAndLabelDataSet(trial._images, _miniBatchSize));
+            }
+        }
+        trial._trainingMillis += (System.nanoTime() - nanosStart) / 1_000_000;
+        // The trial's thread owns its model, so it validates with it directly: no copy of it, and no extra threads.
+        trial._validationAccuracy = ParallelMnistEvaluator.evaluateOnCallingThread(trial._model, _validationImages,
+                500).accuracy();
+        trial._rungReached = rung;
+        log.info("  \\- trial " + trial + " after [" + trial._epochsTrained + "] epochs: accuracy ["
+                + trial._validationAccuracy + "].");
+    }
+
+    /**
+     * Writes the results as a tab-separated table, in the order given.
+     */
+    public static void writeResults(List<Trial> results, File file) throws FileNotFoundException {
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("trial\tlayerWidth\tmomentum\tlearningRateScale\tl2\trungReached\tepochsTrained"
+                    + "\ttrainingMillis\tvalidationAccuracy");
+            for (Trial t : results) {
+                out.println(String.format(Locale.US, "%d\t%d\t%.3f\t%.3f\t%.4f\t%d\t%d\t%d\t%.4f",
+                        t._id, t._layerWidth, t._momentum, t._learningRateScale, t._l2, t._rungReached,
+                        t._epochsTrained, t._trainingMillis, t._validationAccuracy));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfTrials = 27;
+        int miniBatchSize = 128;
+        int threadBudget = Runtime.getRuntime().availableProcessors();
+        int threadsPerTrial = 2;
+
+        MnistImages trainingImages = MnistImages.getTraining().randomize();
+        MnistImages validationImages = trainingImages.splitOffValidation(5000);
+
+        // :: Random sampling around the hand-tuned constants of Dl4j_Mnist.
+        int[] layerWidths = { 250, 500, 1000 };
+        double[] momentums = { 0.9, 0.95, 0.98 };
+        double[] learningRateScales = { 0.25, 0.5, 1, 2 };
+        double[] l2s = { 0.001, 0.003, 0.01 };
+        Random random = new Random(123);
+        List<Trial> trials = new ArrayList<>();
+        for (int i = 0; i < numberOfTrials; i++) {
+            trials.add(new Trial(i,
+                    layerWidths[random.nextInt(layerWidths.length)],
+                    momentums[random.nextInt(momentums.length)],
+                    learningRateScales[random.nextInt(learningRateScales.length)],
+                    l2s[random.nextInt(l2s.length)]));
+        }
+
+        HyperparameterSearch search = new HyperparameterSearch(trainingImages, validationImages, miniBatchSize,
+                threadBudget, threadsPerTrial, 1, 27, 3);
+        List<Trial> results = search.run(trials);
+
+        File resultFile = new File("hyperparameter_search_results.tsv");
+        writeResults(results, resultFile);
+        log.info("Best trial: " + results.get(0) + ", validation accuracy [" + results.get(0)._validationAccuracy
+                + "]. Results written to [" + resultFile.getAbsolutePath() + "].");
+    }
+}
@@ -0,0 +1,261 @@
+package com.stolsvik.machinelearning.experiment;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A small classification data set from a CSV file on the classpath - one example per line, the label as an integer
+ * in one column, the rest numeric features - parsed once into primitive arrays. Replaces
+ * <code>CSVRecordReader</code> + <code>RecordReaderDataSetIterator</code>, which re-parse the text and rebuild every
+ * batch for each epoch: {@link #iterator(int, long)} serves mini-batches straight from the arrays, in a new random
+ * order after each {@link DataSetIterator#reset() reset()}, i.e. each epoch.
+ */
+public class InMemoryCsvDataSet {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryCsvDataSet.class);
+
+    private final int _numExamples;
+    private final int _numFeatures;
+    private final int _numClasses;
+    private final double[] _features; // row-major: example i's features at [i * _numFeatures, (i+1) * _numFeatures)
+    private final int[] _labels;
+
+    private InMemoryCsvDataSet(int numExamples, int numFeatures, int numClasses, double[] features, int[] labels) {
+        _numExamples = numExamples;
+        _numFeatures = numFeatures;
+        _numClasses = numClasses;
+        _features = features;
+        _labels = labels;
+    }
+
+    /**
+     * @param classpathResource e.g. "/classification/moon_data_train.csv".
+     * @param labelColumn the 0-based column holding the label, 0 to <code>numClasses - 1</code>.
+     */
+    public static InMemoryCsvDataSet load(String classpathResource, int labelColumn, int numClasses) {
+        long nanosStart = System.nanoTime();
+        InputStream in = InMemoryCsvDataSet.class.getResourceAsStream(classpathResource);
+        if (in == null) {
+            throw new IllegalArgumentException("No such classpath resource [" + classpathResource + "].");
+        }
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    rows.add(line.split(","));
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Couldn't read [" + classpathResource + "].", e);
+        }
+        if (rows.isEmpty()) {
+            throw new IllegalArgumentException("No examples in [" + classpathResource + "].");
+        }
+        int numFeatures = rows.get(0).length - 1;
+        double[] features = new double[rows.size() * numFeatures];
+        int[] labels = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            String[] columns = rows.get(i);
+            if (columns.length != numFeatures + 1) {
+                throw new IllegalArgumentException("Line [" + (i + 1) + "] of [" + classpathResource + "] has ["
+                        + columns.length + "] columns, expected [" + (numFeatures + 1) + "].");
+            }
+            int f = 0;
+            for (int c = 0; c < columns.length; c++) {
+                if (c == labelColumn) {
+                    labels[i] = Integer.parseInt(columns[c].trim());
+                    if (labels[i] < 0 || labels[i] >= numClasses) {
+                        throw new IllegalArgumentException("Line [" + (i + 1) + "] of [" + classpathResource
+                                + "] has label [" + labels[i] + "], outside [0, " + numClasses + ").");
+                    }
+                }
+                else {
+                    features[i * numFeatures + f++] = Double.parseDouble(columns[c]);
+                }
+            }
+        }
+        log.info("Loaded [" + rows.size() + "] examples of [" + numFeatures + "] features from ["
+                + classpathResource + "], took [" + ((System.nanoTime() - nanosStart) / 1_000_000) + " ms].");
+        return new InMemoryCsvDataSet(rows.size(), numFeatures, numClasses, features, labels);
+    }
+
+    public int getNumExamples() {
+        return _numExamples;
+    }
+
+    public int getNumFeatures() {
+        return _numFeatures;
+    }
+
+    /**
+     * @return all examples, in file order, as one DataSet - e.g. for evaluation or plotting.
+     */
+    public DataSet toDataSet() {
+        int[] all = new int[_numExamples];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return createDataSet(all, 0, _numExamples, new double[_numExamples * _numFeatures],
+                new double[_numExamples * _numClasses]);
+    }
+
+    /**
+     * @return a new iterator over mini-batches of the examples, reshuffled on each reset. The last batch of an epoch
+     *         may be smaller.
+     */
+    public DataSetIterator iterator(int batchSize, long seed) {
+        return new ShufflingIterator(batchSize, seed);
+    }
+
+    private DataSet createDataSet(int[] order, int from, int rows, double[] featureBuffer, double[] labelBuffer) {
+        for (int r = 0; r < rows; r++) {
+            int example = order[from + r];
+            System.arraycopy(_features, example * _numFeatures, featureBuffer, r * _numFeatures, _numFeatures);
+            for (int c = 0; c < _numClasses; c++) {
+                labelBuffer[r * _numClasses + c] = _labels[example] == c ? 1 : 0;
+            }
+        }
+        // Nd4j.create(..) copies into off-heap memory, so the buffers can be reused for the next batch.
+        return new DataSet(Nd4j.create(featureBuffer, new int[] { rows, _numFeatures }),
+                Nd4j.create(labelBuffer, new int[] { rows, _numClasses }));
+    }
+
+    private class ShufflingIterator implements DataSetIterator {
+        private final int _batchSize;
+        private final Random _random;
+        private final int[] _order = new int[_numExamples];
+        private final double[] _featureBuffer;
+        private final double[] _labelBuffer;
+        private int _cursor;
+        private DataSetPreProcessor _preProcessor;
+
+        private ShufflingIterator(int batchSize, long seed) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be at least 1, was [" + batchSize + "].");
+            }
+            _batchSize = batchSize;
+            _random = new Random(seed);
+            _featureBuffer = new double[batchSize * _numFeatures];
+            _labelBuffer = new double[batchSize * _numClasses];
+            for (int i = 0; i < _order.length; i++) {
+                _order[i] = i;
+            }
+            shuffle();
+        }
+
+        private void shuffle() {
+            for (int i = _order.length; i > 1; i--) {
+                int j = _random.nextInt(i);
+                int temp = _order[i - 1];
+                _order[i - 1] = _order[j];
+                _order[j] = temp;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _cursor < _numExamples;
+        }
+
+        @Override
+        public DataSet next() {
+            return next(_batchSize);
+        }
+
+        @Override
+        public DataSet next(int num) {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more examples in this epoch; reset() to start the next.");
+            }
+            int rows = Math.min(Math.min(num, _batchSize), _numExamples - _cursor);
+            double[] featureBuffer = rows == _batchSize ? _featureBuffer : new double[rows * _numFeatures];
+            double[] labelBuffer = rows == _batchSize ? _labelBuffer : new double[rows * _numClasses];
+            DataSet dataSet = createDataSet(_order, _cursor, rows, featureBuffer, labelBuffer);
+            _cursor += rows;
+            if (_preProcessor != null) {
+                _preProcessor.preProcess(dataSet);
+            }
+            return dataSet;
+        }
+
+        @Override
+        public void reset() {
+            _cursor = 0;
+            shuffle();
+        }
+
+        @Override
+        public boolean resetSupported() {
+            return true;
+        }
+
+        /**
+         * Batches are served straight from memory, so there's nothing to gain from async prefetching.
+         */
+        @Override
+        public boolean asyncSupported() {
+            return false;
+        }
+
+        @Override
+        public int totalExamples() {
+            return _numExamples;
+        }
+
+        @Override
+        public int numExamples() {
+            return _numExamples;
+        }
+
+        @Override
+        public int inputColumns() {
+            return _numFeatures;
+        }
+
+        @Override
+        public int totalOutcomes() {
+            return _numClasses;
+        }
+
+        @Override
+        public int batch() {
+            return _batchSize;
+        }
+
+        @Override
+        public int cursor() {
+            return _cursor;
+        }
+
+        @Override
+        public void setPreProcessor(DataSetPreProcessor preProcessor) {
+            _preProcessor = preProcessor;
+        }
+
+        @Override
+        public DataSetPreProcessor getPreProcessor() {
+            return _preProcessor;
+        }
+
+        @Override
+        public List<String> getLabels() {
+            return null;
+        }
+    }
+}
@@ -1,9 +1,5 @@
 package com.stolsvik.machinelearning.experiment;
 
-import org.datavec.api.records.reader.RecordReader;
-import org.datavec.api.records.reader.impl.csv.CSVRecordReader;
-import org.datavec.api.split.FileSplit;
-import org.deeplearning4j.datasets.datavec.RecordReaderDataSetIterator;
 import org.deeplearning4j.eval.Evaluation;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
@@ -18,13 +14,9 @@ import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
-import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.io.ClassPathResource;
 import org.nd4j.linalg.learning.config.Nesterovs;
 import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
 
-import java.io.File;
-
 /**
  * "Moon" Data Classification Example
  *
@@ -47,8 +39,9 @@ public class MLPClassifierMoon {
         int numOutputs = 2;
         int numHiddenNodes = 2000;
 
-        final String filenameTrain  = new ClassPathResource("/classification/moon_data_train.csv").getFile().getPath();
-        final String filenameTest  = new ClassPathResource("/classification/moon_data_eval.csv").getFile().getPath();
+        // Parsed once into memory, used both for training/evaluation and for plotting.
+        InMemoryCsvDataSet trainData = InMemoryCsvDataSet.load("/classification/moon_data_train.csv", 0, numOutputs);
+        InMemoryCsvDataSet testData = InMemoryCsvDataSet.load("/classification/moon_data_eval.csv", 0, numOutputs);
 
         //log.info("Build model....");
         MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
@@ -76,21 +69,20 @@ public class MLPClassifierMoon {
 
         model.setListeners(new ScoreIterationListener(100));    //Print score every 100 parameter updates
 
-        //Load the training data:
-        RecordReader rr = new CSVRecordReader();
-        rr.initialize(new FileSplit(new File(filenameTrain)));
-        DataSetIterator trainIter = new RecordReaderDataSetIterator(rr,batchSize,0,2);
+        // Reshuffled on each reset, i.e. each epoch.
+        DataSetIterator trainIter = trainData.iterator(batchSize, seed);
 
+        long nanosStart = System.nanoTime();
         for ( int n = 0; n < nEpochs; n++) {
+            trainIter.reset();
             model.fit( trainIter );
         }
+        System.out.println("Training [" + nEpochs + "] epochs took [" + ((System.nanoTime() - nanosStart) / 1_000_000)
+                + " ms].");
 
         System.out.println("Evaluate model....");
 
-        //Load the test/evaluation data:
-        RecordReader rrTest = new CSVRecordReader();
-        rrTest.initialize(new FileSplit(new File(filenameTest)));
-        DataSetIterator testIter = new RecordReaderDataSetIterator(rrTest,batchSize,0,2);
+        DataSetIterator testIter = testData.iterator(batchSize, seed);
 
         Evaluation eval = new Evaluation(numOutputs);
         while(testIter.hasNext()){
@@ -115,42 +107,21 @@ public class MLPClassifierMoon {
         double yMin = -1;
         double yMax = 1.5;
 
-        //Let's evaluate the predictions at every point in the x/y input space, and plot this in the background
-        int nPointsPerAxis = 100;
-        double[][] evalPoints = new double[nPointsPerAxis*nPointsPerAxis][2];
-        int count = 0;
-        for( int i=0; i<nPointsPerAxis; i++ ){
-            for( int j=0; j<nPointsPerAxis; j++ ){
-                double x = i * (xMax-xMin)/(nPointsPerAxis-1) + xMin;
-                double y = j * (yMax-yMin)/(nPointsPerAxis-1) + yMin;
-
-                evalPoints[count][0] = x;
-                evalPoints[count][1] = y;
-
-                count++;
-            }
-        }
-
-        INDArray allXYPoints = Nd4j.create(evalPoints);
-        INDArray predictionsAtXYPoints = model.output(allXYPoints);
+        //The predictions over the x/y input space are plotted in the background, rendered progressively at this
+        //resolution - evaluating the model only near the class boundaries at the finer levels.
+        double[] mins = { xMin, yMin };
+        double[] maxs = { xMax, yMax };
+        int surfaceSize = 512;
 
         //Get all of the training data in a single array, and plot it:
-        rr.initialize(new FileSplit(new ClassPathResource("/classification/moon_data_train.csv").getFile()));
-        rr.reset();
-        int nTrainPoints = 2000;
-        trainIter = new RecordReaderDataSetIterator(rr,nTrainPoints,0,2);
-        DataSet ds = trainIter.next();
-        PlotUtil.plotTrainingData(ds.getFeatures(), ds.getLabels(), allXYPoints, predictionsAtXYPoints, nPointsPerAxis);
+        DataSet ds = trainData.toDataSet();
+        PlotUtil.plotTrainingData(ds.getFeatures(), ds.getLabels(), model, mins, maxs, surfaceSize);
 
 
         //Get test data, parseQuandlZipFile the test data through the network to generate predictions, and plot those predictions:
-        rrTest.initialize(new FileSplit(new ClassPathResource("/classification/moon_data_eval.csv").getFile()));
-        rrTest.reset();
-        int nTestPoints = 1000;
-        testIter = new RecordReaderDataSetIterator(rrTest,nTestPoints,0,2);
-        ds = testIter.next();
+        ds = testData.toDataSet();
         INDArray testPredicted = model.output(ds.getFeatures());
-        PlotUtil.plotTestData(ds.getFeatures(), ds.getLabels(), testPredicted, allXYPoints, predictionsAtXYPoints, nPointsPerAxis);
+        PlotUtil.plotTestData(ds.getFeatures(), ds.getLabels(), testPredicted, model, mins, maxs, surfaceSize);
 
         System.out.println("****************Example finished********************");
     }
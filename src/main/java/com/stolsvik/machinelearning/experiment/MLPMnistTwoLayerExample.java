@@ -1,6 +1,6 @@
 package com.stolsvik.machinelearning.experiment;
 
-
+import com.stolsvik.machinelearning.experiment.mnist.MnistImages;
 import org.deeplearning4j.datasets.iterator.impl.MnistDataSetIterator;
 import org.deeplearning4j.eval.Evaluation;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
@@ -21,6 +21,7 @@ import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 
 /**
  * A slightly more involved multilayered (MLP) applied to digit classification for the MNIST dataset (http://yann.lecun.com/exdb/mnist/).
@@ -53,14 +54,16 @@ public class MLPMnistTwoLayerExample {
         int outputNum = 10; // number of output classes
         int batchSize = 64; // batch size for each epoch
         int rngSeed = 123; // random number seed for reproducibility
-        int numEpochs = 15; // number of epochs to perform
+        int maxEpochs = 15; // max number of epochs to perform
+        int patience = 3; // number of epochs without improvement on the validation set before stopping
         double rate = 0.0015; // learning rate
 
-        //Get the DataSetIterators:
-        DataSetIterator mnistTrain = new MnistDataSetIterator(batchSize, true, rngSeed);
+        //Get the training images, with a validation holdout, and the test DataSetIterator:
+        MnistImages trainingImages = MnistImages.getTraining().randomize();
+        MnistImages validationImages = trainingImages.splitOffValidation(5000);
         DataSetIterator mnistTest = new MnistDataSetIterator(batchSize, false, rngSeed);
 
-        int roundsPerEpoch = mnistTrain.numExamples() / batchSize;
+        int roundsPerEpoch = trainingImages.getSize() / batchSize;
 
         log.info("Build model....");
         MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
@@ -91,17 +94,19 @@ public class MLPMnistTwoLayerExample {
 
         MultiLayerNetwork model = new MultiLayerNetwork(conf);
         model.init();
-        model.setListeners(new ScoreIterationListener(100));  //print the score with every iteration
+        model.setListeners(new ScoreIterationListener(100),  //print the score with every iteration
+                new TrainingMetricsListener(MLPMnistTwoLayerExample.class.getSimpleName(), 1000, 1000));
 
-        log.info("Train model.... numExamples:[" + mnistTrain.numExamples() + "], roundsPerEpoch:[" + roundsPerEpoch + "], epochs:[" + numEpochs + "].");
-        for (int i = 0; i < numEpochs; i++) {
-            mnistTrain.reset();
-            log.info("Epoch " + i);
+        log.info("Train model.... numExamples:[" + trainingImages.getSize() + "], roundsPerEpoch:[" + roundsPerEpoch + "], maxEpochs:[" + maxEpochs + "].");
+        EarlyStoppingTrainer trainer = new EarlyStoppingTrainer(model, validationImages, maxEpochs, patience,
+                new File("checkpoints/mlp_mnist_two_layer"));
+        EarlyStoppingTrainer.Result result = trainer.train((m, epoch) -> {
             for (int j = 0; j < roundsPerEpoch; j++) {
-                DataSet featuresAndLabels = mnistTrain.next();
-                model.fit(featuresAndLabels);
+                DataSet featuresAndLabels = Dl4j_Mnist.getNextFeatureAndLabelDataSet(trainingImages, batchSize);
+                m.fit(featuresAndLabels);
             }
-        }
+        });
+        log.info("Training done: " + result);
 
 
         log.info("Evaluate model....");
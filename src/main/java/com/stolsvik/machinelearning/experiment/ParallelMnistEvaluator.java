@@ -0,0 +1,223 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.stolsvik.machinelearning.experiment.mnist.MnistImages;
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates a {@link MultiLayerNetwork} on a set of {@link MnistImages} by streaming the images in fixed-size chunks
+ * across worker threads, instead of building one huge feature matrix of the entire set. Each worker takes the next
+ * unclaimed chunk, fills its own reusable feature and label buffers, runs the chunk through its own copy of the model
+ * (<code>MultiLayerNetwork.output(..)</code> is not thread safe), and accumulates into its own {@link Evaluation}. The
+ * per-worker confusion matrices are merged at the end. Peak memory is thus bounded by workers * chunk size, no matter
+ * how large the set is.
+ * <p>
+ * The worker copies get the current parameters of the model at the start of each evaluation, so the same evaluator
+ * can be used repeatedly on a model that is being trained.
+ * <p>
+ * {@link #predict(MnistImages, int[], ChunkListener)} runs the same machinery, but records the predicted digit of each image
+ * instead of accumulating an Evaluation - e.g. to find which images the model gets wrong.
+ * <p>
+ * {@link #evaluateOnCallingThread(MultiLayerNetwork, MnistImages, int)} streams the same chunks through the model
+ * itself on the calling thread, with no copies and no threads - for a thread that owns its model anyway, e.g. a
+ * hyperparameter search trial.
+ */
+public class ParallelMnistEvaluator {
+
+    private static final int NUM_INPUTS = 28 * 28;
+    private static final int NUM_OUTPUTS = 10;
+
+    private final MultiLayerNetwork _model;
+    private final MultiLayerNetwork[] _workerModels;
+    private final int _chunkSize;
+    private final ExecutorService _executor;
+
+    public ParallelMnistEvaluator(MultiLayerNetwork model, int numberOfWorkers, int chunkSize) {
+        if (numberOfWorkers < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("numberOfWorkers [" + numberOfWorkers + "] and chunkSize ["
+                    + chunkSize + "] must both be at least 1.");
+        }
+        _model = model;
+        _chunkSize = chunkSize;
+        _workerModels = new MultiLayerNetwork[numberOfWorkers];
+        for (int i = 0; i < numberOfWorkers; i++) {
+            _workerModels[i] = model.clone();
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        _executor = Executors.newFixedThreadPool(numberOfWorkers, r -> {
+            Thread thread = new Thread(r, "MnistEvaluator worker #" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * One-shot convenience: evaluates using half the available processors as workers, and chunks of 500 images.
+     */
+    public static Evaluation evaluate(MultiLayerNetwork model, MnistImages images) {
+        ParallelMnistEvaluator evaluator = new ParallelMnistEvaluator(model,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 500);
+        try {
+            return evaluator.evaluate(images);
+        }
+        finally {
+            evaluator.shutdown();
+        }
+    }
+
+    /**
+     * Evaluates in chunks of <code>chunkSize</code> images, using the model itself, on the calling thread - which must
+     * thus be the only one using the model.
+     */
+    public static Evaluation evaluateOnCallingThread(MultiLayerNetwork model, MnistImages images, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1, was [" + chunkSize + "].");
+        }
+        Evaluation evaluation = new Evaluation(NUM_OUTPUTS);
+        double[] features = new double[chunkSize * NUM_INPUTS];
+        double[] labels = new double[chunkSize * NUM_OUTPUTS];
+        double[] image = new double[NUM_INPUTS];
+        double[] oneHot = new double[NUM_OUTPUTS];
+        int size = images.getSize();
+        for (int start = 0; start < size; start += chunkSize) {
+            int rows = Math.min(chunkSize, size - start);
+            if (rows < chunkSize) {
+                features = new double[rows * NUM_INPUTS];
+                labels = new double[rows * NUM_OUTPUTS];
+            }
+            fillChunk(images, start, rows, image, oneHot, features, labels);
+            INDArray output = model.output(Nd4j.create(features, new int[] { rows, NUM_INPUTS }), false);
+            evaluation.eval(Nd4j.create(labels, new int[] { rows, NUM_OUTPUTS }), output);
+        }
+        return evaluation;
+    }
+
+    public Evaluation evaluate(MnistImages images) {
+        List<Evaluation> evaluations = runWorkers(images);
+        Evaluation merged = evaluations.get(0);
+        for (int i = 1; i < evaluations.size(); i++) {
+            merged.merge(evaluations.get(i));
+        }
+        return merged;
+    }
+
+    /**
+     * Told when a chunk of predictions is done, on the worker thread that did it.
+     */
+    @FunctionalInterface
+    public interface ChunkListener {
+        void chunkDone(int start, int rows);
+    }
+
+    /**
+     * Fills <code>predictions</code> with the predicted digit (argmax of the output) of each image.
+     *
+     * @param listener told as each chunk is done, so its predictions can be used while the rest are computed. May be
+     *            <code>null</code>.
+     */
+    public void predict(MnistImages images, int[] predictions, ChunkListener listener) {
+        if (predictions.length != images.getSize()) {
+            throw new IllegalArgumentException("predictions.length [" + predictions.length
+                    + "] must equal the number of images [" + images.getSize() + "].");
+        }
+        runWorkers(images, () -> null, (ignored, start, rows, labels, output) -> {
+            INDArray argMax = Nd4j.argMax(output, 1);
+            for (int i = 0; i < rows; i++) {
+                predictions[start + i] = argMax.getInt(i);
+            }
+            if (listener != null) {
+                listener.chunkDone(start, rows);
+            }
+        });
+    }
+
+    public void shutdown() {
+        _executor.shutdown();
+    }
+
+    private List<Evaluation> runWorkers(MnistImages images) {
+        return runWorkers(images, () -> new Evaluation(NUM_OUTPUTS), (eval, start, rows, labels, output) ->
+                eval.eval(Nd4j.create(labels, new int[] { rows, NUM_OUTPUTS }), output));
+    }
+
+    /**
+     * What to do with the output of a chunk, on the worker thread, with the worker's own state.
+     */
+    @FunctionalInterface
+    private interface ChunkHandler<S> {
+        void handle(S workerState, int start, int rows, double[] labels, INDArray output);
+    }
+
+    private <S> List<S> runWorkers(MnistImages images, Supplier<S> workerStateSupplier, ChunkHandler<S> handler) {
+        INDArray params = _model.params();
+        for (MultiLayerNetwork workerModel : _workerModels) {
+            workerModel.setParams(params);
+        }
+        int size = images.getSize();
+        AtomicInteger nextChunk = new AtomicInteger();
+        List<Future<S>> futures = new ArrayList<>(_workerModels.length);
+        for (MultiLayerNetwork workerModel : _workerModels) {
+            futures.add(_executor.submit(() -> {
+                S workerState = workerStateSupplier.get();
+                double[] features = new double[_chunkSize * NUM_INPUTS];
+                double[] labels = new double[_chunkSize * NUM_OUTPUTS];
+                double[] image = new double[NUM_INPUTS];
+                double[] oneHot = new double[NUM_OUTPUTS];
+                while (true) {
+                    int start = nextChunk.getAndIncrement() * _chunkSize;
+                    if (start >= size) {
+                        return workerState;
+                    }
+                    int rows = Math.min(_chunkSize, size - start);
+                    if (rows < _chunkSize) {
+                        // Last, partial chunk: exact-size buffers, as the shape must match the data length.
+                        features = new double[rows * NUM_INPUTS];
+                        labels = new double[rows * NUM_OUTPUTS];
+                    }
+                    fillChunk(images, start, rows, image, oneHot, features, labels);
+                    INDArray featureMatrix = Nd4j.create(features, new int[] { rows, NUM_INPUTS });
+                    INDArray output = workerModel.output(featureMatrix, false);
+                    handler.handle(workerState, start, rows, labels, output);
+                }
+            }));
+        }
+        List<S> workerStates = new ArrayList<>(futures.size());
+        for (Future<S> future : futures) {
+            try {
+                workerStates.add(future.get());
+            }
+            catch (InterruptedException e) {
+                throw new IllegalStateException("Interrupted while waiting for evaluation workers.", e);
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException("Evaluation worker failed.", e.getCause());
+            }
+        }
+        return workerStates;
+    }
+
+    /**
+     * Fills the features and one-hot labels of images <code>[start, start + rows)</code> into the chunk buffers, using
+     * <code>image</code> and <code>oneHot</code> as scratch.
+     */
+    private static void fillChunk(MnistImages images, int start, int rows, double[] image, double[] oneHot,
+            double[] features, double[] labels) {
+        for (int i = 0; i < rows; i++) {
+            images.getImageOne(start + i, image);
+            System.arraycopy(image, 0, features, i * NUM_INPUTS, NUM_INPUTS);
+            images.getOneHotLabel(start + i, oneHot);
+            System.arraycopy(oneHot, 0, labels, i * NUM_OUTPUTS, NUM_OUTPUTS);
+        }
+    }
+}
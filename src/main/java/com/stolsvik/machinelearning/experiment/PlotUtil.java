@@ -16,12 +16,14 @@ import org.jfree.chart.title.PaintScaleLegend;
 import org.jfree.data.xy.*;
 import org.jfree.ui.RectangleEdge;
 import org.jfree.ui.RectangleInsets;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.api.ops.impl.indexaccum.IMax;
 import org.nd4j.linalg.factory.Nd4j;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 
 /**Simple plotting methods for the MLPClassifier examples
  * @author Alex Black
@@ -78,6 +80,61 @@ public class PlotUtil {
     }
 
 
+    /**Plot the training data on top of the model's decision surface, which is rendered progressively and in parallel
+     * by a {@link DecisionSurfaceRenderer} after the window is shown. Assume 2d input, classification output
+     * @param features Training data features
+     * @param labels Training data labels (one-hot representation)
+     * @param model the trained model, evaluated over the input space for the background
+     * @param mins x and y minimum of the plotted input space
+     * @param maxs x and y maximum of the plotted input space
+     * @param surfaceSize the resolution of the decision surface, in pixels per axis
+     */
+    public static void plotTrainingData(INDArray features, INDArray labels, MultiLayerNetwork model, double[] mins, double[] maxs, int surfaceSize){
+        plotWithDecisionSurface("Training Data", createDataSetTrain(features, labels), model, mins, maxs, surfaceSize);
+    }
+
+    /**Plot the test data and predictions on top of the model's decision surface - see
+     * {@link #plotTrainingData(INDArray, INDArray, MultiLayerNetwork, double[], double[], int)}.
+     * @param features Test data features
+     * @param labels Test data labels (one-hot representation)
+     * @param predicted Network predictions, for the test points
+     */
+    public static void plotTestData(INDArray features, INDArray labels, INDArray predicted, MultiLayerNetwork model, double[] mins, double[] maxs, int surfaceSize){
+        plotWithDecisionSurface("Test Data", createDataSetTest(features, labels, predicted), model, mins, maxs, surfaceSize);
+    }
+
+    private static void plotWithDecisionSurface(String title, XYDataset xyData, MultiLayerNetwork model, double[] mins, double[] maxs, int surfaceSize){
+        // Empty block dataset: the surface is painted as the plot's background image instead.
+        DefaultXYZDataset noBlocks = new DefaultXYZDataset();
+        noBlocks.addSeries("Series 1", new double[][]{new double[0], new double[0], new double[0]});
+        JFreeChart chart = createChart(noBlocks, mins, maxs, 2, xyData);
+        XYPlot plot = chart.getXYPlot();
+
+        JFrame f = new JFrame();
+        f.add(new ChartPanel(chart));
+        f.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        f.pack();
+        f.setTitle(title);
+        f.setVisible(true);
+
+        // The renderer clones the model - which must happen here, on the calling thread, since the caller goes on
+        // using the (not thread safe) model as soon as this returns.
+        DecisionSurfaceRenderer renderer = new DecisionSurfaceRenderer(model,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        Thread renderThread = new Thread(() -> {
+            try {
+                // Each level's image replaces the previous on the EDT; the plot repaints on the change.
+                renderer.render(mins[0], maxs[0], mins[1], maxs[1], surfaceSize,
+                        (BufferedImage image) -> SwingUtilities.invokeLater(() -> plot.setBackgroundImage(image)));
+            }
+            finally {
+                renderer.shutdown();
+            }
+        }, "DecisionSurface renderer: " + title);
+        renderThread.setDaemon(true);
+        renderThread.start();
+    }
+
     /**Create data for the background data set
      */
     private static XYZDataset createBackgroundData(INDArray backgroundIn, INDArray backgroundOut) {
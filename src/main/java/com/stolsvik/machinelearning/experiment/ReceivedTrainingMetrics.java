@@ -0,0 +1,80 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.stolsvik.machinelearning.experiment.TrainingMetricsListener.Sample;
+import com.stolsvik.machinelearning.tools.SingleWriterRingBuffer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The metrics of a training in another JVM, as received by {@link TrainingMetricsEndpoint} from the
+ * {@link TrainingMetricsPublisher} there. Registered by name, like {@link TrainingMetricsListener}: a new run with the
+ * same name replaces the old one, so that its samples start afresh.
+ */
+public class ReceivedTrainingMetrics implements TrainingMetrics {
+
+    private static final Map<String, ReceivedTrainingMetrics> __received = new ConcurrentSkipListMap<>();
+
+    private final String _name;
+    private final long _startedMillis;
+    private final SingleWriterRingBuffer<Sample> _samples = new SingleWriterRingBuffer<>(
+            TrainingMetricsListener.SAMPLE_BUFFER_SIZE);
+
+    private volatile Map<String, Object> _metrics = Collections.emptyMap();
+    private volatile long _lastReceivedMillis;
+
+    private ReceivedTrainingMetrics(String name, long startedMillis) {
+        _name = name;
+        _startedMillis = startedMillis;
+    }
+
+    /**
+     * Registers - or updates - the training <code>name</code> of another JVM.
+     *
+     * @param startedMillis the {@link TrainingMetricsListener#getStartedMillis()} of the run.
+     * @param metrics the {@link TrainingMetricsListener#toMap()} of the run.
+     * @param samples the samples published since the previous receive, oldest first.
+     */
+    public static void receive(String name, long startedMillis, Map<String, Object> metrics, List<Sample> samples) {
+        ReceivedTrainingMetrics received = __received.compute(name, (n, existing) ->
+                (existing != null) && (existing._startedMillis == startedMillis)
+                        ? existing : new ReceivedTrainingMetrics(name, startedMillis));
+        // The ring buffer takes one writer at a time, while the receives come in on any request thread.
+        synchronized (received) {
+            for (Sample sample : samples) {
+                received._samples.publish(sample);
+            }
+            received._metrics = metrics;
+            received._lastReceivedMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return all received trainings, by name.
+     */
+    public static Collection<ReceivedTrainingMetrics> getReceived() {
+        return Collections.unmodifiableCollection(__received.values());
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>(_metrics);
+        // A training whose JVM has exited stays, with its last figures - this tells how stale they are.
+        map.put("millisSinceReceived", System.currentTimeMillis() - _lastReceivedMillis);
+        return map;
+    }
+
+    @Override
+    public SingleWriterRingBuffer<Sample> getSamples() {
+        return _samples;
+    }
+}
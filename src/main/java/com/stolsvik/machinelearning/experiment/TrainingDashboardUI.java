@@ -0,0 +1,279 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.stolsvik.machinelearning.experiment.TrainingMetricsListener.Sample;
+import com.vaadin.annotations.Push;
+import com.vaadin.annotations.Title;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.shared.communication.PushMode;
+import com.vaadin.shared.ui.ContentMode;
+import com.vaadin.spring.annotation.SpringUI;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.Panel;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+import com.vaadin.ui.VerticalLayout;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Live dashboard at "/dashboard" of every running training that has a {@link TrainingMetricsListener} - in this JVM, or
+ * in another JVM publishing to this one through its {@link TrainingMetricsPublisher}: loss,
+ * samples/sec, position in the learning rate schedule, and heap/off-heap memory, with sparklines of loss and
+ * throughput. (Not at "/training": that is the {@link TrainingMetricsEndpoint}, with the same figures as JSON.)
+ * <p>
+ * The training thread only publishes into the listener's lock-free ring buffer (for a training in another JVM, the
+ * receiving request thread publishes into the {@link ReceivedTrainingMetrics}'s). Each open dashboard polls the ring
+ * buffers on a shared scheduler, at most <code>machinelearning.dashboard.max-pushes-per-second</code> times per second,
+ * and folds everything that arrived since the previous poll into one update - so the push rate is capped no matter how
+ * many iterations per second the training runs. If the previous update hasn't been applied yet (the session is busy),
+ * the poll is skipped and the samples are folded into the next one. Samples that are overwritten before a poll gets to
+ * them are simply lost to the dashboard.
+ */
+@SpringUI(path = "/dashboard")
+@Push(PushMode.MANUAL)
+@Title("Training dashboard")
+public class TrainingDashboardUI extends UI {
+
+    private static final int SPARKLINE_POINTS = 240;
+
+    private static final ScheduledExecutorService __poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "TrainingDashboard poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${machinelearning.dashboard.max-pushes-per-second:4}")
+    private int _maxPushesPerSecond;
+
+    private final VerticalLayout _layout = new VerticalLayout();
+    private final Label _noTrainings = new Label("No trainings registered yet - add a TrainingMetricsListener to the"
+            + " model, and start the training with -D" + TrainingMetricsPublisher.PUBLISH_URL_PROPERTY
+            + "=http://<this host:port>/training");
+    // Looked up by the poller thread only; iterated by the UI.
+    private final Map<TrainingMetrics, TrainingView> _viewsByTraining = new HashMap<>();
+    private final List<TrainingView> _views = new CopyOnWriteArrayList<>();
+    // Views of trainings no longer registered, e.g. replaced by a new run with the same name, for the UI to remove.
+    private final Queue<TrainingView> _replacedViews = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean _updatePending = new AtomicBoolean();
+    private ScheduledFuture<?> _pollTask;
+
+    @Override
+    protected void init(VaadinRequest request) {
+        _layout.addComponent(_noTrainings);
+        setContent(_layout);
+        long periodMillis = 1000 / Math.max(1, _maxPushesPerSecond);
+        _pollTask = __poller.scheduleAtFixedRate(this::poll, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        addDetachListener(e -> _pollTask.cancel(false));
+    }
+
+    /**
+     * Runs on the poller thread: reads and folds the new samples outside the session lock, then pushes one update.
+     */
+    private void poll() {
+        if (_updatePending.get()) {
+            // The previous update hasn't been applied yet; the samples will be folded into the next poll.
+            return;
+        }
+        boolean changed = false;
+        List<TrainingMetrics> trainings = TrainingMetrics.getAll();
+        Iterator<Entry<TrainingMetrics, TrainingView>> it = _viewsByTraining.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<TrainingMetrics, TrainingView> entry = it.next();
+            if (!trainings.contains(entry.getKey())) {
+                it.remove();
+                _views.remove(entry.getValue());
+                _replacedViews.add(entry.getValue());
+                changed = true;
+            }
+        }
+        for (TrainingMetrics training : trainings) {
+            TrainingView view = _viewsByTraining.get(training);
+            if (view == null) {
+                view = new TrainingView(training);
+                _viewsByTraining.put(training, view);
+                _views.add(view);
+            }
+            changed |= view.fold();
+        }
+        if (!changed) {
+            return;
+        }
+        _updatePending.set(true);
+        try {
+            access(() -> {
+                try {
+                    _layout.removeComponent(_noTrainings);
+                    for (TrainingView replaced; (replaced = _replacedViews.poll()) != null;) {
+                        _layout.removeComponent(replaced._panel);
+                    }
+                    for (TrainingView view : _views) {
+                        view.apply();
+                    }
+                    push();
+                }
+                finally {
+                    _updatePending.set(false);
+                }
+            });
+        }
+        catch (UIDetachedException e) {
+            // The browser went away between the detach and the cancel taking effect.
+            _pollTask.cancel(false);
+        }
+    }
+
+    /**
+     * The dashboard panel for one training. The fold state is only touched by the poller thread, the components only
+     * inside {@link UI#access(Runnable)}; the hand-over happens through the volatile {@link #_latest}.
+     */
+    private class TrainingView {
+        private final TrainingMetrics _training;
+        private final Panel _panel;
+        private final Label _progress = new Label();
+        private final Label _schedule = new Label();
+        private final Label _memory = new Label();
+        private final Label _lossSparkline = new Label("", ContentMode.HTML);
+        private final Label _throughputSparkline = new Label("", ContentMode.HTML);
+
+        // :: Poller thread only
+        private long _nextSequence;
+        private final double[] _lossPoints = new double[SPARKLINE_POINTS];
+        private final double[] _throughputPoints = new double[SPARKLINE_POINTS];
+        private int _pointCount;
+
+        // :: Hand-over to the UI
+        private volatile Update _latest;
+        private Update _applied;
+        private boolean _added;
+
+        private TrainingView(TrainingMetrics training) {
+            _training = training;
+            VerticalLayout content = new VerticalLayout(_progress, _schedule, _memory, _lossSparkline,
+                    _throughputSparkline);
+            _panel = new Panel(training.getName(), content);
+        }
+
+        /**
+         * Folds the samples published since the last poll into one sparkline point each for loss and samples/sec (the
+         * means), and keeps the newest sample for the rest.
+         *
+         * @return whether there were any new samples.
+         */
+        private boolean fold() {
+            double[] lossSum = new double[1];
+            double[] throughputSum = new double[1];
+            int[] throughputCount = new int[1];
+            Sample[] newest = new Sample[1];
+            int[] count = new int[1];
+            _nextSequence = _training.getSamples().readFrom(_nextSequence, sample -> {
+                lossSum[0] += sample.getScore();
+                if (!Double.isNaN(sample.getSamplesPerSecond())) {
+                    throughputSum[0] += sample.getSamplesPerSecond();
+                    throughputCount[0]++;
+                }
+                newest[0] = sample;
+                count[0]++;
+            });
+            if (count[0] == 0) {
+                return false;
+            }
+            System.arraycopy(_lossPoints, 1, _lossPoints, 0, SPARKLINE_POINTS - 1);
+            System.arraycopy(_throughputPoints, 1, _throughputPoints, 0, SPARKLINE_POINTS - 1);
+            _lossPoints[SPARKLINE_POINTS - 1] = lossSum[0] / count[0];
+            _throughputPoints[SPARKLINE_POINTS - 1] = throughputCount[0] == 0
+                    ? Double.NaN : throughputSum[0] / throughputCount[0];
+            _pointCount = Math.min(SPARKLINE_POINTS, _pointCount + 1);
+            _latest = new Update(newest[0], count[0], sparkline(_lossPoints, _pointCount, "#c33"),
+                    sparkline(_throughputPoints, _pointCount, "#36c"));
+            return true;
+        }
+
+        private void apply() {
+            Update update = _latest;
+            if ((update == null) || (update == _applied)) {
+                return;
+            }
+            _applied = update;
+            if (!_added) {
+                _layout.addComponent(_panel);
+                _added = true;
+            }
+            Sample s = update._sample;
+            _progress.setValue(String.format(Locale.US, "Iteration %,d (%d new) - loss %.5f - %,.0f samples/sec",
+                    s.getIteration(), update._foldedSamples, s.getScore(), s.getSamplesPerSecond()));
+            if (s.getScheduleSteps() == 0) {
+                _schedule.setValue(String.format(Locale.US, "Learning rate %.6f (no schedule)", s.getLearningRate()));
+            }
+            else {
+                _schedule.setValue(String.format(Locale.US, "Learning rate %.6f - schedule step %d of %d, %s",
+                        s.getLearningRate(), s.getScheduleStep() + 1, s.getScheduleSteps(),
+                        s.getNextScheduleChangeIteration() < 0 ? "final step"
+                                : "next change at iteration " + s.getNextScheduleChangeIteration()));
+            }
+            _memory.setValue(String.format(Locale.US, "Heap used %,.0f MB - off-heap %,.0f MB",
+                    s.getHeapUsedMegabytes(), s.getOffHeapMegabytes()));
+            _lossSparkline.setValue("Loss " + update._lossSparkline);
+            _throughputSparkline.setValue("Samples/sec " + update._throughputSparkline);
+        }
+    }
+
+    private static class Update {
+        private final Sample _sample;
+        private final int _foldedSamples;
+        private final String _lossSparkline;
+        private final String _throughputSparkline;
+
+        private Update(Sample sample, int foldedSamples, String lossSparkline, String throughputSparkline) {
+            _sample = sample;
+            _foldedSamples = foldedSamples;
+            _lossSparkline = lossSparkline;
+            _throughputSparkline = throughputSparkline;
+        }
+    }
+
+    /**
+     * Renders the last <code>count</code> points as an inline SVG polyline, scaled to their min and max.
+     */
+    private static String sparkline(double[] points, int count, String color) {
+        int width = SPARKLINE_POINTS * 2;
+        int height = 40;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = points.length - count; i < points.length; i++) {
+            if (!Double.isNaN(points[i])) {
+                min = Math.min(min, points[i]);
+                max = Math.max(max, points[i]);
+            }
+        }
+        double range = max > min ? max - min : 1;
+        StringBuilder buf = new StringBuilder(count * 12 + 200);
+        buf.append("<svg width='").append(width).append("' height='").append(height)
+                .append("'><polyline fill='none' stroke='").append(color).append("' points='");
+        for (int i = points.length - count; i < points.length; i++) {
+            if (Double.isNaN(points[i])) {
+                continue;
+            }
+            buf.append((i - (points.length - count)) * 2).append(',')
+                    .append(String.format(Locale.US, "%.1f ", height - 1 - (points[i] - min) / range * (height - 2)));
+        }
+        buf.append("'/></svg>");
+        if (max >= min) {
+            buf.append(String.format(Locale.US, " [%.4g - %.4g]", min, max));
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,37 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.stolsvik.machinelearning.experiment.TrainingMetricsListener.Sample;
+import com.stolsvik.machinelearning.tools.SingleWriterRingBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The metrics of one training, as shown by {@link TrainingMetricsEndpoint} and {@link TrainingDashboardUI}: either of
+ * a training in this JVM, i.e. a {@link TrainingMetricsListener}, or of a training in another JVM whose listener
+ * publishes to this one, i.e. a {@link ReceivedTrainingMetrics}.
+ */
+public interface TrainingMetrics {
+
+    String getName();
+
+    /**
+     * @return the current metrics as a map, suitable for JSON rendering.
+     */
+    Map<String, Object> toMap();
+
+    /**
+     * @return the per-iteration samples, for live views.
+     */
+    SingleWriterRingBuffer<Sample> getSamples();
+
+    /**
+     * @return the registered listeners of this JVM, then the trainings received from other JVMs.
+     */
+    static List<TrainingMetrics> getAll() {
+        List<TrainingMetrics> all = new ArrayList<>(TrainingMetricsListener.getRegisteredListeners());
+        all.addAll(ReceivedTrainingMetrics.getReceived());
+        return all;
+    }
+}
@@ -0,0 +1,71 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.stolsvik.machinelearning.experiment.TrainingMetricsListener.Sample;
+import org.springframework.boot.actuate.endpoint.mvc.AbstractMvcEndpoint;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint "/training", exposing the metrics of every training, by name: those registered in this JVM by
+ * their {@link TrainingMetricsListener}, and those received from trainings in other JVMs.
+ * <p>
+ * A POST receives the metrics and samples of a training in another JVM, as sent by its
+ * {@link TrainingMetricsPublisher}, into a {@link ReceivedTrainingMetrics} - which both this endpoint and the
+ * {@link TrainingDashboardUI} show along with the trainings in this JVM. The received metrics have
+ * "millisSinceReceived" added, since a training whose JVM has exited stays with its last figures.
+ */
+@Component
+public class TrainingMetricsEndpoint extends AbstractMvcEndpoint {
+
+    public TrainingMetricsEndpoint() {
+        // Not sensitive: these are performance figures only.
+        super("/training", false);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Map<String, Object> invoke() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (TrainingMetrics training : TrainingMetrics.getAll()) {
+            // A received training with the name of one in this JVM doesn't hide it.
+            result.putIfAbsent(training.getName(), training.toMap());
+        }
+        return result;
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<String> receive(@RequestBody Map<String, Object> body) {
+        Object name = body.get("name");
+        Object startedMillis = body.get("startedMillis");
+        Object metrics = body.get("metrics");
+        Object samples = body.get("samples");
+        if (!(name instanceof String) || !(startedMillis instanceof Number) || !(metrics instanceof Map)
+                || !(samples instanceof List)) {
+            return ResponseEntity.badRequest().body("Expected 'name', 'startedMillis', 'metrics' and 'samples'.");
+        }
+        List<Sample> received = new ArrayList<>();
+        try {
+            for (Object sample : (List<Object>) samples) {
+                received.add(Sample.fromMap((Map<String, Object>) sample));
+            }
+        }
+        catch (IllegalArgumentException | ClassCastException e) {
+            return ResponseEntity.badRequest().body("Bad sample: " + e.getMessage());
+        }
+        ReceivedTrainingMetrics.receive((String) name, ((Number) startedMillis).longValue(),
+                (Map<String, Object>) metrics, received);
+        return ResponseEntity.ok("Received [" + received.size() + "] samples.");
+    }
+}
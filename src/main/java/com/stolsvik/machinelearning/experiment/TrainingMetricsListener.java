@@ -0,0 +1,477 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.stolsvik.machinelearning.tools.MemoryReport;
+import com.stolsvik.machinelearning.tools.RollingHistogram;
+import com.stolsvik.machinelearning.tools.SingleWriterRingBuffer;
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.conf.layers.BaseLayer;
+import org.deeplearning4j.nn.conf.layers.Layer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.api.TrainingListener;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A {@link TrainingListener} which records, per iteration, rolling histograms of:
+ * <ul>
+ * <li>samples/sec</li>
+ * <li>time spent preparing the batch, i.e. from the end of the previous iteration to the start of the forward pass</li>
+ * <li>time spent in <code>fit</code>, i.e. from the start of the forward pass to the end of the iteration</li>
+ * <li>heap bytes allocated by the training thread (if the JVM supports measuring it)</li>
+ * <li>GC time</li>
+ * <li>off-heap bytes in use by ND4J (through JavaCPP)</li>
+ * </ul>
+ * The listener can be added to any {@link MultiLayerNetwork}, alongside e.g. a
+ * {@link org.deeplearning4j.optimize.listeners.ScoreIterationListener ScoreIterationListener}. Every
+ * <code>logEveryIterations</code> iterations it logs a summary. Each instance registers itself by name in a static
+ * registry, from which {@link TrainingMetricsEndpoint} exposes the metrics on the Spring Boot actuator. Since the
+ * trainings mostly run from their own <code>main</code>, i.e. not in the Spring Boot app's JVM, the listeners can also
+ * be published to the app: see {@link TrainingMetricsPublisher}.
+ * <p>
+ * Like ScoreIterationListener, it counts iterations itself, since the iteration number DL4J provides is the iteration
+ * within each <code>fit(..)</code> call.
+ * <p>
+ * In addition, every iteration publishes an immutable {@link Sample} into a lock-free {@link SingleWriterRingBuffer},
+ * from which live views (e.g. {@link TrainingDashboardUI}) read at their own pace - the training thread never waits
+ * for them. Every {@link #WORKSPACE_CAPTURE_INTERVAL} iterations, it also captures the sizes of the training thread's
+ * ND4J workspaces, which, being thread local, can't be read from elsewhere - for the
+ * {@link com.stolsvik.machinelearning.startup.MemoryEndpoint MemoryEndpoint}. Not every iteration, since the capture
+ * allocates.
+ */
+public class TrainingMetricsListener implements TrainingListener, TrainingMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(TrainingMetricsListener.class);
+
+    private static final Map<String, TrainingMetricsListener> __listeners = new ConcurrentSkipListMap<>();
+
+    static final int SAMPLE_BUFFER_SIZE = 4096;
+
+    static final int WORKSPACE_CAPTURE_INTERVAL = 100;
+
+    private static final ThreadMXBean __threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private final String _name;
+    private final long _startedMillis = System.currentTimeMillis();
+    private final int _logEveryIterations;
+
+    private final RollingHistogram _samplesPerSecond;
+    private final RollingHistogram _batchPreparationMillis;
+    private final RollingHistogram _fitMillis;
+    private final RollingHistogram _allocatedMegabytes;
+    private final RollingHistogram _gcMillis;
+    private final RollingHistogram _offHeapMegabytes;
+    private final SingleWriterRingBuffer<Sample> _samples = new SingleWriterRingBuffer<>(SAMPLE_BUFFER_SIZE);
+
+    private volatile int _lastIteration;
+    private volatile double _lastScore = Double.NaN;
+    private volatile double _lastLearningRate = Double.NaN;
+    private volatile Map<String, Long> _workspaceBytes = Collections.emptyMap();
+
+    private boolean _invoked;
+    private int _iterationCount;
+    private long _iterationEndNanos;
+    private long _forwardPassStartNanos;
+    private long _lastGcMillis;
+    private long _lastAllocatedBytes;
+    private int[] _scheduleIterations;
+
+    /**
+     * @param name the name to register the metrics under, e.g. the experiment's class name. A new listener with the
+     *             same name replaces the old one in the registry.
+     * @param windowSize how many iterations the rolling histograms cover.
+     * @param logEveryIterations how often to log a summary, 0 to never log.
+     */
+    public TrainingMetricsListener(String name, int windowSize, int logEveryIterations) {
+        _name = name;
+        _logEveryIterations = logEveryIterations;
+        _samplesPerSecond = new RollingHistogram(windowSize);
+        _batchPreparationMillis = new RollingHistogram(windowSize);
+        _fitMillis = new RollingHistogram(windowSize);
+        _allocatedMegabytes = new RollingHistogram(windowSize);
+        _gcMillis = new RollingHistogram(windowSize);
+        _offHeapMegabytes = new RollingHistogram(windowSize);
+        __listeners.put(name, this);
+        TrainingMetricsPublisher.startIfConfigured();
+    }
+
+    /**
+     * @return all registered listeners, by name.
+     */
+    public static Collection<TrainingMetricsListener> getRegisteredListeners() {
+        return Collections.unmodifiableCollection(__listeners.values());
+    }
+
+    /**
+     * Removes this listener from the registry, i.e. from the actuator endpoint.
+     */
+    public void unregister() {
+        __listeners.remove(_name, this);
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * @return when this listener was created, which tells runs with the same name apart.
+     */
+    public long getStartedMillis() {
+        return _startedMillis;
+    }
+
+    public int getLastIteration() {
+        return _lastIteration;
+    }
+
+    public double getLastScore() {
+        return _lastScore;
+    }
+
+    public double getLastLearningRate() {
+        return _lastLearningRate;
+    }
+
+    public RollingHistogram getSamplesPerSecond() {
+        return _samplesPerSecond;
+    }
+
+    public RollingHistogram getOffHeapMegabytes() {
+        return _offHeapMegabytes;
+    }
+
+    /**
+     * @return the size of each of the training thread's ND4J workspaces, by workspace id, as of the last capture - at
+     *         most {@link #WORKSPACE_CAPTURE_INTERVAL} iterations ago.
+     */
+    public Map<String, Long> getWorkspaceBytes() {
+        return _workspaceBytes;
+    }
+
+    /**
+     * @return the per-iteration samples, for live views.
+     */
+    @Override
+    public SingleWriterRingBuffer<Sample> getSamples() {
+        return _samples;
+    }
+
+    /**
+     * Immutable per-iteration sample, as published to {@link #getSamples()}.
+     */
+    public static class Sample {
+        private final int _iteration;
+        private final long _timestampMillis;
+        private final double _score;
+        private final double _samplesPerSecond;
+        private final double _learningRate;
+        private final int _scheduleStep;
+        private final int _scheduleSteps;
+        private final int _nextScheduleChangeIteration;
+        private final double _heapUsedMegabytes;
+        private final double _offHeapMegabytes;
+
+        private Sample(int iteration, long timestampMillis, double score, double samplesPerSecond,
+                double learningRate, int scheduleStep, int scheduleSteps, int nextScheduleChangeIteration,
+                double heapUsedMegabytes, double offHeapMegabytes) {
+            _iteration = iteration;
+            _timestampMillis = timestampMillis;
+            _score = score;
+            _samplesPerSecond = samplesPerSecond;
+            _learningRate = learningRate;
+            _scheduleStep = scheduleStep;
+            _scheduleSteps = scheduleSteps;
+            _nextScheduleChangeIteration = nextScheduleChangeIteration;
+            _heapUsedMegabytes = heapUsedMegabytes;
+            _offHeapMegabytes = offHeapMegabytes;
+        }
+
+        public int getIteration() {
+            return _iteration;
+        }
+
+        public long getTimestampMillis() {
+            return _timestampMillis;
+        }
+
+        public double getScore() {
+            return _score;
+        }
+
+        /**
+         * @return samples/sec of this iteration, NaN for the very first iteration.
+         */
+        public double getSamplesPerSecond() {
+            return _samplesPerSecond;
+        }
+
+        public double getLearningRate() {
+            return _learningRate;
+        }
+
+        /**
+         * @return the 0-based step of the learning rate schedule this iteration is in, or -1 if the model has no
+         *         schedule.
+         */
+        public int getScheduleStep() {
+            return _scheduleStep;
+        }
+
+        /**
+         * @return the number of steps in the learning rate schedule, 0 if the model has no schedule.
+         */
+        public int getScheduleSteps() {
+            return _scheduleSteps;
+        }
+
+        /**
+         * @return the iteration where the learning rate schedule next changes, or -1 if it won't change again.
+         */
+        public int getNextScheduleChangeIteration() {
+            return _nextScheduleChangeIteration;
+        }
+
+        public double getHeapUsedMegabytes() {
+            return _heapUsedMegabytes;
+        }
+
+        public double getOffHeapMegabytes() {
+            return _offHeapMegabytes;
+        }
+
+        /**
+         * @return this sample as a map, for sending to another JVM - see {@link #fromMap(Map)}.
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("iteration", _iteration);
+            map.put("timestampMillis", _timestampMillis);
+            map.put("score", _score);
+            map.put("samplesPerSecond", _samplesPerSecond);
+            map.put("learningRate", _learningRate);
+            map.put("scheduleStep", _scheduleStep);
+            map.put("scheduleSteps", _scheduleSteps);
+            map.put("nextScheduleChangeIteration", _nextScheduleChangeIteration);
+            map.put("heapUsedMegabytes", _heapUsedMegabytes);
+            map.put("offHeapMegabytes", _offHeapMegabytes);
+            return map;
+        }
+
+        /**
+         * @param map as made by {@link #toMap()}, after a round through JSON - where NaN becomes the string "NaN".
+         */
+        public static Sample fromMap(Map<String, ?> map) {
+            return new Sample(toNumber(map, "iteration").intValue(), toNumber(map, "timestampMillis").longValue(),
+                    toNumber(map, "score").doubleValue(), toNumber(map, "samplesPerSecond").doubleValue(),
+                    toNumber(map, "learningRate").doubleValue(), toNumber(map, "scheduleStep").intValue(),
+                    toNumber(map, "scheduleSteps").intValue(),
+                    toNumber(map, "nextScheduleChangeIteration").intValue(),
+                    toNumber(map, "heapUsedMegabytes").doubleValue(),
+                    toNumber(map, "offHeapMegabytes").doubleValue());
+        }
+
+        private static Number toNumber(Map<String, ?> map, String key) {
+            Object value = map.get(key);
+            if (value instanceof Number) {
+                return (Number) value;
+            }
+            if (value == null) {
+                throw new IllegalArgumentException("Sample lacks [" + key + "].");
+            }
+            return Double.valueOf(value.toString());
+        }
+    }
+
+    // ===== TrainingListener
+
+    @Override
+    public boolean invoked() {
+        return _invoked;
+    }
+
+    @Override
+    public void invoke() {
+        _invoked = true;
+    }
+
+    @Override
+    public void onEpochStart(Model model) {
+        /* no-op */
+    }
+
+    @Override
+    public void onEpochEnd(Model model) {
+        /* no-op */
+    }
+
+    @Override
+    public void onForwardPass(Model model, List<INDArray> activations) {
+        markForwardPassStart();
+    }
+
+    @Override
+    public void onForwardPass(Model model, Map<String, INDArray> activations) {
+        markForwardPassStart();
+    }
+
+    @Override
+    public void onGradientCalculation(Model model) {
+        /* no-op */
+    }
+
+    @Override
+    public void onBackwardPass(Model model) {
+        /* no-op */
+    }
+
+    private void markForwardPassStart() {
+        // There might be several forward passes per iteration (e.g. line search optimizers); the first one counts.
+        if (_forwardPassStartNanos == 0) {
+            _forwardPassStartNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void iterationDone(Model model, int iteration) {
+        invoke();
+        long nowNanos = System.nanoTime();
+        long gcMillis = totalGcMillis();
+        long allocatedBytes = currentThreadAllocatedBytes();
+
+        // The first iteration only establishes the baselines.
+        double samplesPerSecond = Double.NaN;
+        if (_iterationEndNanos != 0) {
+            long forwardPassStartNanos = _forwardPassStartNanos != 0 ? _forwardPassStartNanos : _iterationEndNanos;
+            double iterationSeconds = (nowNanos - _iterationEndNanos) / 1_000_000_000d;
+            samplesPerSecond = model.batchSize() / iterationSeconds;
+            _samplesPerSecond.record(samplesPerSecond);
+            _batchPreparationMillis.record((forwardPassStartNanos - _iterationEndNanos) / 1_000_000d);
+            _fitMillis.record((nowNanos - forwardPassStartNanos) / 1_000_000d);
+            _gcMillis.record(gcMillis - _lastGcMillis);
+            if (allocatedBytes >= 0) {
+                _allocatedMegabytes.record((allocatedBytes - _lastAllocatedBytes) / (1024d * 1024d));
+            }
+        }
+        double offHeapMegabytes = Pointer.totalBytes() / (1024d * 1024d);
+        _offHeapMegabytes.record(offHeapMegabytes);
+        if (_iterationCount % WORKSPACE_CAPTURE_INTERVAL == 0) {
+            _workspaceBytes = MemoryReport.currentThreadWorkspaceBytes();
+        }
+
+        _iterationEndNanos = nowNanos;
+        _forwardPassStartNanos = 0;
+        _lastGcMillis = gcMillis;
+        _lastAllocatedBytes = allocatedBytes;
+        _lastIteration = _iterationCount;
+        _lastScore = model.score();
+        _lastLearningRate = currentLearningRate(model);
+
+        if (_scheduleIterations == null) {
+            _scheduleIterations = learningRateScheduleIterations(model);
+        }
+        int scheduleStep = -1;
+        while ((scheduleStep + 1 < _scheduleIterations.length)
+                && (_scheduleIterations[scheduleStep + 1] <= _iterationCount)) {
+            scheduleStep++;
+        }
+        int nextScheduleChange = scheduleStep + 1 < _scheduleIterations.length
+                ? _scheduleIterations[scheduleStep + 1] : -1;
+        Runtime runtime = Runtime.getRuntime();
+        _samples.publish(new Sample(_iterationCount, System.currentTimeMillis(), _lastScore, samplesPerSecond,
+                _lastLearningRate, scheduleStep, _scheduleIterations.length, nextScheduleChange,
+                (runtime.totalMemory() - runtime.freeMemory()) / (1024d * 1024d), offHeapMegabytes));
+
+        if ((_logEveryIterations > 0) && (_iterationCount % _logEveryIterations == 0)) {
+            log.info("[" + _name + "] iteration [" + _iterationCount + "]: " + summary());
+        }
+        _iterationCount++;
+    }
+
+    // ===== Reporting
+
+    public String summary() {
+        return "samples/sec {" + _samplesPerSecond.snapshot() + "}, batch prep ms {"
+                + _batchPreparationMillis.snapshot() + "}, fit ms {" + _fitMillis.snapshot()
+                + "}, allocated MB {" + _allocatedMegabytes.snapshot() + "}, GC ms {" + _gcMillis.snapshot()
+                + "}, off-heap MB {" + _offHeapMegabytes.snapshot() + "}";
+    }
+
+    /**
+     * @return the current metrics as a map, suitable for JSON rendering.
+     */
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("iteration", _lastIteration);
+        map.put("score", _lastScore);
+        map.put("learningRate", _lastLearningRate);
+        map.put("samplesPerSecond", _samplesPerSecond.snapshot().toMap());
+        map.put("batchPreparationMillis", _batchPreparationMillis.snapshot().toMap());
+        map.put("fitMillis", _fitMillis.snapshot().toMap());
+        map.put("allocatedMegabytes", _allocatedMegabytes.snapshot().toMap());
+        map.put("gcMillis", _gcMillis.snapshot().toMap());
+        map.put("offHeapMegabytes", _offHeapMegabytes.snapshot().toMap());
+        return map;
+    }
+
+    /**
+     * @return the current (i.e. scheduled) learning rate of the weights of the first layer.
+     */
+    private static double currentLearningRate(Model model) {
+        if (model instanceof MultiLayerNetwork) {
+            return ((MultiLayerNetwork) model).getLayer(0).conf().getLearningRateByParam("W");
+        }
+        return model.conf().getLearningRateByParam("W");
+    }
+
+    /**
+     * @return the sorted iterations where the learning rate schedule of the first layer changes, empty if none.
+     */
+    private static int[] learningRateScheduleIterations(Model model) {
+        Layer layerConf = model instanceof MultiLayerNetwork
+                ? ((MultiLayerNetwork) model).getLayer(0).conf().getLayer()
+                : model.conf().getLayer();
+        if (!(layerConf instanceof BaseLayer)) {
+            return new int[0];
+        }
+        Map<Integer, Double> schedule = ((BaseLayer) layerConf).getLearningRateSchedule();
+        if (schedule == null) {
+            return new int[0];
+        }
+        return new TreeMap<>(schedule).keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * @return the heap bytes allocated by the current thread, or -1 if the JVM can't tell.
+     */
+    private static long currentThreadAllocatedBytes() {
+        if (__threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) __threadMXBean;
+            if (sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+                return sunThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
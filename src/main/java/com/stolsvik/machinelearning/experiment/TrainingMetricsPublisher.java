@@ -0,0 +1,131 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stolsvik.machinelearning.experiment.TrainingMetricsListener.Sample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the {@link TrainingMetricsListener}s of this JVM to the Spring Boot app's {@link TrainingMetricsEndpoint},
+ * so that "/training" and "/dashboard" show trainings started from their own <code>main</code> - which is how they
+ * are all run. Enabled by starting the training with the system property {@value #PUBLISH_URL_PROPERTY} set to the
+ * endpoint, e.g. <code>-Dmachinelearning.training.publish-url=http://localhost:8080/training</code>.
+ * <p>
+ * A daemon thread reads each listener's ring buffer, just like a dashboard does, and POSTs the samples published since
+ * the previous round along with the current metrics, as JSON, every {@link #PUBLISH_INTERVAL_MILLIS} ms - the
+ * training thread is never involved. If the app can't be reached, that round's samples are dropped, and it is tried
+ * again the next round.
+ */
+class TrainingMetricsPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(TrainingMetricsPublisher.class);
+
+    static final String PUBLISH_URL_PROPERTY = "machinelearning.training.publish-url";
+
+    private static final long PUBLISH_INTERVAL_MILLIS = 1000;
+    private static final int TIMEOUT_MILLIS = 2000;
+
+    private static TrainingMetricsPublisher __publisher;
+
+    private final URL _url;
+    private final ObjectMapper _objectMapper = new ObjectMapper();
+    // Only touched inside the synchronized publish().
+    private final Map<TrainingMetricsListener, Long> _nextSequences = new IdentityHashMap<>();
+    private boolean _failing;
+
+    private TrainingMetricsPublisher(URL url) {
+        _url = url;
+    }
+
+    /**
+     * Starts the publisher if {@value #PUBLISH_URL_PROPERTY} is set and it isn't already started.
+     */
+    static synchronized void startIfConfigured() {
+        String url = System.getProperty(PUBLISH_URL_PROPERTY);
+        if ((__publisher != null) || (url == null) || url.isEmpty()) {
+            return;
+        }
+        try {
+            __publisher = new TrainingMetricsPublisher(new URL(url));
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("System property [" + PUBLISH_URL_PROPERTY + "] is not a URL: ["
+                    + url + "].", e);
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "TrainingMetrics publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(__publisher::publish, PUBLISH_INTERVAL_MILLIS, PUBLISH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        // .. and a last round when the training's main is done, so that the final iterations also get across.
+        Runtime.getRuntime().addShutdownHook(new Thread(__publisher::publish, "TrainingMetrics last publish"));
+        log.info("Publishing training metrics to [" + url + "].");
+    }
+
+    private synchronized void publish() {
+        Map<TrainingMetricsListener, Long> stillRegistered = new IdentityHashMap<>();
+        for (TrainingMetricsListener listener : TrainingMetricsListener.getRegisteredListeners()) {
+            List<Map<String, Object>> samples = new ArrayList<>();
+            long nextSequence = listener.getSamples().readFrom(_nextSequences.getOrDefault(listener, 0L),
+                    (Sample sample) -> samples.add(sample.toMap()));
+            stillRegistered.put(listener, nextSequence);
+            if (samples.isEmpty()) {
+                continue;
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("name", listener.getName());
+            body.put("startedMillis", listener.getStartedMillis());
+            body.put("metrics", listener.toMap());
+            body.put("samples", samples);
+            post(body);
+        }
+        _nextSequences.clear();
+        _nextSequences.putAll(stillRegistered);
+    }
+
+    private void post(Map<String, Object> body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) _url.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                _objectMapper.writeValue(out, body);
+            }
+            int status = connection.getResponseCode();
+            connection.disconnect();
+            if (status / 100 != 2) {
+                throw new IOException("Got HTTP status [" + status + "].");
+            }
+            if (_failing) {
+                log.info("Publishing training metrics to [" + _url + "] works again.");
+                _failing = false;
+            }
+        }
+        catch (IOException e) {
+            // Only log the first failure of a streak, since the app may well be down for the whole training.
+            if (!_failing) {
+                log.warn("Couldn't publish training metrics to [" + _url + "], dropping them until it works: "
+                        + e.getMessage());
+                _failing = true;
+            }
+        }
+    }
+}
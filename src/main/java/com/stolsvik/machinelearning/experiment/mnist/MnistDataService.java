@@ -0,0 +1,63 @@
+package com.stolsvik.machinelearning.experiment.mnist;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+
+/**
+ * Holds the MNIST training and test {@link MnistImages} for the Spring app, loaded on demand through {@link #load()}
+ * (typically by the {@link com.stolsvik.machinelearning.startup.BackgroundDataLoader BackgroundDataLoader}). If
+ * <code>machinelearning.mnist.cache-directory</code> is set, the images are loaded through the binary caches of
+ * {@link MnistImages#getTraining(File)} and {@link MnistImages#getTest(File)}.
+ * <p>
+ * Note that {@link MnistImages} instances are stateful (ordering, "next image"); users that randomize or iterate should
+ * work on a {@link MnistImages#shard(int, int) shard}.
+ */
+@Service
+public class MnistDataService {
+
+    @Value("${machinelearning.mnist.cache-directory:}")
+    private String _cacheDirectory;
+
+    private volatile MnistImages _training;
+    private volatile MnistImages _test;
+
+    public synchronized void load() {
+        if (_test != null) {
+            return;
+        }
+        if (_cacheDirectory.isEmpty()) {
+            _training = MnistImages.getTraining();
+            _test = MnistImages.getTest();
+        }
+        else {
+            File cacheDirectory = new File(_cacheDirectory);
+            if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+                throw new IllegalStateException("Couldn't create MNIST cache directory [" + cacheDirectory + "].");
+            }
+            _training = MnistImages.getTraining(cacheDirectory);
+            _test = MnistImages.getTest(cacheDirectory);
+        }
+    }
+
+    public boolean isLoaded() {
+        return _test != null;
+    }
+
+    public MnistImages getTraining() {
+        assertLoaded();
+        return _training;
+    }
+
+    public MnistImages getTest() {
+        assertLoaded();
+        return _test;
+    }
+
+    private void assertLoaded() {
+        if (_test == null) {
+            throw new IllegalStateException("The MNIST images are not loaded.");
+        }
+    }
+}
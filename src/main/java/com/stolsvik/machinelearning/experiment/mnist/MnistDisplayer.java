@@ -1,87 +1,192 @@
 package com.stolsvik.machinelearning.experiment.mnist;
 
+import com.stolsvik.machinelearning.experiment.ParallelMnistEvaluator;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
-import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 
 /**
  * Displays all the 60k training images and 10k test images from MNIST in two different windows.
+ * <p>
+ * The grid of images is not rendered up front: it is cut in horizontal tiles of {@link #TILE_ROWS} image rows, which
+ * are rendered from the {@link MnistImages} when first painted, and kept in a small LRU cache of {@link #MAX_TILES}
+ * tiles. The window thus shows at once, and holds a few MB of tiles instead of one image of the full grid.
+ * <p>
+ * If given a model, the images are also run through it in the background (in batches, using
+ * {@link ParallelMnistEvaluator}), and those it misclassifies are outlined in red with the predicted digit in the
+ * corner - as the batches complete. The overlay is painted on top of the tiles, so the tiles never need re-rendering.
  * 
  * @author Endre Stølsvik, http://endre.stolsvik.com, 2017-03-14 23:36
  */
 public class MnistDisplayer extends JFrame {
-    private MnistImages _mnistImages;
+    private static final Logger log = LoggerFactory.getLogger(MnistDisplayer.class);
+
+    static final int COLUMNS = 65;
+    static final int CELL_SIZE = 29; // 28 pixels image + 1 pixel grid line
+    static final int TILE_ROWS = 16;
+    static final int MAX_TILES = 12;
+
+    private static final byte GRID_GRAY = 64;
+    private static final Color MISCLASSIFIED_COLOR = new Color(255, 40, 40);
+    private static final int NOT_PREDICTED = -1;
+
+    private final MnistImages _mnistImages;
+    private final int _numRows;
+    private final int _width;
+    private final int _height;
+    private final Map<Integer, BufferedImage> _tiles = new LinkedHashMap<Integer, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<Integer, BufferedImage> eldest) {
+            return size() > MAX_TILES;
+        }
+    };
+
+    /**
+     * The predicted digit of each image, {@link #NOT_PREDICTED} until its batch is done. <code>null</code> if no
+     * model. Written by the inference workers; read on the EDT after the repaint request posted by each batch.
+     */
+    private final int[] _predictions;
 
-    public static void main(String... args) {
-        SwingUtilities.invokeLater(() -> new MnistDisplayer(MnistImages.getTraining()));
-        SwingUtilities.invokeLater(() -> new MnistDisplayer(MnistImages.getTest()));
+    /**
+     * Usage: <code>MnistDisplayer [model.zip]</code> - with a model, highlights the images it misclassifies.
+     */
+    public static void main(String... args) throws IOException {
+        MultiLayerNetwork model = args.length > 0
+                ? ModelSerializer.restoreMultiLayerNetwork(new File(args[0]), false)
+                : null;
+        MnistImages training = MnistImages.getTraining();
+        MnistImages test = MnistImages.getTest();
+        SwingUtilities.invokeLater(() -> new MnistDisplayer(training, model));
+        SwingUtilities.invokeLater(() -> new MnistDisplayer(test, model));
     }
 
     public MnistDisplayer(MnistImages mnistImages) {
+        this(mnistImages, null);
+    }
+
+    /**
+     * @param model if not <code>null</code>, the images it misclassifies are highlighted.
+     */
+    public MnistDisplayer(MnistImages mnistImages, MultiLayerNetwork model) {
         _mnistImages = mnistImages;
         this.setTitle("MNIST [" + mnistImages.getType() + "]");
         this.setLayout(new FlowLayout());
 
-        int numberOfImages = _mnistImages.getSize();
-
-        int numCols = 65;
-        int numRows = ((int) Math.ceil(numberOfImages / 65d));
-        int sizeXY = 29;
+        _numRows = (int) Math.ceil(_mnistImages.getSize() / (double) COLUMNS);
+        _width = COLUMNS * CELL_SIZE - 1;
+        _height = _numRows * CELL_SIZE - 1;
 
-        int width = numCols * sizeXY - 1;
-        int height = numRows * sizeXY - 1;
-
-        BufferedImage grayImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-        byte[] byteBuffer = ((DataBufferByte) grayImage.getRaster().getDataBuffer()).getData();
-        for (int i = 1; i < numRows; i++) {
-            int yStrided = (i * sizeXY - 1) * width;
-            for (int j = 0; j < width; j++) {
-                byteBuffer[yStrided + j] = 64;
-            }
+        if (model != null) {
+            _predictions = new int[_mnistImages.getSize()];
+            Arrays.fill(_predictions, NOT_PREDICTED);
         }
-        for (int i = 0; i < height; i++) {
-            int yStrided = i * width;
-            for (int j = 1; j < numCols; j++) {
-                byteBuffer[yStrided + (j * sizeXY - 1)] = 64;
-            }
-        }
-        for (int i = 0; i < numberOfImages; i++) {
-            int imgX = i % numCols;
-            int imgY = i / numCols;
-            int startX = imgX * sizeXY;
-            int startY = imgY * sizeXY;
-            int startYStrided = startY * width;
-            int startXYStrided = startYStrided + startX;
-            byte[] img = _mnistImages.getImage(i);
-            for (int y = 0; y < 28; y++) {
-                for (int x = 0; x < 28; x++) {
-                    byteBuffer[startXYStrided + (y * width) + x] = img[y * 28 + x];
-                }
-            }
+        else {
+            _predictions = null;
         }
 
-        RenderedImagePanel imagePane = new RenderedImagePanel(grayImage);
+        TiledImagePanel imagePane = new TiledImagePanel();
         JScrollPane scroller = new JScrollPane(imagePane,
                 ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-        scroller.setPreferredSize(new Dimension(grayImage.getWidth() + 50, 1200));
+        scroller.setPreferredSize(new Dimension(_width + 50, 1200));
         this.add(scroller);
         this.pack();
         this.setVisible(true);
         this.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        if (model != null) {
+            // The evaluator clones the model, which isn't thread safe - so that is done here, on the EDT, where both
+            // windows of main(..) are created one after the other, and not concurrently on their inference threads.
+            ParallelMnistEvaluator evaluator = new ParallelMnistEvaluator(model,
+                    Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 500);
+            startInference(evaluator, imagePane);
+        }
+    }
+
+    private void startInference(ParallelMnistEvaluator evaluator, TiledImagePanel imagePane) {
+        Thread thread = new Thread(() -> {
+            long nanosStart = System.nanoTime();
+            try {
+                evaluator.predict(_mnistImages, _predictions, (start, rows) -> SwingUtilities.invokeLater(
+                        () -> imagePane.repaint(imagePane.bounds(start, rows))));
+            }
+            finally {
+                evaluator.shutdown();
+            }
+            int misclassified = 0;
+            for (int i = 0; i < _predictions.length; i++) {
+                misclassified += _predictions[i] != _mnistImages.getLabel(i) ? 1 : 0;
+            }
+            int finalMisclassified = misclassified;
+            log.info("Predicted [" + _predictions.length + "] [" + _mnistImages.getType() + "] images, ["
+                    + misclassified + "] misclassified, took [" + ((System.nanoTime() - nanosStart) / 1_000_000)
+                    + " ms].");
+            SwingUtilities.invokeLater(() -> setTitle("MNIST [" + _mnistImages.getType() + "] - ["
+                    + finalMisclassified + "] misclassified"));
+        }, "MnistDisplayer inference [" + _mnistImages.getType() + "]");
+        thread.setDaemon(true);
+        thread.start();
     }
 
-    public class RenderedImagePanel extends JPanel implements Scrollable {
+    private BufferedImage getTile(int tileIndex) {
+        BufferedImage tile = _tiles.get(tileIndex);
+        if (tile == null) {
+            tile = renderTile(tileIndex);
+            _tiles.put(tileIndex, tile);
+        }
+        return tile;
+    }
 
-        private RenderedImage _image;
+    /**
+     * Renders image rows <code>[tileIndex * TILE_ROWS, (tileIndex + 1) * TILE_ROWS)</code>, with the grid lines below
+     * and to the right of each image.
+     */
+    private BufferedImage renderTile(int tileIndex) {
+        int tileHeight = TILE_ROWS * CELL_SIZE;
+        BufferedImage grayImage = new BufferedImage(_width, tileHeight, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] byteBuffer = ((DataBufferByte) grayImage.getRaster().getDataBuffer()).getData();
+        for (int row = 0; row < TILE_ROWS; row++) {
+            Arrays.fill(byteBuffer, (row * CELL_SIZE + CELL_SIZE - 1) * _width, (row + 1) * CELL_SIZE * _width,
+                    GRID_GRAY);
+        }
+        for (int y = 0; y < tileHeight; y++) {
+            for (int col = 1; col < COLUMNS; col++) {
+                byteBuffer[y * _width + (col * CELL_SIZE - 1)] = GRID_GRAY;
+            }
+        }
+        int firstImage = tileIndex * TILE_ROWS * COLUMNS;
+        int lastImage = Math.min(_mnistImages.getSize(), firstImage + TILE_ROWS * COLUMNS);
+        for (int i = firstImage; i < lastImage; i++) {
+            int startXYStrided = ((i - firstImage) / COLUMNS) * CELL_SIZE * _width + (i % COLUMNS) * CELL_SIZE;
+            byte[] img = _mnistImages.getImage(i);
+            for (int y = 0; y < 28; y++) {
+                System.arraycopy(img, y * 28, byteBuffer, startXYStrided + (y * _width), 28);
+            }
+        }
+        return grayImage;
+    }
+
+    public class TiledImagePanel extends JPanel implements Scrollable {
 
-        public RenderedImagePanel(RenderedImage image) {
-            _image = image;
+        public TiledImagePanel() {
             setAutoscrolls(true);
+            if (_predictions != null) {
+                // Registers with the ToolTipManager, which then asks getToolTipText(MouseEvent).
+                setToolTipText("");
+            }
             MouseAdapter ma = new MouseAdapter() {
 
                 private Point origin;
@@ -100,7 +205,7 @@ public class MnistDisplayer extends JFrame {
                 public void mouseDragged(MouseEvent e) {
                     if (origin != null) {
                         JViewport viewPort = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class,
-                                RenderedImagePanel.this);
+                                TiledImagePanel.this);
                         if (viewPort != null) {
                             Rectangle view = viewPort.getViewRect();
                             int posY = e.getY() - view.y;
@@ -130,19 +235,70 @@ public class MnistDisplayer extends JFrame {
             addMouseMotionListener(ma);
         }
 
+        /**
+         * @return the area covering the images <code>[start, start + count)</code>, as whole grid rows.
+         */
+        Rectangle bounds(int start, int count) {
+            int firstRow = start / COLUMNS;
+            int lastRow = (start + count - 1) / COLUMNS;
+            return new Rectangle(0, firstRow * CELL_SIZE, _width, (lastRow - firstRow + 1) * CELL_SIZE);
+        }
+
+        @Override
+        public String getToolTipText(MouseEvent e) {
+            int col = e.getX() / CELL_SIZE;
+            int index = (e.getY() / CELL_SIZE) * COLUMNS + col;
+            if ((_predictions == null) || (col >= COLUMNS) || (index >= _mnistImages.getSize())) {
+                return null;
+            }
+            int prediction = _predictions[index];
+            return "#" + index + ": label [" + _mnistImages.getLabel(index) + "], predicted ["
+                    + (prediction == NOT_PREDICTED ? "-" : prediction) + "]";
+        }
+
         @Override
         public Dimension getPreferredSize() {
-            return new Dimension(_image.getWidth(), _image.getHeight());
+            return new Dimension(_width, _height);
         }
 
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
             Graphics2D g2d = (Graphics2D) g.create();
-            g2d.drawRenderedImage(_image, new AffineTransform());
+            Rectangle clip = g2d.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, _width, _height);
+            }
+            int tileHeight = TILE_ROWS * CELL_SIZE;
+            int firstTile = Math.max(0, clip.y / tileHeight);
+            int lastTile = Math.min((_numRows - 1) / TILE_ROWS, (clip.y + clip.height - 1) / tileHeight);
+            for (int t = firstTile; t <= lastTile; t++) {
+                g2d.drawImage(getTile(t), 0, t * tileHeight, null);
+            }
+            if (_predictions != null) {
+                paintMisclassified(g2d, clip);
+            }
             g2d.dispose();
         }
 
+        private void paintMisclassified(Graphics2D g2d, Rectangle clip) {
+            g2d.setColor(MISCLASSIFIED_COLOR);
+            g2d.setFont(g2d.getFont().deriveFont(Font.BOLD, 10f));
+            int firstRow = Math.max(0, clip.y / CELL_SIZE);
+            int lastRow = Math.min(_numRows - 1, (clip.y + clip.height - 1) / CELL_SIZE);
+            int firstImage = firstRow * COLUMNS;
+            int lastImage = Math.min(_mnistImages.getSize(), (lastRow + 1) * COLUMNS);
+            for (int i = firstImage; i < lastImage; i++) {
+                int prediction = _predictions[i];
+                if ((prediction != NOT_PREDICTED) && (prediction != _mnistImages.getLabel(i))) {
+                    int x = (i % COLUMNS) * CELL_SIZE;
+                    int y = (i / COLUMNS) * CELL_SIZE;
+                    g2d.drawRect(x, y, CELL_SIZE - 2, CELL_SIZE - 2);
+                    g2d.drawString(Integer.toString(prediction), x + 2, y + CELL_SIZE - 4);
+                }
+            }
+        }
+
         @Override
         public Dimension getPreferredScrollableViewportSize() {
             return getPreferredSize();
@@ -150,12 +306,12 @@ public class MnistDisplayer extends JFrame {
 
         @Override
         public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
-            return 29;
+            return CELL_SIZE;
         }
 
         @Override
         public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
-            return 29 * 25;
+            return CELL_SIZE * 25;
         }
 
         @Override
@@ -2,14 +2,32 @@ package com.stolsvik.machinelearning.experiment.mnist;
 
 
 import com.stolsvik.machinelearning.experiment.mnist.MnistReader.MnistFile;
+import com.stolsvik.machinelearning.tools.MemoryReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Random;
+import java.util.function.Supplier;
 
 /**
  * @author Endre Stølsvik, http://endre.stolsvik.com, 2017-03-14 23:20
  */
 public class MnistImages {
 
+    private static final Logger log = LoggerFactory.getLogger(MnistImages.class);
+
+    private static final int CACHE_MAGIC = 0x4d4e4331; // "MNC1"
+
     private MnistFile _mnistFile;
     private byte[][] _images;
     private int[] _labels;
@@ -42,6 +60,75 @@ public class MnistImages {
         return new MnistImages(MnistFile.TEST_IMAGES, images, labels);
     }
 
+    /**
+     * As {@link #getTraining()}, but through an uncompressed binary cache file in the provided directory, which skips
+     * the gunzipping and the byte-by-byte parsing on later loads. The cache is written on the first load.
+     */
+    public static MnistImages getTraining(File cacheDirectory) {
+        return getCached(new File(cacheDirectory, "mnist_training.bin"), MnistImages::getTraining);
+    }
+
+    /**
+     * As {@link #getTest()}, but through an uncompressed binary cache file in the provided directory - see
+     * {@link #getTraining(File)}.
+     */
+    public static MnistImages getTest(File cacheDirectory) {
+        return getCached(new File(cacheDirectory, "mnist_test.bin"), MnistImages::getTest);
+    }
+
+    private static MnistImages getCached(File cacheFile, Supplier<MnistImages> source) {
+        if (cacheFile.isFile()) {
+            long nanosStart = System.nanoTime();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile),
+                    1024 * 1024))) {
+                if (in.readInt() == CACHE_MAGIC) {
+                    MnistFile mnistFile = MnistFile.valueOf(in.readUTF());
+                    int size = in.readInt();
+                    byte[][] images = new byte[size][];
+                    for (int i = 0; i < size; i++) {
+                        images[i] = new byte[28 * 28];
+                        in.readFully(images[i]);
+                    }
+                    byte[] labelBytes = new byte[size];
+                    in.readFully(labelBytes);
+                    int[] labels = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        labels[i] = labelBytes[i];
+                    }
+                    log.info("Read [" + size + "] MNIST images from cache [" + cacheFile + "], took ["
+                            + ((System.nanoTime() - nanosStart) / 1_000_000) + " ms].");
+                    return new MnistImages(mnistFile, images, labels);
+                }
+                log.warn("MNIST cache [" + cacheFile + "] has the wrong format, ignoring it.");
+            }
+            catch (IOException | IllegalArgumentException e) {
+                log.warn("Couldn't read MNIST cache [" + cacheFile + "], reading the MNIST files instead.", e);
+            }
+        }
+        MnistImages mnistImages = source.get();
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile),
+                    1024 * 1024))) {
+                out.writeInt(CACHE_MAGIC);
+                out.writeUTF(mnistImages._mnistFile.name());
+                out.writeInt(mnistImages._images.length);
+                for (byte[] image : mnistImages._images) {
+                    out.write(image);
+                }
+                for (int label : mnistImages._labels) {
+                    out.writeByte(label);
+                }
+            }
+            Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            log.warn("Couldn't write MNIST cache [" + cacheFile + "].", e);
+        }
+        return mnistImages;
+    }
+
     public MnistImages splitOffValidation(int numberOfImagesToSplitOff) {
         if (numberOfImagesToSplitOff > _images.length) {
             throw new IllegalArgumentException("Cannot split out more images from this instance that it has.");
@@ -66,6 +153,29 @@ public class MnistImages {
         return new MnistImages(_mnistFile, splitOffImages, splitOffLabels);
     }
 
+    /**
+     * Creates a new {@link MnistImages} holding the contiguous range of images that constitutes shard number
+     * <code>shardIndex</code> of <code>numberOfShards</code> (the last shard gets the remainder). The image arrays are
+     * shared, not copied, but the shard has its own ordering, random source and "next image" position, so each shard
+     * can be consumed by its own thread. This instance is not modified.
+     */
+    public MnistImages shard(int shardIndex, int numberOfShards) {
+        if ((shardIndex < 0) || (shardIndex >= numberOfShards)) {
+            throw new IllegalArgumentException("shardIndex [" + shardIndex + "] must be within [0, numberOfShards ["
+                    + numberOfShards + ")].");
+        }
+        int shardSize = _images.length / numberOfShards;
+        int from = shardIndex * shardSize;
+        int to = (shardIndex == numberOfShards - 1) ? _images.length : from + shardSize;
+        byte[][] shardImages = new byte[to - from][];
+        int[] shardLabels = new int[to - from];
+        System.arraycopy(_images, from, shardImages, 0, to - from);
+        System.arraycopy(_labels, from, shardLabels, 0, to - from);
+        MnistImages shard = new MnistImages(_mnistFile, shardImages, shardLabels);
+        shard.setRandomSeed(1L + shardIndex);
+        return shard;
+    }
+
     public void setRandomSeed(long seed) {
         _random = new Random(seed);
     }
@@ -84,6 +194,21 @@ public class MnistImages {
         return this;
     }
 
+    /**
+     * @return an estimate of the heap retained by this instance's images and labels. Shards and split-offs share the
+     *         image arrays with the instance they came from, so don't add up their reports.
+     */
+    public MemoryReport estimateMemory() {
+        long imageBytes = 0;
+        for (byte[] image : _images) {
+            imageBytes += MemoryReport.arrayBytes(1, image.length);
+        }
+        return new MemoryReport("mnist " + _mnistFile)
+                .add("image byte[]s", _images.length, imageBytes)
+                .add("image reference array", 1, MemoryReport.referenceArrayBytes(_images.length))
+                .add("labels int[]", 1, MemoryReport.arrayBytes(4, _labels.length));
+    }
+
     public int getSize() {
         return _images.length;
     }
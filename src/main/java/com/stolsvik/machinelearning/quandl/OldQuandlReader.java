@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -23,7 +24,49 @@ public class OldQuandlReader {
     private static final String POISON_PILL = "die!";
     private static final String[] POISON_PILL_2 = new String[]{"die!!"};
 
+    // Batched mode: lines are handed over in blocks, one queue operation per block instead of per line.
+    private static final int LINES_PER_BLOCK = 1024;
+    private static final String[] POISON_PILL_BLOCK = new String[0];
+    private static final String[][] POISON_PILL_BLOCK_2 = new String[0][];
+
+    /**
+     * Args: "batched" to hand the lines over in blocks, "compare [rounds]" to run both modes and compare the
+     * throughput - otherwise line by line.
+     * <p>
+     * "compare" first does one discarded run of each mode, as warm-up. Then each round runs both, alternating which
+     * goes first, and the best time of each over the rounds (default 3) is compared.
+     */
     public static void main(String... args) throws IOException {
+        String mode = args.length > 0 ? args[0] : "lines";
+        if ("compare".equals(mode)) {
+            int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+            runPerLine(openZip());
+            runBatched(openZip());
+            long perLineNanos = Long.MAX_VALUE;
+            long batchedNanos = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                if (round % 2 == 0) {
+                    perLineNanos = Math.min(perLineNanos, runPerLine(openZip()));
+                    batchedNanos = Math.min(batchedNanos, runBatched(openZip()));
+                }
+                else {
+                    batchedNanos = Math.min(batchedNanos, runBatched(openZip()));
+                    perLineNanos = Math.min(perLineNanos, runPerLine(openZip()));
+                }
+            }
+            log.info("Best of [" + rounds + "] rounds - per line: [" + (perLineNanos / 1_000_000)
+                    + " ms], batched: [" + (batchedNanos / 1_000_000) + " ms] - speedup: ["
+                    + String.format("%.2f", perLineNanos / (double) batchedNanos) + "x].");
+        }
+        else if ("batched".equals(mode)) {
+            runBatched(openZip());
+        }
+        else {
+            runPerLine(openZip());
+        }
+    }
+
+    private static ZipInputStream openZip() throws IOException {
         List<String> files = getResourceFiles(QUANDL_WIKI_ZIP_DIRECTORY);
         if (files.size() > 1) {
             throw new IllegalStateException("More files that expected in the quandl_wiki classpath directory" +
@@ -35,7 +78,13 @@ public class OldQuandlReader {
         ZipInputStream zis = new ZipInputStream(quandlZipFile);
         ZipEntry firstEntry = zis.getNextEntry();
         log.info("First entry in zip:" + firstEntry);
+        return zis;
+    }
 
+    /**
+     * @return the nanos taken, until both consumers are done.
+     */
+    private static long runPerLine(ZipInputStream zis) throws IOException {
         BlockingQueue<String> splitQueue = new ArrayBlockingQueue<>(100000);
         BlockingQueue<String[]> processQueue = new ArrayBlockingQueue<>(100000);
 
@@ -120,6 +169,108 @@ public class OldQuandlReader {
         log.info("Consumer joined, exiting.");
         // CSV Header:
         // ticker,date,open,high,low,close,volume,ex-dividend,split_ratio,adj_open,adj_high,adj_low,adj_close,adj_volume
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * As {@link #runPerLine(ZipInputStream)}, but the reader hands over blocks of {@link #LINES_PER_BLOCK} lines, and
+     * the split consumer blocks of split lines - so each queue sees ~15k puts and takes instead of ~15M.
+     *
+     * @return the nanos taken, until both consumers are done.
+     */
+    private static long runBatched(ZipInputStream zis) throws IOException {
+        // Same number of lines in flight as the per-line queues.
+        BlockingQueue<String[]> splitQueue = new ArrayBlockingQueue<>(100000 / LINES_PER_BLOCK);
+        BlockingQueue<String[][]> processQueue = new ArrayBlockingQueue<>(100000 / LINES_PER_BLOCK);
+
+        Runnable splitConsumer = () -> {
+            log.info("SplitConsumer (batched) started.");
+            long startNanos = System.nanoTime();
+            long lines = 0;
+            try {
+                while (true) {
+                    String[] block = splitQueue.take();
+                    if (block == POISON_PILL_BLOCK) {
+                        break;
+                    }
+                    String[][] splitBlock = new String[block.length][];
+                    for (int i = 0; i < block.length; i++) {
+                        splitBlock[i] = block[i].split(",");
+                    }
+                    lines += block.length;
+                    processQueue.put(splitBlock);
+                }
+                processQueue.put(POISON_PILL_BLOCK_2);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted.", e);
+            }
+            log.info("Lines: [" + lines + "], time taken: [" + ((System.nanoTime() - startNanos) / 1_000_000) + " ms].");
+        };
+
+        Thread splitThread = new Thread(splitConsumer, "Split Consumer (batched)");
+        splitThread.start();
+
+        Runnable processConsumer = () -> {
+            log.info("ProcessConsumer (batched) started.");
+            long startNanos = System.nanoTime();
+            long lines = 0;
+            try {
+                while (true) {
+                    String[][] splitBlock = processQueue.take();
+                    if (splitBlock == POISON_PILL_BLOCK_2) {
+                        break;
+                    }
+                    lines += splitBlock.length;
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted.", e);
+            }
+            log.info("Lines: [" + lines + "], time taken: [" + ((System.nanoTime() - startNanos) / 1_000_000) + " ms].");
+        };
+
+        Thread processThread = new Thread(processConsumer, "Process Consumer (batched)");
+        processThread.start();
+
+        BufferedReader br = new BufferedReader(new InputStreamReader(zis), 1024 * 1024);
+        long startNanos = System.nanoTime();
+        long lines = 0;
+        long blocks = 0;
+        String[] block = new String[LINES_PER_BLOCK];
+        int n = 0;
+        try {
+            while (true) {
+                String line = br.readLine();
+                if (line == null) {
+                    break;
+                }
+                block[n++] = line;
+                if (n == LINES_PER_BLOCK) {
+                    splitQueue.put(block);
+                    blocks++;
+                    block = new String[LINES_PER_BLOCK];
+                    n = 0;
+                }
+                lines++;
+            }
+            if (n > 0) {
+                splitQueue.put(Arrays.copyOf(block, n));
+                blocks++;
+            }
+            splitQueue.put(POISON_PILL_BLOCK);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Didn't expect interrupt.", e);
+        }
+
+        log.info("Lines: [" + lines + "] in [" + blocks + "] blocks, time taken: ["
+                + ((System.nanoTime() - startNanos) / 1_000_000) + " ms].");
+        try {
+            splitThread.join();
+            processThread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Didn't expect interrupt.", e);
+        }
+        log.info("Consumers (batched) joined.");
+        return System.nanoTime() - startNanos;
     }
 
     private static void processLine(String line) {
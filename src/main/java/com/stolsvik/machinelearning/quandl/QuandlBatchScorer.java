@@ -0,0 +1,385 @@
+package com.stolsvik.machinelearning.quandl;
+
+import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint;
+import com.stolsvik.machinelearning.quandl.QuandlReader.Ticker;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline batch scoring: runs a model trained on {@link QuandlFeatures} over every featurizable DataPoint of every
+ * ticker, and writes the predictions to a columnar binary file.
+ * <p>
+ * The rows - tickers in name order, each ticker's DataPoints in date order - are cut into chunks of
+ * <code>chunkSize</code> rows. Worker threads, each with its own copy of the model, claim chunks in order, build the
+ * chunk's feature matrix from the ticker data and run it through the model. The calling thread writes the chunks in
+ * order. A worker can only be <code>2 * numberOfWorkers</code> chunks ahead of the writer, so memory stays bounded at
+ * about that many chunks, regardless of the number of rows.
+ * <p>
+ * File format, big-endian: header of magic, chunk size, number of outputs, total rows, ticker count and the ticker
+ * names (as {@link DataOutputStream#writeUTF(String) modified UTF-8}). Then per chunk: chunk number, row count, and the
+ * columns - ticker index (int) for each row, epoch day (int) for each row, then output 0 (float) for each row, output
+ * 1 for each row, and so on.
+ * <p>
+ * After each chunk is written and forced to disk, a sidecar file "&lt;output&gt;.progress" records the number of
+ * completed chunks and the file length. If the job is run again with an output file and a sidecar present, and the
+ * header matches (same tickers and chunk size), the file is truncated to the recorded length and scoring resumes with
+ * the next chunk. It is up to the user to resume with the same model.
+ */
+public class QuandlBatchScorer {
+
+    private static final Logger log = LoggerFactory.getLogger(QuandlBatchScorer.class);
+
+    private static final int MAGIC = 0x51534331; // "QSC1"
+
+    private final MultiLayerNetwork _model;
+    private final int _numberOfWorkers;
+    private final int _chunkSize;
+
+    public QuandlBatchScorer(MultiLayerNetwork model, int numberOfWorkers, int chunkSize) {
+        if (numberOfWorkers < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("numberOfWorkers [" + numberOfWorkers + "] and chunkSize ["
+                    + chunkSize + "] must both be at least 1.");
+        }
+        if (model.layerInputSize(0) != QuandlFeatures.NUM_FEATURES) {
+            throw new IllegalArgumentException("The model takes [" + model.layerInputSize(0)
+                    + "] inputs, while QuandlFeatures has [" + QuandlFeatures.NUM_FEATURES + "].");
+        }
+        _model = model;
+        _numberOfWorkers = numberOfWorkers;
+        _chunkSize = chunkSize;
+    }
+
+    /**
+     * The outcome of {@link #score(QuandlReader, File)}.
+     */
+    public static class Result {
+        private final long _rowsScored;
+        private final int _chunks;
+        private final int _resumedFromChunk;
+        private final long _millis;
+
+        private Result(long rowsScored, int chunks, int resumedFromChunk, long millis) {
+            _rowsScored = rowsScored;
+            _chunks = chunks;
+            _resumedFromChunk = resumedFromChunk;
+            _millis = millis;
+        }
+
+        public long getRowsScored() {
+            return _rowsScored;
+        }
+
+        public int getResumedFromChunk() {
+            return _resumedFromChunk;
+        }
+
+        @Override
+        public String toString() {
+            return "rows scored:[" + _rowsScored + "], chunks:[" + _chunks + "], resumed from chunk:["
+                    + _resumedFromChunk + "], took:[" + _millis + " ms], rows/sec:["
+                    + Math.round(_rowsScored * 1000d / Math.max(1, _millis)) + "]";
+        }
+    }
+
+    private static class ChunkResult {
+        private final int _rows;
+        private final int[] _tickerIndexes;
+        private final int[] _epochDays;
+        private final float[] _outputRowMajor;
+
+        private ChunkResult(int rows, int[] tickerIndexes, int[] epochDays, float[] outputRowMajor) {
+            _rows = rows;
+            _tickerIndexes = tickerIndexes;
+            _epochDays = epochDays;
+            _outputRowMajor = outputRowMajor;
+        }
+    }
+
+    public Result score(QuandlReader reader, File outputFile) {
+        long nanosStart = System.nanoTime();
+        List<Ticker> tickers = new ArrayList<>(reader.getTickerMap().values());
+        // rowStarts[t] is the global row number of ticker t's first featurizable DataPoint.
+        long[] rowStarts = new long[tickers.size() + 1];
+        for (int t = 0; t < tickers.size(); t++) {
+            rowStarts[t + 1] = rowStarts[t] + QuandlFeatures.featurizableCount(tickers.get(t));
+        }
+        long totalRows = rowStarts[tickers.size()];
+        int chunks = (int) ((totalRows + _chunkSize - 1) / _chunkSize);
+        // One all-zero row through the model tells the number of outputs.
+        int numOutputs = _model.output(Nd4j.zeros(1, QuandlFeatures.NUM_FEATURES), false).columns();
+        byte[] header = header(tickers, numOutputs, totalRows);
+        File progressFile = new File(outputFile.getPath() + ".progress");
+
+        int startChunk = 0;
+        try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            long[] resume = readProgress(progressFile, outputFile, header);
+            if (resume != null) {
+                startChunk = (int) resume[0];
+                channel.truncate(resume[1]);
+                channel.position(resume[1]);
+                log.info("Resuming scoring into [" + outputFile + "] at chunk [" + startChunk + "] of [" + chunks
+                        + "].");
+            }
+            else {
+                channel.truncate(0);
+                writeFully(channel, ByteBuffer.wrap(header));
+                writeProgress(progressFile, 0, channel.position());
+            }
+            long rowsScored = scoreChunks(tickers, rowStarts, totalRows, chunks, startChunk, numOutputs, channel,
+                    progressFile);
+            Result result = new Result(rowsScored, chunks, startChunk, (System.nanoTime() - nanosStart) / 1_000_000);
+            log.info("Scored into [" + outputFile + "] with [" + _numberOfWorkers + "] workers: " + result + ".");
+            return result;
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Couldn't write scores to [" + outputFile + "].", e);
+        }
+    }
+
+    private long scoreChunks(List<Ticker> tickers, long[] rowStarts, long totalRows, int chunks, int startChunk,
+            int numOutputs, FileChannel channel, File progressFile) throws IOException {
+        if (startChunk >= chunks) {
+            return 0;
+        }
+        AtomicInteger nextChunk = new AtomicInteger(startChunk);
+        Semaphore aheadOfWriter = new Semaphore(2 * _numberOfWorkers);
+        @SuppressWarnings("unchecked")
+        CompletableFuture<ChunkResult>[] results = new CompletableFuture[chunks];
+        for (int i = startChunk; i < chunks; i++) {
+            results[i] = new CompletableFuture<>();
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(_numberOfWorkers, r -> {
+            Thread thread = new Thread(r, "QuandlBatchScorer worker #" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        INDArray params = _model.params();
+        for (int w = 0; w < _numberOfWorkers; w++) {
+            MultiLayerNetwork workerModel = _model.clone();
+            workerModel.setParams(params);
+            executor.submit(() -> {
+                double[] features = new double[_chunkSize * QuandlFeatures.NUM_FEATURES];
+                while (true) {
+                    try {
+                        aheadOfWriter.acquire();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    int chunk = nextChunk.getAndIncrement();
+                    if (chunk >= chunks) {
+                        return;
+                    }
+                    try {
+                        results[chunk].complete(scoreChunk(workerModel, tickers, rowStarts, totalRows, chunk,
+                                features));
+                    }
+                    catch (RuntimeException | Error e) {
+                        results[chunk].completeExceptionally(e);
+                        return;
+                    }
+                }
+            });
+        }
+
+        long rowsScored = 0;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(0);
+            for (int chunk = startChunk; chunk < chunks; chunk++) {
+                ChunkResult result;
+                try {
+                    result = results[chunk].get();
+                }
+                catch (InterruptedException e) {
+                    throw new IllegalStateException("Interrupted while waiting for scoring workers.", e);
+                }
+                catch (ExecutionException e) {
+                    throw new IllegalStateException("Scoring of chunk [" + chunk + "] failed.", e.getCause());
+                }
+                results[chunk] = null;
+                int blockBytes = 8 + result._rows * (8 + 4 * numOutputs);
+                if (buffer.capacity() < blockBytes) {
+                    buffer = ByteBuffer.allocate(blockBytes);
+                }
+                buffer.clear();
+                buffer.putInt(chunk).putInt(result._rows);
+                for (int r = 0; r < result._rows; r++) {
+                    buffer.putInt(result._tickerIndexes[r]);
+                }
+                for (int r = 0; r < result._rows; r++) {
+                    buffer.putInt(result._epochDays[r]);
+                }
+                for (int o = 0; o < numOutputs; o++) {
+                    for (int r = 0; r < result._rows; r++) {
+                        buffer.putFloat(result._outputRowMajor[r * numOutputs + o]);
+                    }
+                }
+                buffer.flip();
+                writeFully(channel, buffer);
+                channel.force(false);
+                writeProgress(progressFile, chunk + 1, channel.position());
+                aheadOfWriter.release();
+                rowsScored += result._rows;
+                if ((chunk % 20 == 0) || (chunk == chunks - 1)) {
+                    log.info("Wrote chunk [" + chunk + "] of [" + chunks + "].");
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return rowsScored;
+    }
+
+    private ChunkResult scoreChunk(MultiLayerNetwork model, List<Ticker> tickers, long[] rowStarts,
+            long totalRows, int chunk, double[] features) {
+        long firstRow = (long) chunk * _chunkSize;
+        int rows = (int) Math.min(_chunkSize, totalRows - firstRow);
+        if (rows < _chunkSize) {
+            // Last, partial chunk: exact-size buffer, as the shape must match the data length.
+            features = new double[rows * QuandlFeatures.NUM_FEATURES];
+        }
+        int[] tickerIndexes = new int[rows];
+        int[] epochDays = new int[rows];
+
+        // Find the ticker holding the first row: the last ticker whose first row is at or before it.
+        int t = Arrays.binarySearch(rowStarts, firstRow);
+        if (t < 0) {
+            t = -t - 2;
+        }
+        // Tickers without featurizable DataPoints have the same start as the next, so skip forward past them.
+        while (rowStarts[t + 1] <= firstRow) {
+            t++;
+        }
+        int index = QuandlFeatures.WINDOW + (int) (firstRow - rowStarts[t]);
+        for (int r = 0; r < rows; r++) {
+            List<DataPoint> dataPoints = tickers.get(t).getDataPoints();
+            while (index >= dataPoints.size()) {
+                t++;
+                dataPoints = tickers.get(t).getDataPoints();
+                index = QuandlFeatures.WINDOW;
+            }
+            QuandlFeatures.featurize(dataPoints, index, features, r * QuandlFeatures.NUM_FEATURES);
+            tickerIndexes[r] = t;
+            epochDays[r] = (int) dataPoints.get(index).getDate().toEpochDay();
+            index++;
+        }
+        INDArray output = model.output(Nd4j.create(features, new int[] { rows, QuandlFeatures.NUM_FEATURES }),
+                false);
+        if (output.isView() || output.ordering() != 'c') {
+            output = output.dup('c');
+        }
+        return new ChunkResult(rows, tickerIndexes, epochDays, output.data().asFloat());
+    }
+
+    private byte[] header(List<Ticker> tickers, int numOutputs, long totalRows) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(_chunkSize);
+            out.writeInt(numOutputs);
+            out.writeLong(totalRows);
+            out.writeInt(tickers.size());
+            for (Ticker ticker : tickers) {
+                out.writeUTF(ticker.getTickerName());
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new AssertionError("ByteArrayOutputStream doesn't throw.", e);
+        }
+    }
+
+    /**
+     * @return [completed chunks, file length], or null if there is nothing (valid) to resume from.
+     */
+    private static long[] readProgress(File progressFile, File outputFile, byte[] header) throws IOException {
+        if (!progressFile.isFile() || (outputFile.length() < header.length)) {
+            return null;
+        }
+        long completedChunks;
+        long length;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(progressFile))) {
+            completedChunks = in.readInt();
+            length = in.readLong();
+        }
+        if (outputFile.length() < length) {
+            log.warn("Scores file [" + outputFile + "] is shorter than the progress file says, starting over.");
+            return null;
+        }
+        byte[] existingHeader = new byte[header.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(outputFile))) {
+            in.readFully(existingHeader);
+        }
+        if (!Arrays.equals(header, existingHeader)) {
+            log.warn("Scores file [" + outputFile + "] is from other data or chunk size, starting over.");
+            return null;
+        }
+        return new long[] { completedChunks, length };
+    }
+
+    private static void writeProgress(File progressFile, int completedChunks, long length) throws IOException {
+        File tempFile = new File(progressFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+            out.writeInt(completedChunks);
+            out.writeLong(length);
+        }
+        Files.move(tempFile.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @param args the model zip (as written by {@link ModelSerializer}), and optionally the output file, default
+     *             "quandl_scores.bin".
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: QuandlBatchScorer <model.zip> [output file]");
+        }
+        MultiLayerNetwork model = ModelSerializer.restoreMultiLayerNetwork(new File(args[0]), false);
+        File outputFile = new File(args.length > 1 ? args[1] : "quandl_scores.bin");
+
+        QuandlReader reader = new QuandlReader();
+        reader.parseQuandlZipFile();
+
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        new QuandlBatchScorer(model, workers, 65_536).score(reader, outputFile);
+    }
+}
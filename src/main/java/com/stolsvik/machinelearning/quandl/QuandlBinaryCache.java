@@ -0,0 +1,191 @@
+package com.stolsvik.machinelearning.quandl;
+
+import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint;
+import com.stolsvik.machinelearning.quandl.QuandlReader.Ticker;
+import com.stolsvik.machinelearning.tools.CheckpointCodec;
+import com.stolsvik.machinelearning.tools.SetupCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary cache of a parsed {@link QuandlReader}, so that later starts skip the unzipping and CSV parsing: per ticker,
+ * the name and count, then per DataPoint the epoch day and the five adjusted values. The header holds the name of the
+ * WIKI_PRICES zip the cache was made from, so a new zip invalidates the cache.
+ */
+public class QuandlBinaryCache {
+
+    private static final Logger log = LoggerFactory.getLogger(QuandlBinaryCache.class);
+
+    private static final int MAGIC = 0x51574331; // "QWC1"
+
+    private QuandlBinaryCache() {
+        /* utility class */
+    }
+
+    /**
+     * Populates the reader from the cache file if it exists and was made from the current WIKI_PRICES zip; otherwise
+     * parses the zip and (re)writes the cache.
+     */
+    public static void load(QuandlReader reader, File cacheFile) {
+        String sourceName;
+        try {
+            sourceName = QuandlReader.getWikiZipFileName();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Couldn't find the Quandl WIKI_PRICES file.", e);
+        }
+        if (cacheFile.isFile()) {
+            try {
+                if (read(reader, cacheFile, sourceName)) {
+                    return;
+                }
+            }
+            catch (IOException e) {
+                log.warn("Couldn't read Quandl cache [" + cacheFile + "], parsing the WIKI_PRICES file instead.", e);
+                reader.clear();
+            }
+        }
+        reader.parseQuandlZipFile();
+        try {
+            write(reader, cacheFile, sourceName);
+        }
+        catch (IOException e) {
+            log.warn("Couldn't write Quandl cache [" + cacheFile + "].", e);
+        }
+    }
+
+    /**
+     * @return false if the cache was made from another source file, in which case the reader is untouched.
+     */
+    static boolean read(QuandlReader reader, File cacheFile, String sourceName) throws IOException {
+        long nanosStart = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile),
+                1024 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                log.warn("Quandl cache [" + cacheFile + "] has the wrong format, ignoring it.");
+                return false;
+            }
+            String cachedSourceName = in.readUTF();
+            if (!cachedSourceName.equals(sourceName)) {
+                log.info("Quandl cache [" + cacheFile + "] is from [" + cachedSourceName + "], not from ["
+                        + sourceName + "] - ignoring it.");
+                return false;
+            }
+            long dataPoints = readTickers(reader, in);
+            log.info("Read [" + dataPoints + "] DataPoints for [" + reader.getTickerMap().size()
+                    + "] tickers from Quandl cache [" + cacheFile + "], took ["
+                    + ((System.nanoTime() - nanosStart) / 1_000_000) + " ms].");
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of DataPoints read.
+     */
+    private static long readTickers(QuandlReader reader, DataInputStream in) throws IOException {
+        long dataPoints = 0;
+        int tickerCount = in.readInt();
+        for (int t = 0; t < tickerCount; t++) {
+            Ticker ticker = reader.ticker(in.readUTF());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                reader.addDataPoint(ticker, in.readInt(), in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readDouble());
+            }
+            dataPoints += count;
+        }
+        reader.buildIndexes();
+        return dataPoints;
+    }
+
+    static void write(QuandlReader reader, File cacheFile, String sourceName) throws IOException {
+        long nanosStart = System.nanoTime();
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile),
+                1024 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(sourceName);
+            writeTickers(reader.getTickerMap().values(), out);
+        }
+        Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        log.info("Wrote Quandl cache [" + cacheFile + "], took [" + ((System.nanoTime() - nanosStart) / 1_000_000)
+                + " ms].");
+    }
+
+    private static void writeTickers(Collection<Ticker> tickers, DataOutputStream out) throws IOException {
+        out.writeInt(tickers.size());
+        for (Ticker ticker : tickers) {
+            List<DataPoint> dataPoints = ticker.getDataPoints();
+            out.writeUTF(ticker.getTickerName());
+            out.writeInt(dataPoints.size());
+            for (DataPoint dataPoint : dataPoints) {
+                out.writeInt((int) dataPoint.getDate().toEpochDay());
+                out.writeDouble(dataPoint.getAdjustedOpen());
+                out.writeDouble(dataPoint.getAdjustedHigh());
+                out.writeDouble(dataPoint.getAdjustedLow());
+                out.writeDouble(dataPoint.getAdjustedClose());
+                out.writeDouble(dataPoint.getAdjustedVolume());
+            }
+        }
+    }
+
+    /**
+     * {@link SetupCheckpoint} codec for a {@link QuandlReader}, or for the ticker map of one (as bound by
+     * <code>TestingQuandl.groovy</code>), in the format of the cache - so a checkpointed Quandl setup is restored as
+     * fast as the cache is read, instead of through Java serialization. A restored ticker map is that of a new reader.
+     */
+    public static class Codec implements CheckpointCodec {
+        @Override
+        public String getName() {
+            return "quandl-reader-v1";
+        }
+
+        @Override
+        public boolean canWrite(Object value) {
+            if (value instanceof QuandlReader) {
+                return true;
+            }
+            if (!(value instanceof Map) || ((Map<?, ?>) value).isEmpty()) {
+                return false;
+            }
+            for (Object element : ((Map<?, ?>) value).values()) {
+                if (!(element instanceof Ticker)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void write(Object value, DataOutputStream out) throws IOException {
+            boolean isReader = value instanceof QuandlReader;
+            out.writeBoolean(isReader);
+            writeTickers(isReader ? ((QuandlReader) value).getTickerMap().values()
+                    : ((Map<String, Ticker>) value).values(), out);
+        }
+
+        @Override
+        public Object read(DataInputStream in) throws IOException {
+            boolean isReader = in.readBoolean();
+            QuandlReader reader = new QuandlReader();
+            readTickers(reader, in);
+            return isReader ? reader : reader.getTickerMap();
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.stolsvik.machinelearning.quandl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The WIKI_PRICES CSV re-encoded as independently deflated chunks, so that it can be decompressed on all cores: with
+ * the zip, the single-threaded inflate feeding the parser caps the load speed, however fast the parser is.
+ * <p>
+ * The chunks are ~{@link #TARGET_CHUNK_BYTES} of CSV, cut at the first ticker change after that - so no line, and no
+ * ticker, is split between chunks. An index at the end of the file holds each chunk's offset, sizes, line count and
+ * first and last ticker.
+ * <p>
+ * Layout: magic (int), the name of the WIKI_PRICES zip it was made from (UTF), the chunks, the index - chunk count
+ * (int), then per chunk offset (long), compressed and uncompressed length (ints), line count (int), first and last
+ * ticker (UTFs) - and finally the offset of the index (long). The CSV header line is not included.
+ * <p>
+ * {@link #openParallel(File, int)} gives the CSV back as an InputStream, decompressing chunks ahead of the reader, in
+ * parallel, and handing them over in order. {@link QuandlReader#parseQuandlChunkedFile(File)} parses from it.
+ */
+public class QuandlChunkedFile {
+
+    private static final Logger log = LoggerFactory.getLogger(QuandlChunkedFile.class);
+
+    private static final int MAGIC = 0x51434331; // "QCC1"
+
+    static final int TARGET_CHUNK_BYTES = 1024 * 1024;
+    // Cut at a line boundary anyway if a single ticker gets this large - not the case in the WIKI_PRICES file.
+    static final int MAX_CHUNK_BYTES = 16 * 1024 * 1024;
+
+    private QuandlChunkedFile() {
+        /* utility class */
+    }
+
+    /**
+     * Populates the reader from the chunked file, first (re)making it from the WIKI_PRICES zip if it doesn't exist, is
+     * not a chunked file (e.g. of an older format, or truncated), or was made from another zip.
+     */
+    public static void load(QuandlReader reader, File chunkedFile) {
+        try {
+            String sourceName = QuandlReader.getWikiZipFileName();
+            String chunkedSourceName = chunkedFile.isFile() ? readSourceName(chunkedFile) : null;
+            if (!sourceName.equals(chunkedSourceName)) {
+                log.info("Chunked file [" + chunkedFile + "] is " + (!chunkedFile.isFile() ? "missing"
+                        : chunkedSourceName == null ? "not a chunked Quandl file"
+                        : "from [" + chunkedSourceName + "]") + " - making it from [" + sourceName + "].");
+                convert(chunkedFile);
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Couldn't make the chunked Quandl file [" + chunkedFile + "].", e);
+        }
+        reader.parseQuandlChunkedFile(chunkedFile);
+    }
+
+    /**
+     * Re-encodes the WIKI_PRICES zip in the quandl_wiki classpath directory into the chunked format.
+     */
+    public static void convert(File chunkedFile) throws IOException {
+        String sourceName = QuandlReader.getWikiZipFileName();
+        try (ZipInputStream zis = new ZipInputStream(QuandlReader.class.getResourceAsStream(
+                QuandlReader.QUANDL_WIKI_ZIP_DIRECTORY + '/' + sourceName))) {
+            ZipEntry firstEntry = zis.getNextEntry();
+            log.info("Converting [" + firstEntry + "] from [" + sourceName + "] to chunked file [" + chunkedFile
+                    + "].");
+            BufferedReader br = new BufferedReader(new InputStreamReader(zis, StandardCharsets.UTF_8), 1024 * 1024);
+            br.readLine(); // The header line.
+            convert(br, sourceName, chunkedFile);
+        }
+    }
+
+    /**
+     * Writes the lines of the reader, which must be past the header line, as a chunked file made from
+     * <code>sourceName</code>.
+     */
+    static void convert(BufferedReader br, String sourceName, File chunkedFile) throws IOException {
+        long nanosStart = System.nanoTime();
+        File tempFile = new File(chunkedFile.getPath() + ".tmp");
+        List<Chunk> chunks = new ArrayList<>();
+        long totalBytes = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile),
+                1024 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(sourceName);
+            long offset = 4 + 2 + sourceName.getBytes(StandardCharsets.UTF_8).length;
+
+            ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream(TARGET_CHUNK_BYTES + 64 * 1024);
+            int chunkLines = 0;
+            String firstTicker = null;
+            String lastTicker = null;
+            String line;
+            while ((line = br.readLine()) != null) {
+                String ticker = line.substring(0, Math.max(0, line.indexOf(',')));
+                boolean tickerChange = (lastTicker != null) && !ticker.equals(lastTicker);
+                if ((chunkLines > 0) && (((chunkBytes.size() >= TARGET_CHUNK_BYTES) && tickerChange)
+                        || (chunkBytes.size() >= MAX_CHUNK_BYTES))) {
+                    offset += writeChunk(out, offset, chunkBytes, chunkLines, firstTicker, lastTicker, chunks);
+                    totalBytes += chunkBytes.size();
+                    chunkBytes.reset();
+                    chunkLines = 0;
+                }
+                if (chunkLines == 0) {
+                    firstTicker = ticker;
+                }
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                chunkBytes.write(bytes, 0, bytes.length);
+                chunkBytes.write('\n');
+                chunkLines++;
+                lastTicker = ticker;
+            }
+            if (chunkLines > 0) {
+                offset += writeChunk(out, offset, chunkBytes, chunkLines, firstTicker, lastTicker, chunks);
+                totalBytes += chunkBytes.size();
+            }
+
+            long indexOffset = offset;
+            out.writeInt(chunks.size());
+            for (Chunk chunk : chunks) {
+                out.writeLong(chunk._offset);
+                out.writeInt(chunk._compressedLength);
+                out.writeInt(chunk._uncompressedLength);
+                out.writeInt(chunk._lines);
+                out.writeUTF(chunk._firstTicker);
+                out.writeUTF(chunk._lastTicker);
+            }
+            out.writeLong(indexOffset);
+        }
+        Files.move(tempFile.toPath(), chunkedFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        log.info("Wrote [" + chunks.size() + "] chunks of [" + totalBytes + "] CSV bytes in total to [" + chunkedFile
+                + "] (" + (chunkedFile.length() / 1024) + " KB), took [" + ((System.nanoTime() - nanosStart)
+                / 1_000_000) + " ms].");
+    }
+
+    /**
+     * @return the number of bytes written.
+     */
+    private static int writeChunk(DataOutputStream out, long offset, ByteArrayOutputStream chunkBytes, int lines,
+            String firstTicker, String lastTicker, List<Chunk> chunks) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(chunkBytes.size() / 3);
+        Deflater deflater = new Deflater();
+        try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(compressed, deflater, 64 * 1024)) {
+            chunkBytes.writeTo(deflaterOut);
+        }
+        finally {
+            deflater.end();
+        }
+        compressed.writeTo(out);
+        chunks.add(new Chunk(offset, compressed.size(), chunkBytes.size(), lines, firstTicker, lastTicker));
+        return compressed.size();
+    }
+
+    static class Chunk {
+        final long _offset;
+        final int _compressedLength;
+        final int _uncompressedLength;
+        final int _lines;
+        final String _firstTicker;
+        final String _lastTicker;
+
+        Chunk(long offset, int compressedLength, int uncompressedLength, int lines, String firstTicker,
+                String lastTicker) {
+            _offset = offset;
+            _compressedLength = compressedLength;
+            _uncompressedLength = uncompressedLength;
+            _lines = lines;
+            _firstTicker = firstTicker;
+            _lastTicker = lastTicker;
+        }
+    }
+
+    /**
+     * @return the name of the zip the chunked file was made from, or <code>null</code> if it is not a chunked Quandl
+     *         file - like {@link QuandlBinaryCache}, a file of the wrong format is stale, not an error.
+     */
+    static String readSourceName(File chunkedFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(chunkedFile, "r")) {
+            if ((file.length() < 4) || (file.readInt() != MAGIC)) {
+                log.warn("Chunked file [" + chunkedFile + "] has the wrong format, ignoring it.");
+                return null;
+            }
+            return file.readUTF();
+        }
+        catch (EOFException e) {
+            log.warn("Chunked file [" + chunkedFile + "] is truncated, ignoring it.");
+            return null;
+        }
+    }
+
+    static List<Chunk> readIndex(File chunkedFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(chunkedFile, "r")) {
+            if (file.readInt() != MAGIC) {
+                throw new IOException("File [" + chunkedFile + "] is not a chunked Quandl file.");
+            }
+            file.seek(file.length() - 8);
+            file.seek(file.readLong());
+            int count = file.readInt();
+            List<Chunk> chunks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                chunks.add(new Chunk(file.readLong(), file.readInt(), file.readInt(), file.readInt(), file.readUTF(),
+                        file.readUTF()));
+            }
+            return chunks;
+        }
+    }
+
+    /**
+     * @return the CSV of the chunked file, without the header line, decompressed by <code>numberOfThreads</code>
+     *         threads up to 2 chunks per thread ahead of the reader. Close it to stop the threads.
+     */
+    public static InputStream openParallel(File chunkedFile, int numberOfThreads) throws IOException {
+        return new ParallelChunkInputStream(chunkedFile, readIndex(chunkedFile), numberOfThreads);
+    }
+
+    private static class ParallelChunkInputStream extends InputStream {
+        private final FileChannel _channel;
+        private final List<Chunk> _chunks;
+        private final ExecutorService _executor;
+        private final int _lookahead;
+        private final Deque<Future<byte[]>> _ahead = new ArrayDeque<>();
+        private int _nextToSubmit;
+        private byte[] _current = new byte[0];
+        private int _position;
+
+        private ParallelChunkInputStream(File chunkedFile, List<Chunk> chunks, int numberOfThreads)
+                throws IOException {
+            _channel = FileChannel.open(chunkedFile.toPath(), StandardOpenOption.READ);
+            _chunks = chunks;
+            _lookahead = 2 * numberOfThreads;
+            AtomicInteger threadNumber = new AtomicInteger();
+            _executor = Executors.newFixedThreadPool(numberOfThreads, r -> {
+                Thread thread = new Thread(r, "QuandlChunkedFile inflater #" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            while ((_ahead.size() < _lookahead) && (_nextToSubmit < _chunks.size())) {
+                submitNext();
+            }
+        }
+
+        private void submitNext() {
+            if (_nextToSubmit < _chunks.size()) {
+                Chunk chunk = _chunks.get(_nextToSubmit++);
+                _ahead.add(_executor.submit(() -> inflate(chunk)));
+            }
+        }
+
+        private byte[] inflate(Chunk chunk) throws IOException, DataFormatException {
+            ByteBuffer compressed = ByteBuffer.allocate(chunk._compressedLength);
+            long position = chunk._offset;
+            while (compressed.hasRemaining()) {
+                // Positional reads don't touch the channel's position, so the threads can share it.
+                int read = _channel.read(compressed, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of chunked Quandl file.");
+                }
+                position += read;
+            }
+            byte[] uncompressed = new byte[chunk._uncompressedLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed.array());
+                int length = 0;
+                while (length < uncompressed.length) {
+                    int inflated = inflater.inflate(uncompressed, length, uncompressed.length - length);
+                    if ((inflated == 0) && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Chunk at [" + chunk._offset + "] inflated to [" + length
+                                + "] bytes, expected [" + uncompressed.length + "].");
+                    }
+                    length += inflated;
+                }
+            }
+            finally {
+                inflater.end();
+            }
+            return uncompressed;
+        }
+
+        /**
+         * @return false at the end of the last chunk.
+         */
+        private boolean advance() throws IOException {
+            while (_position >= _current.length) {
+                Future<byte[]> next = _ahead.poll();
+                if (next == null) {
+                    return false;
+                }
+                submitNext();
+                try {
+                    _current = next.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for chunk decompression.");
+                }
+                catch (ExecutionException e) {
+                    throw new IOException("Couldn't decompress chunk.", e.getCause());
+                }
+                _position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!advance()) {
+                return -1;
+            }
+            return _current[_position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int count = Math.min(len, _current.length - _position);
+            System.arraycopy(_current, _position, b, off, count);
+            _position += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _executor.shutdownNow();
+            _channel.close();
+        }
+    }
+
+    /**
+     * Makes the chunked file (default "quandl_wiki.chunks"), then parses both it and the zip and compares the times.
+     */
+    public static void main(String[] args) throws IOException {
+        File chunkedFile = new File(args.length > 0 ? args[0] : "quandl_wiki.chunks");
+        convert(chunkedFile);
+        long nanosStart = System.nanoTime();
+        new QuandlReader().parseQuandlZipFile();
+        long zipNanos = System.nanoTime() - nanosStart;
+        nanosStart = System.nanoTime();
+        new QuandlReader().parseQuandlChunkedFile(chunkedFile);
+        long chunkedNanos = System.nanoTime() - nanosStart;
+        log.info("Zip: [" + (zipNanos / 1_000_000) + " ms], chunked: [" + (chunkedNanos / 1_000_000)
+                + " ms] - speedup: [" + String.format("%.2f", zipNanos / (double) chunkedNanos) + "x].");
+    }
+}
@@ -0,0 +1,14 @@
+package com.stolsvik.machinelearning.quandl;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when the Quandl data is requested before it is loaded - rendered as 503 Service Unavailable.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class QuandlDataNotLoadedException extends RuntimeException {
+    public QuandlDataNotLoadedException(String message) {
+        super(message);
+    }
+}
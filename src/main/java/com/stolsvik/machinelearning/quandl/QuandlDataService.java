@@ -0,0 +1,98 @@
+package com.stolsvik.machinelearning.quandl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+
+/**
+ * Holds the in-memory {@link QuandlReader} data for the Spring app. The data is loaded at startup if
+ * <code>machinelearning.quandl.load-on-startup=true</code> - blocking the startup, unless
+ * <code>machinelearning.startup.background-load=true</code>, in which case it is left to the
+ * {@link com.stolsvik.machinelearning.startup.BackgroundDataLoader BackgroundDataLoader}. Until loaded,
+ * {@link #getReader()} throws {@link QuandlDataNotLoadedException}.
+ * <p>
+ * If <code>machinelearning.quandl.cache-file</code> is set, the data is loaded through a {@link QuandlBinaryCache}. Else, if
+ * <code>machinelearning.quandl.chunked-file</code> is set, it is parsed from a {@link QuandlChunkedFile}, made from the
+ * zip on first load.
+ */
+@Service
+public class QuandlDataService {
+
+    private static final Logger log = LoggerFactory.getLogger(QuandlDataService.class);
+
+    @Value("${machinelearning.quandl.load-on-startup:false}")
+    private boolean _loadOnStartup;
+
+    @Value("${machinelearning.startup.background-load:false}")
+    private boolean _backgroundLoad;
+
+    @Value("${machinelearning.quandl.cache-file:}")
+    private String _cacheFile;
+
+    @Value("${machinelearning.quandl.chunked-file:}")
+    private String _chunkedFile;
+
+    private volatile QuandlReader _loading;
+    private volatile QuandlReader _reader;
+
+    @PostConstruct
+    void loadOnStartup() {
+        if (!_loadOnStartup) {
+            log.info("Not loading Quandl data, 'machinelearning.quandl.load-on-startup' is false.");
+        }
+        else if (_backgroundLoad) {
+            log.info("Not loading Quandl data in startup, 'machinelearning.startup.background-load' is true.");
+        }
+        else {
+            load();
+        }
+    }
+
+    public synchronized void load() {
+        if (_reader != null) {
+            return;
+        }
+        QuandlReader reader = new QuandlReader();
+        _loading = reader;
+        try {
+            if (!_cacheFile.isEmpty()) {
+                QuandlBinaryCache.load(reader, new File(_cacheFile));
+            }
+            else if (!_chunkedFile.isEmpty()) {
+                QuandlChunkedFile.load(reader, new File(_chunkedFile));
+            }
+            else {
+                reader.parseQuandlZipFile();
+            }
+            _reader = reader;
+        }
+        finally {
+            _loading = null;
+        }
+    }
+
+    public boolean isLoaded() {
+        return _reader != null;
+    }
+
+    /**
+     * @return the number of lines parsed or DataPoints read so far while loading, see
+     *         {@link QuandlReader#getLoadProgress()}; -1 if not currently loading.
+     */
+    public long getLoadProgress() {
+        QuandlReader loading = _loading;
+        return loading != null ? loading.getLoadProgress() : -1;
+    }
+
+    public QuandlReader getReader() {
+        QuandlReader reader = _reader;
+        if (reader == null) {
+            throw new QuandlDataNotLoadedException("The Quandl data is not loaded.");
+        }
+        return reader;
+    }
+}
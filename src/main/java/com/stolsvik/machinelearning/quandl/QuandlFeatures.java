@@ -1,12 +1,62 @@
 package com.stolsvik.machinelearning.quandl;
 
+import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint;
+import com.stolsvik.machinelearning.quandl.QuandlReader.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * The feature row of a ticker on a date: for each of the last {@link #WINDOW} trading days (newest first), the log
+ * return of the adjusted close from the day before, and the high-low range relative to the close. A DataPoint can
+ * thus be featurized when it has at least WINDOW DataPoints before it.
+ */
 public class QuandlFeatures {
 
+    private static final Logger log = LoggerFactory.getLogger(QuandlFeatures.class);
+
+    public static final int WINDOW = 20;
+    public static final int NUM_FEATURES = 2 * WINDOW;
+
+    /**
+     * @return the number of DataPoints of the ticker that can be featurized, i.e. those at index WINDOW and onwards.
+     */
+    public static int featurizableCount(Ticker ticker) {
+        return Math.max(0, ticker.getDataPoints().size() - WINDOW);
+    }
+
+    /**
+     * Writes the NUM_FEATURES features of the DataPoint at <code>index</code> (which must be at least WINDOW) into
+     * <code>dst</code>, starting at <code>offset</code>.
+     */
+    public static void featurize(List<DataPoint> dataPoints, int index, double[] dst, int offset) {
+        if (index < WINDOW) {
+            throw new IllegalArgumentException("index [" + index + "] must be at least WINDOW [" + WINDOW + "].");
+        }
+        for (int k = 0; k < WINDOW; k++) {
+            DataPoint day = dataPoints.get(index - k);
+            DataPoint dayBefore = dataPoints.get(index - k - 1);
+            dst[offset + k] = ratioFeature(Math.log(day.getAdjustedClose() / dayBefore.getAdjustedClose()));
+            dst[offset + WINDOW + k] = ratioFeature((day.getAdjustedHigh() - day.getAdjustedLow())
+                    / day.getAdjustedClose());
+        }
+    }
+
+    /**
+     * Zero-prices in the data give infinities and NaNs, which would poison the whole output row.
+     */
+    private static double ratioFeature(double value) {
+        return Double.isFinite(value) ? value : 0;
+    }
+
     public static void main(String[] args) {
         QuandlReader reader = new QuandlReader();
         reader.parseQuandlZipFile();
-        reader.getTickerMap();
-
+        long rows = 0;
+        for (Ticker ticker : reader.getTickerMap().values()) {
+            rows += featurizableCount(ticker);
+        }
+        log.info("Featurizable rows: [" + rows + "], of [" + NUM_FEATURES + "] features each.");
     }
-
 }
@@ -0,0 +1,350 @@
+package com.stolsvik.machinelearning.quandl;
+
+import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint;
+import com.stolsvik.machinelearning.quandl.QuandlReader.Ticker;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.ds.PGSimpleDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the in-memory {@link QuandlReader} store to a relational database, as a full snapshot: the tables are dropped
+ * and recreated, the rows bulk loaded, and the primary keys added after the load (maintaining them while loading is
+ * far slower).
+ * <p>
+ * Layout: one table per year, <code>quandl_data_point_y&lt;year&gt;</code> (ticker, date, adj_open, adj_high, adj_low,
+ * adj_close, adj_volume). On PostgreSQL these are range partitions of the table <code>quandl_data_point</code>; on other
+ * databases (e.g. H2) <code>quandl_data_point</code> is a UNION ALL view over them. Either way, the rows are written
+ * directly into the year tables.
+ * <p>
+ * The tickers are split into <code>numberOfWriters</code> contiguous ranges of about the same number of DataPoints,
+ * and each range is written by its own thread on its own connection, year by year (finding each ticker's DataPoints of
+ * the year by binary search in its date index). On PostgreSQL the rows are streamed with <code>COPY .. FROM STDIN
+ * (FORMAT binary)</code>; otherwise they are inserted through JDBC batches of <code>batchSize</code> rows. Each year of
+ * each writer is one transaction.
+ */
+public class QuandlPersister {
+
+    private static final Logger log = LoggerFactory.getLogger(QuandlPersister.class);
+
+    static final String TABLE = "quandl_data_point";
+
+    private static final String COLUMNS = "ticker, date, adj_open, adj_high, adj_low, adj_close, adj_volume";
+    private static final String COLUMN_DEFINITIONS = "ticker VARCHAR(16) NOT NULL, date DATE NOT NULL,"
+            + " adj_open DOUBLE PRECISION, adj_high DOUBLE PRECISION, adj_low DOUBLE PRECISION,"
+            + " adj_close DOUBLE PRECISION, adj_volume DOUBLE PRECISION";
+
+    // PostgreSQL binary COPY: signature, flags, header extension length - and the epoch of its DATE type.
+    private static final byte[] PGCOPY_SIGNATURE = { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0 };
+    private static final long PG_EPOCH_DAY = LocalDate.of(2000, 1, 1).toEpochDay();
+    private static final int COPY_FLUSH_BYTES = 1024 * 1024;
+
+    private final DataSource _dataSource;
+    private final int _numberOfWriters;
+    private final int _batchSize;
+
+    public QuandlPersister(DataSource dataSource, int numberOfWriters, int batchSize) {
+        if (numberOfWriters < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("numberOfWriters [" + numberOfWriters + "] and batchSize ["
+                    + batchSize + "] must both be at least 1.");
+        }
+        _dataSource = dataSource;
+        _numberOfWriters = numberOfWriters;
+        _batchSize = batchSize;
+    }
+
+    /**
+     * The outcome of {@link #persist(QuandlReader)}.
+     */
+    public static class Result {
+        private final long _rows;
+        private final long _loadMillis;
+        private final long _totalMillis;
+        private final boolean _copy;
+
+        private Result(long rows, long loadMillis, long totalMillis, boolean copy) {
+            _rows = rows;
+            _loadMillis = loadMillis;
+            _totalMillis = totalMillis;
+            _copy = copy;
+        }
+
+        public long getRows() {
+            return _rows;
+        }
+
+        /**
+         * @return rows/sec of the load itself, i.e. not counting table creation and primary keys.
+         */
+        public double getRowsPerSecond() {
+            return _rows * 1000d / Math.max(1, _loadMillis);
+        }
+
+        public long getTotalMillis() {
+            return _totalMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "rows:[" + _rows + "], method:[" + (_copy ? "binary COPY" : "JDBC batch") + "], load:["
+                    + _loadMillis + " ms], rows/sec:[" + Math.round(getRowsPerSecond()) + "], total incl. DDL and keys:["
+                    + _totalMillis + " ms]";
+        }
+    }
+
+    public Result persist(QuandlReader reader) {
+        if (reader.getDateListMap().isEmpty()) {
+            throw new IllegalArgumentException("The QuandlReader has no DataPoints.");
+        }
+        long nanosStart = System.nanoTime();
+        List<LocalDate> dates = new ArrayList<>(reader.getDateListMap().keySet());
+        int firstYear = dates.get(0).getYear();
+        int lastYear = dates.get(dates.size() - 1).getYear();
+
+        boolean copy;
+        try (Connection connection = _dataSource.getConnection()) {
+            copy = connection.isWrapperFor(PGConnection.class);
+            createTables(connection, copy, firstYear, lastYear);
+        }
+        catch (SQLException e) {
+            throw new IllegalStateException("Couldn't create the tables.", e);
+        }
+
+        long loadNanos = System.nanoTime();
+        List<List<Ticker>> ranges = tickerRanges(reader);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size(), r -> {
+            Thread thread = new Thread(r, "QuandlPersister writer #" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long rows = 0;
+        try {
+            List<Future<Long>> futures = new ArrayList<>(ranges.size());
+            for (List<Ticker> range : ranges) {
+                futures.add(executor.submit(() -> writeRange(range, copy, firstYear, lastYear)));
+            }
+            for (Future<Long> future : futures) {
+                try {
+                    rows += future.get();
+                }
+                catch (InterruptedException e) {
+                    throw new IllegalStateException("Interrupted while waiting for writers.", e);
+                }
+                catch (ExecutionException e) {
+                    throw new IllegalStateException("Writer failed.", e.getCause());
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        long loadMillis = (System.nanoTime() - loadNanos) / 1_000_000;
+
+        try (Connection connection = _dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            long keyNanos = System.nanoTime();
+            for (int year = firstYear; year <= lastYear; year++) {
+                statement.execute("ALTER TABLE " + partition(year) + " ADD PRIMARY KEY (ticker, date)");
+            }
+            log.info("Added primary keys, took [" + ((System.nanoTime() - keyNanos) / 1_000_000) + " ms].");
+        }
+        catch (SQLException e) {
+            throw new IllegalStateException("Couldn't add the primary keys.", e);
+        }
+        Result result = new Result(rows, loadMillis, (System.nanoTime() - nanosStart) / 1_000_000, copy);
+        log.info("Persisted Quandl data with [" + ranges.size() + "] writers: " + result + ".");
+        return result;
+    }
+
+    static String partition(int year) {
+        return TABLE + "_y" + year;
+    }
+
+    private void createTables(Connection connection, boolean postgres, int firstYear, int lastYear)
+            throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (postgres) {
+                statement.execute("DROP TABLE IF EXISTS " + TABLE + " CASCADE");
+                statement.execute("CREATE TABLE " + TABLE + " (" + COLUMN_DEFINITIONS + ") PARTITION BY RANGE (date)");
+                for (int year = firstYear; year <= lastYear; year++) {
+                    statement.execute("CREATE TABLE " + partition(year) + " PARTITION OF " + TABLE
+                            + " FOR VALUES FROM ('" + year + "-01-01') TO ('" + (year + 1) + "-01-01')");
+                }
+            }
+            else {
+                statement.execute("DROP VIEW IF EXISTS " + TABLE);
+                StringBuilder view = new StringBuilder("CREATE VIEW " + TABLE + " AS ");
+                for (int year = firstYear; year <= lastYear; year++) {
+                    statement.execute("DROP TABLE IF EXISTS " + partition(year));
+                    statement.execute("CREATE TABLE " + partition(year) + " (" + COLUMN_DEFINITIONS + ")");
+                    if (year > firstYear) {
+                        view.append(" UNION ALL ");
+                    }
+                    view.append("SELECT ").append(COLUMNS).append(" FROM ").append(partition(year));
+                }
+                statement.execute(view.toString());
+            }
+        }
+    }
+
+    /**
+     * Splits the tickers, in name order, into at most <code>numberOfWriters</code> contiguous ranges of about the
+     * same number of DataPoints.
+     */
+    private List<List<Ticker>> tickerRanges(QuandlReader reader) {
+        long total = 0;
+        for (Ticker ticker : reader.getTickerMap().values()) {
+            total += ticker.getDataPoints().size();
+        }
+        long perWriter = (total + _numberOfWriters - 1) / _numberOfWriters;
+        List<List<Ticker>> ranges = new ArrayList<>(_numberOfWriters);
+        List<Ticker> current = new ArrayList<>();
+        long currentCount = 0;
+        for (Ticker ticker : reader.getTickerMap().values()) {
+            current.add(ticker);
+            currentCount += ticker.getDataPoints().size();
+            if (currentCount >= perWriter) {
+                ranges.add(current);
+                current = new ArrayList<>();
+                currentCount = 0;
+            }
+        }
+        if (!current.isEmpty()) {
+            ranges.add(current);
+        }
+        return ranges;
+    }
+
+    private long writeRange(List<Ticker> tickers, boolean copy, int firstYear, int lastYear)
+            throws SQLException, IOException {
+        long rows = 0;
+        try (Connection connection = _dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            for (int year = firstYear; year <= lastYear; year++) {
+                LocalDate from = LocalDate.of(year, 1, 1);
+                LocalDate to = LocalDate.of(year, 12, 31);
+                rows += copy
+                        ? copyYear(connection.unwrap(PGConnection.class), tickers, year, from, to)
+                        : insertYear(connection, tickers, year, from, to);
+                connection.commit();
+            }
+        }
+        return rows;
+    }
+
+    private long insertYear(Connection connection, List<Ticker> tickers, int year, LocalDate from, LocalDate to)
+            throws SQLException {
+        long rows = 0;
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + partition(year)
+                + " (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            int batched = 0;
+            for (Ticker ticker : tickers) {
+                for (DataPoint dataPoint : ticker.getDataPoints(from, to)) {
+                    insert.setString(1, ticker.getTickerName());
+                    insert.setDate(2, java.sql.Date.valueOf(dataPoint.getDate()));
+                    insert.setDouble(3, dataPoint.getAdjustedOpen());
+                    insert.setDouble(4, dataPoint.getAdjustedHigh());
+                    insert.setDouble(5, dataPoint.getAdjustedLow());
+                    insert.setDouble(6, dataPoint.getAdjustedClose());
+                    insert.setDouble(7, dataPoint.getAdjustedVolume());
+                    insert.addBatch();
+                    rows++;
+                    if (++batched == _batchSize) {
+                        insert.executeBatch();
+                        batched = 0;
+                    }
+                }
+            }
+            if (batched > 0) {
+                insert.executeBatch();
+            }
+        }
+        return rows;
+    }
+
+    private long copyYear(PGConnection connection, List<Ticker> tickers, int year, LocalDate from, LocalDate to)
+            throws SQLException, IOException {
+        CopyIn copyIn = connection.getCopyAPI().copyIn("COPY " + partition(year) + " (" + COLUMNS
+                + ") FROM STDIN (FORMAT binary)");
+        long rows = 0;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(COPY_FLUSH_BYTES + 1024);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.write(PGCOPY_SIGNATURE);
+            out.writeInt(0); // flags
+            out.writeInt(0); // header extension length
+            for (Ticker ticker : tickers) {
+                byte[] tickerBytes = ticker.getTickerName().getBytes(StandardCharsets.UTF_8);
+                for (DataPoint dataPoint : ticker.getDataPoints(from, to)) {
+                    out.writeShort(7); // field count
+                    out.writeInt(tickerBytes.length);
+                    out.write(tickerBytes);
+                    out.writeInt(4);
+                    out.writeInt((int) (dataPoint.getDate().toEpochDay() - PG_EPOCH_DAY));
+                    writeDouble(out, dataPoint.getAdjustedOpen());
+                    writeDouble(out, dataPoint.getAdjustedHigh());
+                    writeDouble(out, dataPoint.getAdjustedLow());
+                    writeDouble(out, dataPoint.getAdjustedClose());
+                    writeDouble(out, dataPoint.getAdjustedVolume());
+                    rows++;
+                    if (buffer.size() >= COPY_FLUSH_BYTES) {
+                        copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+                        buffer.reset();
+                    }
+                }
+            }
+            out.writeShort(-1); // trailer
+            copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+            copyIn.endCopy();
+        }
+        finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+        return rows;
+    }
+
+    private static void writeDouble(DataOutputStream out, double value) throws IOException {
+        out.writeInt(8);
+        out.writeDouble(value);
+    }
+
+    /**
+     * Parses the WIKI_PRICES file and persists it to PostgreSQL.
+     *
+     * @param args JDBC URL, user, password - defaulting to a local "machinelearning" database.
+     */
+    public static void main(String[] args) {
+        PGSimpleDataSource dataSource = new PGSimpleDataSource();
+        dataSource.setUrl(args.length > 0 ? args[0] : "jdbc:postgresql://localhost/machinelearning");
+        dataSource.setUser(args.length > 1 ? args[1] : "machinelearning");
+        dataSource.setPassword(args.length > 2 ? args[2] : "");
+
+        QuandlReader reader = new QuandlReader();
+        reader.parseQuandlZipFile();
+
+        int writers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        new QuandlPersister(dataSource, writers, 10_000).persist(reader);
+    }
+}
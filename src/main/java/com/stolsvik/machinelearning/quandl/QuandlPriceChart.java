@@ -0,0 +1,263 @@
+package com.stolsvik.machinelearning.quandl;
+
+import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint;
+import com.stolsvik.machinelearning.quandl.QuandlReader.Ticker;
+import com.stolsvik.machinelearning.tools.Downsampler;
+import org.jfree.chart.ChartPanel;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.DateAxis;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.plot.CombinedDomainXYPlot;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.DeviationRenderer;
+import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
+import org.jfree.data.Range;
+import org.jfree.data.xy.DefaultXYDataset;
+import org.jfree.data.xy.YIntervalSeries;
+import org.jfree.data.xy.YIntervalSeriesCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Interactive price and volume chart of one or more tickers over their full history. A ticker has up to ~14000
+ * trading days, and JFreeChart draws every item of a dataset on each repaint - so instead of handing it the full
+ * series, only a downsampled view of the currently visible date range is put in the datasets, and recomputed whenever the
+ * range changes (zoom, pan, restore). The number of drawn points is thus bounded by {@link #getTargetPoints()} per
+ * series no matter how much is visible, while zooming in shows every day once few enough are in view.
+ * <p>
+ * The price plot shows the adjusted close as a line, in a band from the adjusted low to the adjusted high. Each drawn
+ * point's band spans the lowest low and highest high of all the days up to the next drawn point, so that downsampling
+ * never hides a day's range.
+ * <p>
+ * The downsampling is done on the Swing thread, from arrays prepared up front; it is a single pass over the visible
+ * points, which for these sizes takes well below a millisecond.
+ */
+public class QuandlPriceChart {
+
+    private static final Logger log = LoggerFactory.getLogger(QuandlPriceChart.class);
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    public enum Downsampling {
+        /**
+         * {@link Downsampler#minMax(double[], int, int, int)}: keeps every spike - the default.
+         */
+        MIN_MAX,
+
+        /**
+         * {@link Downsampler#lttb(double[], double[], int, int, int)}: smoother lines, but may drop single-day spikes.
+         */
+        LTTB
+    }
+
+    private final List<Series> _series = new ArrayList<>();
+    private final Downsampling _downsampling;
+    private final int _targetPoints;
+    private final YIntervalSeriesCollection _prices = new YIntervalSeriesCollection();
+    private final DefaultXYDataset _volumes = new DefaultXYDataset();
+    private final DateAxis _dateAxis = new DateAxis("Date");
+    private final JFreeChart _chart;
+
+    private Range _currentRange;
+    private boolean _updating;
+
+    /**
+     * @param targetPoints the max number of points drawn per series - around twice the plot width in pixels gives a
+     *            result indistinguishable from drawing all points.
+     */
+    public QuandlPriceChart(QuandlReader reader, List<String> tickerNames, Downsampling downsampling,
+            int targetPoints) {
+        if (targetPoints < 4) {
+            throw new IllegalArgumentException("targetPoints must be at least 4, was [" + targetPoints + "].");
+        }
+        _downsampling = downsampling;
+        _targetPoints = targetPoints;
+        for (String tickerName : tickerNames) {
+            Ticker ticker = reader.getTickerMap().get(tickerName);
+            if (ticker == null) {
+                throw new IllegalArgumentException("No such ticker [" + tickerName + "].");
+            }
+            _series.add(new Series(ticker));
+        }
+
+        DeviationRenderer priceRenderer = new DeviationRenderer(true, false);
+        priceRenderer.setAlpha(0.25f);
+        XYPlot pricePlot = new XYPlot(_prices, null, new NumberAxis("Adjusted close, in low-high band"),
+                priceRenderer);
+        ((NumberAxis) pricePlot.getRangeAxis()).setAutoRangeIncludesZero(false);
+        XYPlot volumePlot = new XYPlot(_volumes, null, new NumberAxis("Adjusted volume"),
+                new XYLineAndShapeRenderer(true, false));
+
+        // The dates are UTC midnights - in the local time zone, the ticks would fall on the wrong day west of UTC.
+        _dateAxis.setTimeZone(TimeZone.getTimeZone("UTC"));
+        CombinedDomainXYPlot plot = new CombinedDomainXYPlot(_dateAxis);
+        plot.add(pricePlot, 3);
+        plot.add(volumePlot, 1);
+        _chart = new JFreeChart(String.join(", ", tickerNames), JFreeChart.DEFAULT_TITLE_FONT, plot, true);
+
+        updateDatasets(null);
+        _dateAxis.addChangeListener(event -> onDateAxisChanged());
+    }
+
+    public JFreeChart getChart() {
+        return _chart;
+    }
+
+    public int getTargetPoints() {
+        return _targetPoints;
+    }
+
+    private void onDateAxisChanged() {
+        // Replacing the series fires dataset and plot changes, which may get back here.
+        if (_updating) {
+            return;
+        }
+        // When the axis auto-ranges, e.g. after "restore auto bounds", the full history is wanted - and the axis'
+        // auto-range then follows the data, which always includes the first and last day.
+        Range range = _dateAxis.isAutoRange() ? null : _dateAxis.getRange();
+        if ((range == null) ? (_currentRange == null) : range.equals(_currentRange)) {
+            return;
+        }
+        updateDatasets(range);
+    }
+
+    /**
+     * @param range the visible date range, or <code>null</code> for all.
+     */
+    private void updateDatasets(Range range) {
+        long nanosStart = System.nanoTime();
+        _updating = true;
+        int drawn = 0;
+        int visible = 0;
+        try {
+            _prices.removeAllSeries();
+            for (Series series : _series) {
+                int from = 0;
+                int to = series._millis.length;
+                if (range != null) {
+                    // Include one point outside each side, so the lines continue out of the visible area.
+                    from = Math.max(0, insertionPoint(series._millis, range.getLowerBound()) - 1);
+                    to = Math.min(series._millis.length, insertionPoint(series._millis, range.getUpperBound()) + 1);
+                }
+                visible += to - from;
+                int[] priceIndexes = downsample(series._millis, series._close, from, to);
+                int[] volumeIndexes = downsample(series._millis, series._volume, from, to);
+                _prices.addSeries(band(series, priceIndexes, to));
+                _volumes.addSeries(series._name, pick(series._millis, series._volume, volumeIndexes));
+                drawn += priceIndexes.length + volumeIndexes.length;
+            }
+        }
+        finally {
+            _updating = false;
+        }
+        _currentRange = range;
+        if (log.isDebugEnabled()) {
+            log.debug("Downsampled [" + visible + "] visible days to [" + drawn + "] points with [" + _downsampling
+                    + "], took [" + ((System.nanoTime() - nanosStart) / 1_000d) + " µs].");
+        }
+    }
+
+    private int[] downsample(double[] x, double[] y, int from, int to) {
+        return _downsampling == Downsampling.LTTB
+                ? Downsampler.lttb(x, y, from, to, _targetPoints)
+                : Downsampler.minMax(y, from, to, _targetPoints);
+    }
+
+    private static int insertionPoint(double[] sorted, double value) {
+        int index = Arrays.binarySearch(sorted, value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @return the close at each index, with the lowest low and highest high from that index up to the next one (the
+     *         last: up to <code>to</code>).
+     */
+    private static YIntervalSeries band(Series series, int[] indexes, int to) {
+        YIntervalSeries band = new YIntervalSeries(series._name, false, true);
+        for (int k = 0; k < indexes.length; k++) {
+            int end = Math.max(indexes[k] + 1, k + 1 < indexes.length ? indexes[k + 1] : to);
+            double low = Double.POSITIVE_INFINITY;
+            double high = Double.NEGATIVE_INFINITY;
+            for (int i = indexes[k]; i < end; i++) {
+                low = Math.min(low, series._low[i]);
+                high = Math.max(high, series._high[i]);
+            }
+            band.add(series._millis[indexes[k]], series._close[indexes[k]], low, high);
+        }
+        return band;
+    }
+
+    private static double[][] pick(double[] x, double[] y, int[] indexes) {
+        double[][] result = new double[2][indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            result[0][i] = x[indexes[i]];
+            result[1][i] = y[indexes[i]];
+        }
+        return result;
+    }
+
+    /**
+     * A ticker's history as primitive arrays, the date as epoch millis (UTC midnight).
+     */
+    private static class Series {
+        private final String _name;
+        private final double[] _millis;
+        private final double[] _close;
+        private final double[] _high;
+        private final double[] _low;
+        private final double[] _volume;
+
+        private Series(Ticker ticker) {
+            List<DataPoint> dataPoints = ticker.getDataPoints();
+            _name = ticker.getTickerName();
+            _millis = new double[dataPoints.size()];
+            _close = new double[dataPoints.size()];
+            _high = new double[dataPoints.size()];
+            _low = new double[dataPoints.size()];
+            _volume = new double[dataPoints.size()];
+            for (int i = 0; i < dataPoints.size(); i++) {
+                DataPoint dataPoint = dataPoints.get(i);
+                _millis[i] = dataPoint.getDate().toEpochDay() * MILLIS_PER_DAY;
+                _close[i] = dataPoint.getAdjustedClose();
+                _high[i] = dataPoint.getAdjustedHigh();
+                _low[i] = dataPoint.getAdjustedLow();
+                _volume[i] = dataPoint.getAdjustedVolume();
+            }
+        }
+    }
+
+    /**
+     * Shows a chart of the tickers given as arguments (default AAPL and MSFT). Args: [MIN_MAX|LTTB] ticker...
+     */
+    public static void main(String[] args) {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        Downsampling downsampling = Downsampling.MIN_MAX;
+        if (!arguments.isEmpty() && Arrays.stream(Downsampling.values())
+                .anyMatch(d -> d.name().equals(arguments.get(0)))) {
+            downsampling = Downsampling.valueOf(arguments.remove(0));
+        }
+        if (arguments.isEmpty()) {
+            arguments.addAll(Arrays.asList("AAPL", "MSFT"));
+        }
+        QuandlReader reader = new QuandlReader();
+        reader.parseQuandlZipFile();
+        Downsampling finalDownsampling = downsampling;
+        SwingUtilities.invokeLater(() -> {
+            QuandlPriceChart chart = new QuandlPriceChart(reader, arguments, finalDownsampling, 2000);
+            ChartPanel panel = new ChartPanel(chart.getChart());
+            panel.setMouseWheelEnabled(true);
+            JFrame f = new JFrame();
+            f.add(panel);
+            f.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+            f.pack();
+            f.setTitle("Quandl prices - " + finalDownsampling);
+            f.setVisible(true);
+        });
+    }
+}
@@ -0,0 +1,160 @@
+package com.stolsvik.machinelearning.quandl;
+
+import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint;
+import com.stolsvik.machinelearning.quandl.QuandlReader.Ticker;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * REST range queries over the loaded Quandl data (see {@link QuandlDataService}):
+ * <ul>
+ * <li><code>GET /quandl/tickers</code> - the ticker names.</li>
+ * <li><code>GET /quandl/tickers/{ticker}?from=yyyy-MM-dd&amp;to=yyyy-MM-dd</code> - the ticker's DataPoints between the
+ * dates (both inclusive, both optional), found by binary search in the ticker's date index.</li>
+ * <li><code>GET /quandl/dates/{date}?to=yyyy-MM-dd</code> - the cross-section of all tickers on the date, or on each
+ * date up to and including <code>to</code>, from the date-sorted map.</li>
+ * </ul>
+ * With <code>format=csv</code> (default) the rows are <code>ticker,date,adj_open,adj_high,adj_low,adj_close,adj_volume</code>
+ * with a header line. With <code>format=binary</code> they are big-endian records of: ticker as
+ * {@link DataOutputStream#writeUTF(String) modified UTF-8}, date as int epoch day, then the five doubles - terminated
+ * by an empty ticker string.
+ * <p>
+ * The rows are written to the response stream as they are produced (through {@link StreamingResponseBody}, on an
+ * async thread), so the result is never built in memory.
+ */
+@RestController
+@RequestMapping("/quandl")
+public class QuandlQueryController {
+
+    private static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+
+    // Open ends of a range: well outside the data, but within the int epoch days of the index.
+    private static final LocalDate EARLIEST = LocalDate.of(0, 1, 1);
+    private static final LocalDate LATEST = LocalDate.of(9999, 12, 31);
+
+    private final QuandlDataService _quandlDataService;
+
+    public QuandlQueryController(QuandlDataService quandlDataService) {
+        _quandlDataService = quandlDataService;
+    }
+
+    @GetMapping("/tickers")
+    public Set<String> tickers() {
+        return _quandlDataService.getReader().getTickerMap().keySet();
+    }
+
+    @GetMapping("/tickers/{ticker}")
+    public ResponseEntity<StreamingResponseBody> tickerRange(@PathVariable("ticker") String tickerName,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate to,
+            @RequestParam(value = "format", defaultValue = "csv") String format) {
+        Ticker ticker = _quandlDataService.getReader().getTickerMap().get(tickerName);
+        if (ticker == null) {
+            return ResponseEntity.notFound().build();
+        }
+        List<DataPoint> dataPoints = ticker.getDataPoints(from != null ? from : EARLIEST, to != null ? to : LATEST);
+        return respond(format, out -> {
+            for (DataPoint dataPoint : dataPoints) {
+                out.write(dataPoint);
+            }
+        });
+    }
+
+    @GetMapping("/dates/{date}")
+    public ResponseEntity<StreamingResponseBody> crossSection(
+            @PathVariable("date") @DateTimeFormat(iso = ISO.DATE) LocalDate date,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate to,
+            @RequestParam(value = "format", defaultValue = "csv") String format) {
+        LocalDate toInclusive = to != null ? to : date;
+        // As with the ticker range, a range ending before it starts is empty - TreeMap.subMap would throw.
+        Collection<List<DataPoint>> dates = toInclusive.isBefore(date)
+                ? Collections.emptyList()
+                : _quandlDataService.getReader().getDateListMap(date, toInclusive).values();
+        return respond(format, out -> {
+            for (List<DataPoint> dataPointsForDate : dates) {
+                for (DataPoint dataPoint : dataPointsForDate) {
+                    out.write(dataPoint);
+                }
+            }
+        });
+    }
+
+    // ===== Streaming
+
+    @FunctionalInterface
+    private interface RowWriter {
+        void write(DataPoint dataPoint) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RowProducer {
+        void produce(RowWriter out) throws IOException;
+    }
+
+    private ResponseEntity<StreamingResponseBody> respond(String format, RowProducer producer) {
+        switch (format) {
+            case "csv":
+                return ResponseEntity.ok().contentType(TEXT_CSV).body(outputStream -> writeCsv(outputStream, producer));
+            case "binary":
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .body(outputStream -> writeBinary(outputStream, producer));
+            default:
+                return ResponseEntity.badRequest().build();
+        }
+    }
+
+    private static void writeCsv(OutputStream outputStream, RowProducer producer) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.US_ASCII), 64 * 1024);
+        writer.write("ticker,date,adj_open,adj_high,adj_low,adj_close,adj_volume\n");
+        StringBuilder line = new StringBuilder(128);
+        producer.produce(dataPoint -> {
+            line.setLength(0);
+            line.append(dataPoint.getTicker().getTickerName()).append(',')
+                    .append(dataPoint.getDate()).append(',')
+                    .append(dataPoint.getAdjustedOpen()).append(',')
+                    .append(dataPoint.getAdjustedHigh()).append(',')
+                    .append(dataPoint.getAdjustedLow()).append(',')
+                    .append(dataPoint.getAdjustedClose()).append(',')
+                    .append(dataPoint.getAdjustedVolume()).append('\n');
+            writer.append(line);
+        });
+        writer.flush();
+    }
+
+    private static void writeBinary(OutputStream outputStream, RowProducer producer) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024));
+        producer.produce(dataPoint -> {
+            out.writeUTF(dataPoint.getTicker().getTickerName());
+            out.writeInt((int) dataPoint.getDate().toEpochDay());
+            out.writeDouble(dataPoint.getAdjustedOpen());
+            out.writeDouble(dataPoint.getAdjustedHigh());
+            out.writeDouble(dataPoint.getAdjustedLow());
+            out.writeDouble(dataPoint.getAdjustedClose());
+            out.writeDouble(dataPoint.getAdjustedVolume());
+        });
+        out.writeUTF("");
+        out.flush();
+    }
+}
@@ -4,18 +4,25 @@ import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.SleepingWaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
+import com.stolsvik.machinelearning.tools.MemoryReport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -31,7 +38,19 @@ public class QuandlReader {
     public static final String QUANDL_WIKI_ZIP_DIRECTORY = "/quandl_wiki";
 
     private Map<String, Ticker> _tickerMap = new TreeMap<>();
-    private Map<LocalDate, List<DataPoint>> _dateListMap = new TreeMap<>();
+    private NavigableMap<LocalDate, List<DataPoint>> _dateListMap = new TreeMap<>();
+
+    // Lines parsed or DataPoints added so far, published every PROGRESS_INTERVAL - for progress reporting while loading.
+    private static final int PROGRESS_INTERVAL = 100_000;
+
+    // Lines per Disruptor event in the batched hand-off.
+    static final int LINES_PER_BLOCK = 1024;
+
+    // Initial capacities of the per-ticker and per-date DataPoint lists.
+    private static final int TICKER_LIST_CAPACITY = 1024 + 512;
+    private static final int DATE_LIST_CAPACITY = 256;
+    private volatile long _loadProgress;
+    private long _addedDataPoints;
 
     public Map<String, Ticker> getTickerMap() {
         return _tickerMap;
@@ -41,10 +60,76 @@ public class QuandlReader {
         return _dateListMap;
     }
 
+    /**
+     * @return the number of lines parsed, or DataPoints added, so far - updated every 100 000, and safe to read from
+     *         any thread while loading.
+     */
+    public long getLoadProgress() {
+        return _loadProgress;
+    }
+
+    /**
+     * @return an estimate of the heap retained by the loaded data, by component: the DataPoints, the LocalDates, the
+     *         Tickers with their lists and date indexes, and the nodes and lists of the maps. Cheap - it iterates the
+     *         tickers and dates, not the DataPoints - but only consistent when not loading.
+     */
+    public MemoryReport estimateMemory() {
+        long dataPoints = 0;
+        long tickerBytes = 0;
+        long tickerListBytes = 0;
+        long tickerIndexBytes = 0;
+        for (Ticker ticker : _tickerMap.values()) {
+            dataPoints += ticker._dataPoints.size();
+            // The name is the same String instance as the _tickerMap key.
+            tickerBytes += MemoryReport.objectBytes(3, 0) + MemoryReport.stringBytes(ticker.tickerName.length());
+            tickerListBytes += MemoryReport.arrayListBytes(TICKER_LIST_CAPACITY, ticker._dataPoints.size());
+            tickerIndexBytes += MemoryReport.arrayBytes(4, ticker._epochDays.length);
+        }
+        long dateListBytes = 0;
+        for (List<DataPoint> dataPointsForDate : _dateListMap.values()) {
+            dateListBytes += MemoryReport.arrayListBytes(DATE_LIST_CAPACITY, dataPointsForDate.size());
+        }
+        long dateStringBytes = 0;
+        for (String dateString : _stringLocalDateMap.keySet()) {
+            dateStringBytes += MemoryReport.stringBytes(dateString.length());
+        }
+        long dateSlots = 0;
+        for (DateSlot dateSlot : _dateSlots) {
+            dateSlots += dateSlot != null ? 1 : 0;
+        }
+        int tickers = _tickerMap.size();
+        int dates = _dateListMap.size();
+        int stringLocalDates = _stringLocalDateMap.size();
+        // Each date has one LocalDate instance, whether interned by _stringLocalDateMap or by _dateSlots.
+        return new MemoryReport("quandl")
+                .add("DataPoint", dataPoints, dataPoints * MemoryReport.objectBytes(2, 5 * 8))
+                .add("LocalDate", dates, dates * MemoryReport.objectBytes(0, 4 + 2 + 2))
+                .add("Ticker, with name", tickers, tickerBytes)
+                .add("Ticker DataPoint ArrayLists", tickers, tickerListBytes)
+                .add("Ticker epoch-day indexes", tickers, tickerIndexBytes)
+                .add("_tickerMap TreeMap nodes", tickers, tickers * MemoryReport.treeMapEntryBytes())
+                .add("_dateListMap DataPoint ArrayLists", dates, dateListBytes)
+                .add("_dateListMap TreeMap nodes", dates, dates * MemoryReport.treeMapEntryBytes())
+                .add("_stringLocalDateMap nodes and date strings", stringLocalDates,
+                        stringLocalDates * MemoryReport.treeMapEntryBytes() + dateStringBytes)
+                .add("_dateSlots array and slots", dateSlots, MemoryReport.referenceArrayBytes(_dateSlots.length)
+                        + dateSlots * MemoryReport.objectBytes(2, 0));
+    }
+
+    /**
+     * @return a view of the per-date DataPoint lists for the dates between from and to, both inclusive.
+     */
+    public NavigableMap<LocalDate, List<DataPoint>> getDateListMap(LocalDate from, LocalDate toInclusive) {
+        return _dateListMap.subMap(from, true, toInclusive, true);
+    }
+
     public static class Ticker {
         private String tickerName;
 
-        private List<DataPoint> _dataPoints = new ArrayList<>(1024 + 512);
+        private List<DataPoint> _dataPoints = new ArrayList<>(TICKER_LIST_CAPACITY);
+
+        // Index: the epoch day of each DataPoint, in the same (ascending) order as _dataPoints.
+        private int[] _epochDays = new int[0];
 
         private Ticker(String tickerName) {
             this.tickerName = tickerName;
@@ -57,6 +142,43 @@ public class QuandlReader {
         public List<DataPoint> getDataPoints() {
             return _dataPoints;
         }
+
+        /**
+         * @return the index into {@link #getDataPoints()} of the first DataPoint on or after the given date, which is
+         * <code>getDataPoints().size()</code> if there is none. Binary search, O(log n).
+         */
+        public int indexOfFirstOnOrAfter(LocalDate date) {
+            int idx = Arrays.binarySearch(_epochDays, (int) date.toEpochDay());
+            return idx >= 0 ? idx : -idx - 1;
+        }
+
+        /**
+         * @return a view of the DataPoints between the dates, both inclusive, found by binary search.
+         */
+        public List<DataPoint> getDataPoints(LocalDate from, LocalDate toInclusive) {
+            int start = indexOfFirstOnOrAfter(from);
+            int end = indexOfFirstOnOrAfter(toInclusive.plusDays(1));
+            return _dataPoints.subList(start, Math.max(start, end));
+        }
+
+        /**
+         * Sorts the DataPoints on date if they aren't already (the WIKI_PRICES file is sorted on ticker, then date),
+         * and builds the date index.
+         */
+        void buildIndex() {
+            for (int i = 1; i < _dataPoints.size(); i++) {
+                if (_dataPoints.get(i - 1).date.isAfter(_dataPoints.get(i).date)) {
+                    log.warn("DataPoints for [" + tickerName + "] are not sorted on date, sorting.");
+                    _dataPoints.sort(Comparator.comparing(DataPoint::getDate));
+                    break;
+                }
+            }
+            int[] epochDays = new int[_dataPoints.size()];
+            for (int i = 0; i < epochDays.length; i++) {
+                epochDays[i] = (int) _dataPoints.get(i).date.toEpochDay();
+            }
+            _epochDays = epochDays;
+        }
     }
 
     public static class DataPoint {
@@ -99,6 +221,21 @@ public class QuandlReader {
 
     private Map<String, LocalDate> _stringLocalDateMap = new TreeMap<>();
 
+    // The dates of the DataPoints added by addDataPoint(..), indexed by epoch day from _firstDateSlotEpochDay: each
+    // with its LocalDate instance and _dateListMap list, so that adding a DataPoint needs no map lookups.
+    private DateSlot[] _dateSlots = new DateSlot[0];
+    private int _firstDateSlotEpochDay;
+
+    private static class DateSlot {
+        private final LocalDate _date;
+        private final List<DataPoint> _dataPoints;
+
+        private DateSlot(LocalDate date, List<DataPoint> dataPoints) {
+            _date = date;
+            _dataPoints = dataPoints;
+        }
+    }
+
     private class LineEvent {
         private String _line;
         private String[] _splitted;
@@ -175,7 +312,7 @@ public class QuandlReader {
             // Null out the splitted-array.
             _splitted = null;
 
-            List<DataPoint> dataPointsForDate = _dateListMap.computeIfAbsent(_dataPoint.date, s -> new ArrayList<>(256));
+            List<DataPoint> dataPointsForDate = _dateListMap.computeIfAbsent(_dataPoint.date, s -> new ArrayList<>(DATE_LIST_CAPACITY));
             dataPointsForDate.add(_dataPoint);
 
             // Null out the DataPoint from the Event instance, it is now tucked away where it should be.
@@ -188,20 +325,92 @@ public class QuandlReader {
         String line;
     }
 
+    /**
+     * For the batched hand-off: a block of up to {@link #LINES_PER_BLOCK} lines, published as one Disruptor event, so
+     * that each stage pays the sequence hand-off once per block instead of once per line. Each stage just runs its
+     * step over the block's {@link LineEvent}s, which are reused like the Disruptor reuses its events.
+     */
+    private class LineBlockEvent {
+        private final LineEvent[] _lineEvents = new LineEvent[LINES_PER_BLOCK];
+        private int _count;
+
+        LineBlockEvent() {
+            for (int i = 0; i < _lineEvents.length; i++) {
+                _lineEvents[i] = new LineEvent();
+            }
+        }
+
+        void forEach(Consumer<LineEvent> step) {
+            for (int i = 0; i < _count; i++) {
+                step.accept(_lineEvents[i]);
+            }
+        }
+    }
+
+    private static class ReadCounts {
+        long parsedLines;
+        long droppedLines;
+        long handOffs;
+    }
+
+    /**
+     * Args: "lines" to hand the lines to the parser stages one by one instead of in blocks, or "compare [rounds]" to
+     * parse with both and compare the throughput. Else, logs the memory estimate of the loaded data.
+     * <p>
+     * "compare" first does one discarded parse with each, to warm up the JIT and the page cache. Then each round
+     * parses with both, alternating which goes first, and the best time of each over the rounds (default 3) is
+     * compared - so that neither is measured cold, nor always right after the other's garbage.
+     */
     public static void main(String[] args) throws IOException {
-        QuandlReader reader = new QuandlReader();
-        reader.parseQuandlZipFile();
+        String mode = args.length > 0 ? args[0] : "batched";
+        if ("compare".equals(mode)) {
+            int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+            timeParse(false);
+            timeParse(true);
+            long perLineNanos = Long.MAX_VALUE;
+            long batchedNanos = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                boolean batchedFirst = round % 2 == 1;
+                long firstNanos = timeParse(batchedFirst);
+                long secondNanos = timeParse(!batchedFirst);
+                perLineNanos = Math.min(perLineNanos, batchedFirst ? secondNanos : firstNanos);
+                batchedNanos = Math.min(batchedNanos, batchedFirst ? firstNanos : secondNanos);
+            }
+            log.info("Best of [" + rounds + "] rounds - per line: [" + (perLineNanos / 1_000_000)
+                    + " ms], batched: [" + (batchedNanos / 1_000_000) + " ms] - speedup: ["
+                    + String.format("%.2f", perLineNanos / (double) batchedNanos) + "x].");
+        }
+        else {
+            QuandlReader reader = new QuandlReader();
+            reader.parseQuandlZipFile(!"lines".equals(mode));
+            log.info(reader.estimateMemory().toString());
+        }
+    }
+
+    /**
+     * @return the nanos taken to parse the WIKI_PRICES file into a new reader, which is then dropped.
+     */
+    private static long timeParse(boolean batched) {
+        long nanosStart = System.nanoTime();
+        new QuandlReader().parseQuandlZipFile(batched);
+        return System.nanoTime() - nanosStart;
     }
 
+    /**
+     * Parses the WIKI_PRICES file, handing the lines to the parser stages in blocks.
+     */
     public void parseQuandlZipFile() {
+        parseQuandlZipFile(true);
+    }
+
+    /**
+     * @param batched whether the reader thread hands the lines to the parser stages in blocks of
+     *            {@link #LINES_PER_BLOCK}, or one Disruptor event per line.
+     */
+    public void parseQuandlZipFile(boolean batched) {
         BufferedReader br;
         try {
-            List<String> files = getResourceFiles(QUANDL_WIKI_ZIP_DIRECTORY);
-            if (files.size() > 1) {
-                throw new IllegalStateException("More files than expected in the quandl_wiki classpath directory" +
-                        " (should be 1): " + files);
-            }
-            String file = files.get(0);
+            String file = getWikiZipFileName();
             log.info("File to read: " + file);
             InputStream quandlZipFile = QuandlReader.class.getResourceAsStream(QUANDL_WIKI_ZIP_DIRECTORY + '/' + file);
             ZipInputStream zis = new ZipInputStream(quandlZipFile);
@@ -214,9 +423,64 @@ public class QuandlReader {
         catch (IOException ioE) {
             throw new IllegalStateException("Couldn't find the Quandl WIKI_PRICES file.", ioE);
         }
+        parse(br, batched);
+    }
+
+    /**
+     * Parses a {@link QuandlChunkedFile}, decompressing its chunks on all cores ahead of the reader thread.
+     */
+    public void parseQuandlChunkedFile(File chunkedFile) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        log.info("Chunked file to read: " + chunkedFile + ", decompressing with [" + threads + "] threads.");
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                QuandlChunkedFile.openParallel(chunkedFile, threads), StandardCharsets.UTF_8), 1024 * 1024)) {
+            parse(br, true);
+        }
+        catch (IOException ioE) {
+            throw new IllegalStateException("Couldn't read the chunked Quandl file [" + chunkedFile + "].", ioE);
+        }
+    }
+
+    /**
+     * Parses the lines of the reader, which must be past the header line, and builds the indexes.
+     */
+    private void parse(BufferedReader br, boolean batched) {
+        long startNanos = System.nanoTime();
+        ReadCounts counts = new ReadCounts();
+        if (batched) {
+            parseInBlocks(br, counts);
+        }
+        else {
+            parsePerLine(br, counts);
+        }
+        long parsedLines = counts.parsedLines;
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000d;
+        log.info("Parsed [" + parsedLines + "] lines with [" + counts.handOffs + "] hand-offs ("
+                + (batched ? "batched" : "per line") + "), [" + String.format("%.0f", parsedLines / seconds)
+                + "] lines/s.");
+
+        _loadProgress = parsedLines;
+        log.info("Lines parsed: [" + parsedLines + "] (dropped lines: [" + counts.droppedLines + "]), total time taken: [" + ((System.nanoTime() - startNanos) / 1_000_000) + " ms].");
 
+        buildIndexes();
 
-        log.info("Creating Disruptor for multi-step multi-thread parsing.");
+        log.info("Tickers: " + _tickerMap.size() + ": " + _tickerMap.keySet());
+
+        int dataPointCountFromTickers = 0;
+        for (Ticker ticker : _tickerMap.values()) {
+            dataPointCountFromTickers += ticker._dataPoints.size();
+        }
+        log.info("Total DataPoints from Tickers: " + dataPointCountFromTickers);
+
+        int dataPointCountFromDates = 0;
+        for (List<DataPoint> listForDate : _dateListMap.values()) {
+            dataPointCountFromDates += listForDate.size();
+        }
+        log.info("Total DataPoints from Dates: " + dataPointCountFromDates);
+    }
+
+    private void parsePerLine(BufferedReader br, ReadCounts counts) {
+        log.info("Creating Disruptor for multi-step multi-thread parsing, line by line.");
 
         Disruptor<LineEvent> disruptor = new Disruptor<>(LineEvent::new, 1024 * 512, r -> {
             return new Thread(r, "ENDRE THREAD");
@@ -232,10 +496,61 @@ public class QuandlReader {
 
         RingBuffer<LineEvent> ringBuffer = disruptor.getRingBuffer();
 
-        long startNanos = System.nanoTime();
-        long parsedLines = 0;
-        long droppedLines = 0;
         LineHolder lineHolder = new LineHolder();
+        String line;
+        while ((line = nextLine(br, counts)) != null) {
+            lineHolder.line = line;
+            ringBuffer.publishEvent((event, sequence, lineArray) -> event.setLine(lineArray.line), lineHolder);
+            counts.handOffs++;
+        }
+
+        disruptor.shutdown();
+    }
+
+    private void parseInBlocks(BufferedReader br, ReadCounts counts) {
+        log.info("Creating Disruptor for multi-step multi-thread parsing, in blocks of [" + LINES_PER_BLOCK
+                + "] lines.");
+
+        // Same number of lines in flight as the per-line ring buffer.
+        Disruptor<LineBlockEvent> disruptor = new Disruptor<>(LineBlockEvent::new, 1024 * 512 / LINES_PER_BLOCK,
+                r -> new Thread(r, "ENDRE THREAD"), ProducerType.SINGLE, new SleepingWaitStrategy());
+
+        disruptor.handleEventsWith((block, sequence, endOfBatch) -> block.forEach(LineEvent::a_splitLine))
+                .then((block, sequence, endOfBatch) -> block.forEach(LineEvent::b_makeDataPont))
+                .then((block, sequence, endOfBatch) -> block.forEach(LineEvent::c_parseNumbers1))
+                .then((block, sequence, endOfBatch) -> block.forEach(LineEvent::d_parseNumbers2))
+                .then((block, sequence, endOfBatch) -> block.forEach(LineEvent::e_parseDate));
+
+        disruptor.start();
+
+        RingBuffer<LineBlockEvent> ringBuffer = disruptor.getRingBuffer();
+
+        boolean more = true;
+        while (more) {
+            // Fill the claimed block directly - the stages only see it once it is published.
+            long sequence = ringBuffer.next();
+            LineBlockEvent block = ringBuffer.get(sequence);
+            block._count = 0;
+            try {
+                String line;
+                while ((block._count < LINES_PER_BLOCK) && ((line = nextLine(br, counts)) != null)) {
+                    block._lineEvents[block._count++].setLine(line);
+                }
+                more = block._count == LINES_PER_BLOCK;
+            }
+            finally {
+                ringBuffer.publish(sequence);
+            }
+            counts.handOffs++;
+        }
+
+        disruptor.shutdown();
+    }
+
+    /**
+     * @return the next line to parse, skipping those of the dropped tickers - or <code>null</code> at the end.
+     */
+    private String nextLine(BufferedReader br, ReadCounts counts) {
         while (true) {
             String line;
             try {
@@ -246,69 +561,161 @@ public class QuandlReader {
             }
 
             if (line == null) {
-                break;
+                return null;
             }
-            if (parsedLines % 1_000_000 == 0) {
-                log.info("Parsed [" + parsedLines + "] lines, current line: " + line);
+            if (counts.parsedLines % PROGRESS_INTERVAL == 0) {
+                _loadProgress = counts.parsedLines;
+                if (counts.parsedLines % 1_000_000 == 0) {
+                    log.info("Parsed [" + counts.parsedLines + "] lines, current line: " + line);
+                }
             }
 
-            // If any of the tickers with missing values for OHLC, then just skip the entire ticker.
-            if (line.startsWith("ATMI")
-                    || line.startsWith("BAGL")
-                    || line.startsWith("BODY")
-                    || line.startsWith("DFZ")
-                    || line.startsWith("DFZ")
-                    || line.startsWith("EDIG")
-                    || line.startsWith("FIO")
-                    || line.startsWith("FURX")
-                    || line.startsWith("GMT")
-                    || line.startsWith("HITK")
-                    || line.startsWith("HSH")
-                    || line.startsWith("LLEN")
-                    || line.startsWith("NASB")
-                    || line.startsWith("OPLK")
-                    || line.startsWith("OPEN")
-                    || line.startsWith("PLXT")
-                    || line.startsWith("SUSS")
-                    || line.startsWith("SGK")
-                    || line.startsWith("TAYC")
-                    || line.startsWith("TWGP")
-                    || line.startsWith("VITC")
-                    || line.startsWith("ZIGO")
-                    ) {
-                droppedLines++;
+            if (isDroppedTicker(line)) {
+                counts.droppedLines++;
                 continue;
             }
+            counts.parsedLines++;
+            return line;
+        }
+    }
 
-            lineHolder.line = line;
-            ringBuffer.publishEvent((event, sequence, lineArray) -> event.setLine(lineArray.line), lineHolder);
+    /**
+     * If any of the tickers with missing values for OHLC, then just skip the entire ticker.
+     */
+    private static boolean isDroppedTicker(String line) {
+        return line.startsWith("ATMI")
+                || line.startsWith("BAGL")
+                || line.startsWith("BODY")
+                || line.startsWith("DFZ")
+                || line.startsWith("DFZ")
+                || line.startsWith("EDIG")
+                || line.startsWith("FIO")
+                || line.startsWith("FURX")
+                || line.startsWith("GMT")
+                || line.startsWith("HITK")
+                || line.startsWith("HSH")
+                || line.startsWith("LLEN")
+                || line.startsWith("NASB")
+                || line.startsWith("OPLK")
+                || line.startsWith("OPEN")
+                || line.startsWith("PLXT")
+                || line.startsWith("SUSS")
+                || line.startsWith("SGK")
+                || line.startsWith("TAYC")
+                || line.startsWith("TWGP")
+                || line.startsWith("VITC")
+                || line.startsWith("ZIGO");
+    }
 
-            parsedLines++;
+    /**
+     * Adds a DataPoint directly, for other sources than the WIKI_PRICES file (e.g. tests, or a binary cache). The
+     * DataPoints of each ticker must be added in date order, or {@link #buildIndexes()} will have to sort them. Not
+     * thread safe; invoke {@link #buildIndexes()} when done.
+     */
+    void addDataPoint(String tickerName, LocalDate date, double adjustedOpen, double adjustedHigh,
+            double adjustedLow, double adjustedClose, double adjustedVolume) {
+        addDataPoint(ticker(tickerName), (int) date.toEpochDay(), adjustedOpen, adjustedHigh, adjustedLow,
+                adjustedClose, adjustedVolume);
+    }
 
-//            if (lines >= 4_000_000) {
-//                break;
-//            }
-        }
+    /**
+     * @return the Ticker of the given name, created if not present - for adding many DataPoints to it by
+     *         {@link #addDataPoint(Ticker, int, double, double, double, double, double)}.
+     */
+    Ticker ticker(String tickerName) {
+        return _tickerMap.computeIfAbsent(tickerName, Ticker::new);
+    }
 
+    /**
+     * As {@link #addDataPoint(String, LocalDate, double, double, double, double, double)}, for a Ticker of this
+     * reader and the date as epoch day - a bulk source then does no per-DataPoint map lookups at all.
+     */
+    void addDataPoint(Ticker ticker, int epochDay, double adjustedOpen, double adjustedHigh, double adjustedLow,
+            double adjustedClose, double adjustedVolume) {
+        DateSlot dateSlot = dateSlot(epochDay);
+        DataPoint dataPoint = new DataPoint();
+        ticker._dataPoints.add(dataPoint);
+        dataPoint.ticker = ticker;
+        dataPoint.date = dateSlot._date;
+        dataPoint.adj_open = adjustedOpen;
+        dataPoint.adj_high = adjustedHigh;
+        dataPoint.adj_low = adjustedLow;
+        dataPoint.adj_close = adjustedClose;
+        dataPoint.adj_volume = adjustedVolume;
+        dateSlot._dataPoints.add(dataPoint);
+        if (++_addedDataPoints % PROGRESS_INTERVAL == 0) {
+            _loadProgress = _addedDataPoints;
+        }
+    }
 
-        log.info("Lines parsed: [" + parsedLines + "] (dropped lines: [" + droppedLines + "]), time taken: [" + ((System.nanoTime() - startNanos) / 1_000_000) + " ms].");
+    private DateSlot dateSlot(int epochDay) {
+        int index = epochDay - _firstDateSlotEpochDay;
+        if ((index < 0) || (index >= _dateSlots.length)) {
+            growDateSlots(epochDay);
+            index = epochDay - _firstDateSlotEpochDay;
+        }
+        DateSlot dateSlot = _dateSlots[index];
+        if (dateSlot == null) {
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            dateSlot = new DateSlot(date, _dateListMap.computeIfAbsent(date,
+                    d -> new ArrayList<>(DATE_LIST_CAPACITY)));
+            _dateSlots[index] = dateSlot;
+        }
+        return dateSlot;
+    }
 
-        disruptor.shutdown();
-        log.info("Disruptor shut down, total time taken: [" + ((System.nanoTime() - startNanos) / 1_000_000) + " ms].");
+    /**
+     * Grows {@link #_dateSlots} to include <code>epochDay</code>, with a margin of at least a year - and at least half
+     * the current length, so that a long span of dates costs few copies.
+     */
+    private void growDateSlots(int epochDay) {
+        int margin = Math.max(366, _dateSlots.length / 2);
+        if (_dateSlots.length == 0) {
+            _dateSlots = new DateSlot[2 * margin];
+            _firstDateSlotEpochDay = epochDay - margin;
+            return;
+        }
+        int end = _firstDateSlotEpochDay + _dateSlots.length;
+        int newFirst = epochDay < _firstDateSlotEpochDay ? epochDay - margin : _firstDateSlotEpochDay;
+        int newEnd = epochDay >= end ? epochDay + margin : end;
+        DateSlot[] dateSlots = new DateSlot[newEnd - newFirst];
+        System.arraycopy(_dateSlots, 0, dateSlots, _firstDateSlotEpochDay - newFirst, _dateSlots.length);
+        _dateSlots = dateSlots;
+        _firstDateSlotEpochDay = newFirst;
+    }
 
-        log.info("Tickers: " + _tickerMap.size() + ": " + _tickerMap.keySet());
+    /**
+     * Removes all DataPoints, e.g. after a partially failed load.
+     */
+    void clear() {
+        _tickerMap.clear();
+        _dateListMap.clear();
+        _dateSlots = new DateSlot[0];
+        _addedDataPoints = 0;
+        _loadProgress = 0;
+    }
 
-        int dataPointCountFromTickers = 0;
+    /**
+     * Builds the per-ticker date indexes - must be invoked after the DataPoints are added.
+     */
+    void buildIndexes() {
+        long indexNanos = System.nanoTime();
         for (Ticker ticker : _tickerMap.values()) {
-            dataPointCountFromTickers += ticker._dataPoints.size();
+            ticker.buildIndex();
         }
-        log.info("Total DataPoints from Tickers: " + dataPointCountFromTickers);
+        log.info("Built date indexes, took [" + ((System.nanoTime() - indexNanos) / 1_000_000) + " ms].");
+    }
 
-        int dataPointCountFromDates = 0;
-        for (List<DataPoint> listForDate : _dateListMap.values()) {
-            dataPointCountFromDates += listForDate.size();
+    /**
+     * @return the name of the WIKI_PRICES zip file in the quandl_wiki classpath directory.
+     */
+    static String getWikiZipFileName() throws IOException {
+        List<String> files = getResourceFiles(QUANDL_WIKI_ZIP_DIRECTORY);
+        if (files.size() != 1) {
+            throw new IllegalStateException("Unexpected files in the quandl_wiki classpath directory" +
+                    " (should be 1): " + files);
         }
-        log.info("Total DataPoints from Dates: " + dataPointCountFromDates);
+        return files.get(0);
     }
 
     /**
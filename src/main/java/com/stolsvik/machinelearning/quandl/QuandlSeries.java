@@ -0,0 +1,245 @@
+package com.stolsvik.machinelearning.quandl;
+
+import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint;
+import com.stolsvik.machinelearning.quandl.QuandlReader.Ticker;
+import com.stolsvik.machinelearning.tools.MemoryReport;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * One value per DataPoint of a set of tickers - e.g. the adjusted close - held as a primitive <code>double[]</code>
+ * (and <code>int[]</code> of epoch days) per ticker, with kernels that run over those arrays without boxing: map,
+ * filter, reduce (in total or per ticker) and rolling-window apply. Immutable: each kernel returns a new series.
+ * <p>
+ * The functions are the JDK's primitive specializations ({@link DoubleUnaryOperator} etc.), plus
+ * {@link WindowFunction} - Java lambdas, or from Groovy, anonymous classes in {@literal @}CompileStatic code, which
+ * compile to real primitive methods (Groovy Closures coerced to these interfaces work too, but box every value - see
+ * <code>SeriesOps.groovy</code> for ready-made kernels).
+ * <p>
+ * After {@link #parallel()}, the kernels run the tickers in parallel on the common fork-join pool. The tickers are
+ * independent, and there are thousands of them, so that splits well.
+ */
+public class QuandlSeries {
+
+    /**
+     * A function of the values <code>[from, to)</code> of a ticker, e.g. their mean.
+     */
+    @FunctionalInterface
+    public interface WindowFunction {
+        double apply(double[] values, int from, int to);
+    }
+
+    private final String[] _tickerNames;
+    private final int[][] _epochDays;
+    private final double[][] _values;
+    private final boolean _parallel;
+
+    private QuandlSeries(String[] tickerNames, int[][] epochDays, double[][] values, boolean parallel) {
+        _tickerNames = tickerNames;
+        _epochDays = epochDays;
+        _values = values;
+        _parallel = parallel;
+    }
+
+    /**
+     * @param extractor e.g. <code>DataPoint::getAdjustedClose</code>.
+     */
+    public static QuandlSeries of(Map<String, Ticker> tickerMap, ToDoubleFunction<DataPoint> extractor) {
+        String[] tickerNames = tickerMap.keySet().toArray(new String[0]);
+        int[][] epochDays = new int[tickerNames.length][];
+        double[][] values = new double[tickerNames.length][];
+        for (int t = 0; t < tickerNames.length; t++) {
+            List<DataPoint> dataPoints = tickerMap.get(tickerNames[t]).getDataPoints();
+            epochDays[t] = new int[dataPoints.size()];
+            values[t] = new double[dataPoints.size()];
+            for (int i = 0; i < dataPoints.size(); i++) {
+                DataPoint dataPoint = dataPoints.get(i);
+                epochDays[t][i] = (int) dataPoint.getDate().toEpochDay();
+                values[t][i] = extractor.applyAsDouble(dataPoint);
+            }
+        }
+        return new QuandlSeries(tickerNames, epochDays, values, false);
+    }
+
+    /**
+     * @return this series, but with the kernels running the tickers in parallel.
+     */
+    public QuandlSeries parallel() {
+        return _parallel ? this : new QuandlSeries(_tickerNames, _epochDays, _values, true);
+    }
+
+    public QuandlSeries sequential() {
+        return _parallel ? new QuandlSeries(_tickerNames, _epochDays, _values, false) : this;
+    }
+
+    public int getTickerCount() {
+        return _tickerNames.length;
+    }
+
+    public String[] getTickerNames() {
+        return _tickerNames.clone();
+    }
+
+    /**
+     * @return the index of the ticker, for {@link #getValues(int)} etc, or -1 if not in this series.
+     */
+    public int indexOf(String tickerName) {
+        return Arrays.asList(_tickerNames).indexOf(tickerName);
+    }
+
+    /**
+     * @return the values of the ticker at the index - the array itself, which must not be changed.
+     */
+    public double[] getValues(int tickerIndex) {
+        return _values[tickerIndex];
+    }
+
+    /**
+     * @return the epoch days of the ticker's values - the array itself, which must not be changed.
+     */
+    public int[] getEpochDays(int tickerIndex) {
+        return _epochDays[tickerIndex];
+    }
+
+    /**
+     * @return the total number of values, over all tickers.
+     */
+    public long size() {
+        long size = 0;
+        for (double[] values : _values) {
+            size += values.length;
+        }
+        return size;
+    }
+
+    /**
+     * @return an estimate of the heap retained by this series' arrays - e.g. to compare with the DataPoints of
+     *         {@link QuandlReader#estimateMemory()}. The epoch days and ticker names are shared with the series this was
+     *         made from by {@link #map(DoubleUnaryOperator)}, so don't add up those reports.
+     */
+    public MemoryReport estimateMemory() {
+        long valueBytes = 0;
+        long epochDayBytes = 0;
+        long tickerNameBytes = MemoryReport.referenceArrayBytes(_tickerNames.length);
+        for (int t = 0; t < _values.length; t++) {
+            valueBytes += MemoryReport.arrayBytes(8, _values[t].length);
+            epochDayBytes += MemoryReport.arrayBytes(4, _epochDays[t].length);
+            tickerNameBytes += MemoryReport.stringBytes(_tickerNames[t].length());
+        }
+        return new MemoryReport("series")
+                .add("values double[]s", _values.length, valueBytes + MemoryReport.referenceArrayBytes(_values.length))
+                .add("epoch-day int[]s", _epochDays.length,
+                        epochDayBytes + MemoryReport.referenceArrayBytes(_epochDays.length))
+                .add("ticker names", _tickerNames.length, tickerNameBytes);
+    }
+
+    public QuandlSeries map(DoubleUnaryOperator operator) {
+        double[][] result = new double[_values.length][];
+        forEachTicker(t -> {
+            double[] values = _values[t];
+            double[] mapped = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                mapped[i] = operator.applyAsDouble(values[i]);
+            }
+            result[t] = mapped;
+        });
+        return new QuandlSeries(_tickerNames, _epochDays, result, _parallel);
+    }
+
+    /**
+     * @return the values that pass the predicate, with their dates. Tickers left without values are kept, empty.
+     */
+    public QuandlSeries filter(DoublePredicate predicate) {
+        int[][] epochDays = new int[_values.length][];
+        double[][] result = new double[_values.length][];
+        forEachTicker(t -> {
+            double[] values = _values[t];
+            int[] days = new int[values.length];
+            double[] kept = new double[values.length];
+            int n = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (predicate.test(values[i])) {
+                    days[n] = _epochDays[t][i];
+                    kept[n++] = values[i];
+                }
+            }
+            epochDays[t] = Arrays.copyOf(days, n);
+            result[t] = Arrays.copyOf(kept, n);
+        });
+        return new QuandlSeries(_tickerNames, epochDays, result, _parallel);
+    }
+
+    /**
+     * Applies the function to each window of <code>window</code> consecutive values of each ticker. The result has
+     * one value per window, dated at the window's last day - i.e. <code>window - 1</code> fewer values per ticker.
+     */
+    public QuandlSeries rolling(int window, WindowFunction function) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1, was [" + window + "].");
+        }
+        int[][] epochDays = new int[_values.length][];
+        double[][] result = new double[_values.length][];
+        forEachTicker(t -> {
+            double[] values = _values[t];
+            int count = Math.max(0, values.length - window + 1);
+            double[] rolled = new double[count];
+            for (int i = 0; i < count; i++) {
+                rolled[i] = function.apply(values, i, i + window);
+            }
+            epochDays[t] = Arrays.copyOfRange(_epochDays[t], Math.min(window - 1, values.length), values.length);
+            result[t] = rolled;
+        });
+        return new QuandlSeries(_tickerNames, epochDays, result, _parallel);
+    }
+
+    /**
+     * @return the values of each ticker reduced to one, in the order of {@link #getTickerNames()}.
+     */
+    public double[] reduceByTicker(double identity, DoubleBinaryOperator operator) {
+        double[] result = new double[_values.length];
+        forEachTicker(t -> {
+            double accumulated = identity;
+            for (double value : _values[t]) {
+                accumulated = operator.applyAsDouble(accumulated, value);
+            }
+            result[t] = accumulated;
+        });
+        return result;
+    }
+
+    /**
+     * Reduces all values to one: per ticker first, then the tickers' results - so the operator must be associative,
+     * and <code>identity</code> its identity (e.g. 0 for sum, <code>Double.NEGATIVE_INFINITY</code> for max).
+     */
+    public double reduce(double identity, DoubleBinaryOperator operator) {
+        double accumulated = identity;
+        for (double tickerResult : reduceByTicker(identity, operator)) {
+            accumulated = operator.applyAsDouble(accumulated, tickerResult);
+        }
+        return accumulated;
+    }
+
+    public double sum() {
+        return reduce(0, Double::sum);
+    }
+
+    /**
+     * @return the mean of all values, NaN if there are none.
+     */
+    public double mean() {
+        return sum() / size();
+    }
+
+    private void forEachTicker(IntConsumer consumer) {
+        IntStream range = IntStream.range(0, _values.length);
+        (_parallel ? range.parallel() : range).forEach(consumer);
+    }
+}
@@ -0,0 +1,161 @@
+package com.stolsvik.machinelearning.quandl
+
+import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint
+import com.stolsvik.machinelearning.quandl.QuandlReader.Ticker
+import com.stolsvik.machinelearning.quandl.QuandlSeries.WindowFunction
+import groovy.transform.CompileStatic
+
+import java.util.function.DoubleBinaryOperator
+import java.util.function.ToDoubleFunction
+
+/**
+ * {@literal @}CompileStatic entry points to {@link QuandlSeries} for exploratory scripts, e.g. together with the
+ * ExploratoryGroovyLooper: the series of a DataPoint field by name, and the common kernels - returns, rolling mean,
+ * standard deviation, min and max - written as anonymous classes, so that they compile to primitive code instead of
+ * Closures that box every value.
+ * <h2>Example</h2>
+ * <pre>
+ * QuandlSeries volatility = SeriesOps.rollingStd(SeriesOps.logReturns(SeriesOps.series(tickerMap, 'close')), 20)
+ * double[] meanVolatilityPerTicker = SeriesOps.meanByTicker(volatility.parallel())
+ * </pre>
+ * Own kernels go in {@literal @}CompileStatic methods in the script, as anonymous classes of the function
+ * interfaces the same way - or as Closures, if the boxing doesn't matter.
+ */
+@CompileStatic
+class SeriesOps {
+
+    /**
+     * @param field one of 'open', 'high', 'low', 'close' and 'volume' - the adjusted values.
+     */
+    static QuandlSeries series(Map<String, Ticker> tickerMap, String field) {
+        ToDoubleFunction<DataPoint> extractor
+        switch (field) {
+            case 'open': extractor = new ToDoubleFunction<DataPoint>() {
+                double applyAsDouble(DataPoint dataPoint) { dataPoint.adjustedOpen }
+            }; break
+            case 'high': extractor = new ToDoubleFunction<DataPoint>() {
+                double applyAsDouble(DataPoint dataPoint) { dataPoint.adjustedHigh }
+            }; break
+            case 'low': extractor = new ToDoubleFunction<DataPoint>() {
+                double applyAsDouble(DataPoint dataPoint) { dataPoint.adjustedLow }
+            }; break
+            case 'close': extractor = new ToDoubleFunction<DataPoint>() {
+                double applyAsDouble(DataPoint dataPoint) { dataPoint.adjustedClose }
+            }; break
+            case 'volume': extractor = new ToDoubleFunction<DataPoint>() {
+                double applyAsDouble(DataPoint dataPoint) { dataPoint.adjustedVolume }
+            }; break
+            default:
+                throw new IllegalArgumentException("Unknown field [" + field + "], must be one of open, high, low,"
+                        + " close or volume.")
+        }
+        return QuandlSeries.of(tickerMap, extractor)
+    }
+
+    /**
+     * @return the log return from each day to the next, dated at the latter - 0 where a price is 0 or missing.
+     */
+    static QuandlSeries logReturns(QuandlSeries prices) {
+        return prices.rolling(2, new WindowFunction() {
+            double apply(double[] values, int from, int to) {
+                double logReturn = Math.log(values[from + 1] / values[from])
+                return Double.isNaN(logReturn) || Double.isInfinite(logReturn) ? 0d : logReturn
+            }
+        })
+    }
+
+    static QuandlSeries rollingMean(QuandlSeries series, int window) {
+        return series.rolling(window, new WindowFunction() {
+            double apply(double[] values, int from, int to) {
+                double sum = 0
+                for (int i = from; i < to; i++) {
+                    sum += values[i]
+                }
+                return sum / (to - from)
+            }
+        })
+    }
+
+    /**
+     * @return the sample standard deviation of each window (0 for windows of 1).
+     */
+    static QuandlSeries rollingStd(QuandlSeries series, int window) {
+        return series.rolling(window, new WindowFunction() {
+            double apply(double[] values, int from, int to) {
+                int n = to - from
+                if (n < 2) {
+                    return 0d
+                }
+                double sum = 0
+                for (int i = from; i < to; i++) {
+                    sum += values[i]
+                }
+                double mean = sum / n
+                double squares = 0
+                for (int i = from; i < to; i++) {
+                    double deviation = values[i] - mean
+                    squares += deviation * deviation
+                }
+                return Math.sqrt(squares / (n - 1))
+            }
+        })
+    }
+
+    static QuandlSeries rollingMax(QuandlSeries series, int window) {
+        return series.rolling(window, new WindowFunction() {
+            double apply(double[] values, int from, int to) {
+                double max = Double.NEGATIVE_INFINITY
+                for (int i = from; i < to; i++) {
+                    max = Math.max(max, values[i])
+                }
+                return max
+            }
+        })
+    }
+
+    static QuandlSeries rollingMin(QuandlSeries series, int window) {
+        return series.rolling(window, new WindowFunction() {
+            double apply(double[] values, int from, int to) {
+                double min = Double.POSITIVE_INFINITY
+                for (int i = from; i < to; i++) {
+                    min = Math.min(min, values[i])
+                }
+                return min
+            }
+        })
+    }
+
+    /**
+     * @return the mean of each ticker's values, in the order of {@link QuandlSeries#getTickerNames()} - NaN for
+     *         tickers without values.
+     */
+    static double[] meanByTicker(QuandlSeries series) {
+        double[] sums = series.reduceByTicker(0d, new DoubleBinaryOperator() {
+            double applyAsDouble(double left, double right) { left + right }
+        })
+        for (int t = 0; t < sums.length; t++) {
+            sums[t] = sums[t] / series.getValues(t).length
+        }
+        return sums
+    }
+
+    /**
+     * @return the tickers with the <code>count</code> highest of the given per-ticker values, highest first - e.g. of
+     *         {@link #meanByTicker(QuandlSeries)}. NaNs are skipped.
+     */
+    static List<String> topTickers(QuandlSeries series, double[] perTickerValues, int count) {
+        String[] names = series.tickerNames
+        List<Integer> indexes = new ArrayList<>()
+        for (int t = 0; t < perTickerValues.length; t++) {
+            if (!Double.isNaN(perTickerValues[t])) {
+                indexes.add(t)
+            }
+        }
+        indexes.sort { Integer a, Integer b -> Double.compare(perTickerValues[b], perTickerValues[a]) }
+        List<String> result = new ArrayList<>()
+        for (int i = 0; i < Math.min(count, indexes.size()); i++) {
+            result.add(names[indexes.get(i)])
+        }
+        return result
+    }
+}
@@ -1,10 +1,13 @@
 package com.stolsvik.machinelearning.quandl
 
-import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint
 import com.stolsvik.machinelearning.quandl.QuandlReader.Ticker
+import com.stolsvik.machinelearning.tools.ExploratoryGroovyLooper
+import com.stolsvik.machinelearning.tools.SetupCheckpoint
 import groovy.transform.CompileStatic
 
-com.stolsvik.machinelearning.tools.ExploratoryGroovyLooper.loop this, {
+// The checkpoint makes restarts cheap: it is keyed on the WIKI_PRICES zip, so a new zip runs the setup again.
+ExploratoryGroovyLooper.loop(this, new SetupCheckpoint(new File("quandl_setup.checkpoint"),
+        QuandlReader.wikiZipFileName).withCodec(new QuandlBinaryCache.Codec())) {
     QuandlReader reader = new QuandlReader()
     reader.parseQuandlZipFile()
     _tickerMap = reader.tickerMap
@@ -16,14 +19,10 @@ runStatic(_tickerMap)
 @CompileStatic
 void runStatic(Map<String, Ticker> tickerMap) {
     println "TickerMap.keys ${tickerMap.keySet()}"
-    Ticker first = tickerMap.values().first()
-    List<DataPoint> points = first.dataPoints
 
-    tickerMap.values().forEach { ticker ->
-        double[] adjustedCloses = new double[points.size()]
-        for (int i = 0; i < points.size(); i++) {
-            adjustedCloses[i] = points[i].adjustedClose
-        }
-    }
-
-}
\ No newline at end of file
+    // 20-day volatility of the daily log returns, as primitive kernels - over the tickers in parallel.
+    QuandlSeries closes = SeriesOps.series(tickerMap, 'close').parallel()
+    QuandlSeries volatility = SeriesOps.rollingStd(SeriesOps.logReturns(closes), 20)
+    double[] meanVolatility = SeriesOps.meanByTicker(volatility)
+    println "Most volatile tickers: ${SeriesOps.topTickers(volatility, meanVolatility, 10)}"
+}
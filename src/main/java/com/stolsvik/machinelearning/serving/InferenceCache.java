@@ -0,0 +1,195 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional size-bounded LRU cache of {@link Prediction}s in front of model inference, for traffic that repeats
+ * identical inputs (e.g. re-scoring the same ticker/date feature rows). Enabled by
+ * <code>machinelearning.serving.cache.enabled=true</code>, bounded by
+ * <code>machinelearning.serving.cache.max-entries</code>.
+ * <p>
+ * Entries are keyed by model name, model version and a fast 64-bit hash of the feature vector; the feature vector is
+ * kept in the key and compared on lookup, so hash collisions can't return a wrong prediction. Since the version is
+ * part of the key, a swapped model never gets the old model's predictions. On {@link ModelSwappedEvent} the new
+ * current version of the model is noted: puts for older versions (inferences that completed after the swap) are
+ * dropped, and the old version's entries - which are never hit again, and so sink to the LRU end - are dropped lazily,
+ * a few per put, instead of by an O(n) scan under the lock that lookups take. Hit, miss and eviction counts go to the
+ * actuator's <code>/metrics</code> as "inference.cache.*".
+ */
+@Component
+public class InferenceCache implements PublicMetrics {
+
+    private final boolean _enabled;
+    private final LinkedHashMap<CacheKey, Prediction> _lru;
+    // Current version of each swapped model, by name - Long.MAX_VALUE if retired. Entries for older versions are stale.
+    private final ConcurrentMap<String, Long> _currentVersions = new ConcurrentHashMap<>();
+
+    // Max stale entries dropped from the LRU end per put.
+    private static final int STALE_DROPS_PER_PUT = 4;
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _invalidations = new AtomicLong();
+
+    public InferenceCache(@Value("${machinelearning.serving.cache.enabled:false}") boolean enabled,
+            @Value("${machinelearning.serving.cache.max-entries:10000}") int maxEntries) {
+        _enabled = enabled;
+        _lru = new LinkedHashMap<CacheKey, Prediction>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Prediction> eldest) {
+                if (size() > maxEntries) {
+                    _evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * @return the cached prediction, or <code>null</code> if there is none (or the cache is disabled).
+     */
+    public Prediction get(ModelVersion modelVersion, double[] features) {
+        if (!_enabled) {
+            return null;
+        }
+        CacheKey key = new CacheKey(modelVersion.getName(), modelVersion.getVersion(), features);
+        Prediction prediction;
+        synchronized (_lru) {
+            prediction = _lru.get(key);
+        }
+        (prediction != null ? _hits : _misses).incrementAndGet();
+        return prediction;
+    }
+
+    public void put(double[] features, Prediction prediction) {
+        if (!_enabled) {
+            return;
+        }
+        ModelVersion modelVersion = prediction.getModelVersion();
+        // Copy the features, so that the caller can't change the key behind our back.
+        CacheKey key = new CacheKey(modelVersion.getName(), modelVersion.getVersion(), features.clone());
+        synchronized (_lru) {
+            dropStaleEldest();
+            if (isStale(key)) {
+                _invalidations.incrementAndGet();
+                return;
+            }
+            _lru.put(key, prediction);
+        }
+    }
+
+    private boolean isStale(CacheKey key) {
+        Long currentVersion = _currentVersions.get(key._modelName);
+        return (currentVersion != null) && (key._version < currentVersion);
+    }
+
+    /**
+     * Must be invoked holding the lock on _lru.
+     */
+    private void dropStaleEldest() {
+        Iterator<CacheKey> it = _lru.keySet().iterator();
+        for (int i = 0; (i < STALE_DROPS_PER_PUT) && it.hasNext(); i++) {
+            if (!isStale(it.next())) {
+                return;
+            }
+            it.remove();
+            _invalidations.incrementAndGet();
+        }
+    }
+
+    @EventListener
+    public void onModelSwapped(ModelSwappedEvent event) {
+        if (!_enabled) {
+            return;
+        }
+        long currentVersion = event.getCurrent() != null ? event.getCurrent().getVersion() : Long.MAX_VALUE;
+        _currentVersions.put(event.getModelName(), currentVersion);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        if (!_enabled) {
+            return metrics;
+        }
+        long hits = _hits.get();
+        long misses = _misses.get();
+        int size;
+        synchronized (_lru) {
+            size = _lru.size();
+        }
+        metrics.add(new Metric<>("inference.cache.size", size));
+        metrics.add(new Metric<>("inference.cache.hits", hits));
+        metrics.add(new Metric<>("inference.cache.misses", misses));
+        metrics.add(new Metric<>("inference.cache.hitRate", (hits + misses) == 0 ? 0d : hits / (double) (hits + misses)));
+        metrics.add(new Metric<>("inference.cache.evictions", _evictions.get()));
+        metrics.add(new Metric<>("inference.cache.invalidations", _invalidations.get()));
+        return metrics;
+    }
+
+    /**
+     * @return a fast, well-mixed 64-bit hash of the exact bit patterns of the values.
+     */
+    static long hash(double[] values) {
+        long h = 0x9E3779B97F4A7C15L ^ values.length;
+        for (double value : values) {
+            h = (h ^ Double.doubleToLongBits(value)) * 0xC2B2AE3D27D4EB4FL;
+            h ^= h >>> 29;
+        }
+        // Final avalanche (from MurmurHash3's fmix64)
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class CacheKey {
+        private final String _modelName;
+        private final long _version;
+        private final long _hash;
+        private final double[] _features;
+
+        private CacheKey(String modelName, long version, double[] features) {
+            _modelName = modelName;
+            _version = version;
+            _hash = hash(features);
+            _features = features;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (_hash ^ (_hash >>> 32)) ^ (int) _version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return (_hash == other._hash) && (_version == other._version) && _modelName.equals(other._modelName)
+                    && Arrays.equals(_features, other._features);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Model file format made for fast loading of inference models: the configuration JSON, followed by the flattened
+ * parameters as one raw, page-aligned blob in native byte order. Loading maps the blob and wraps the mapping directly
+ * as the network's parameter array - no unzipping, no copy through the heap - so load time is dominated by parsing the
+ * configuration, and the parameter pages are read lazily by the OS (and shared between processes mapping the same
+ * file).
+ * <p>
+ * The mapping is private (copy-on-write), so the loaded network can even be trained further without changing the file.
+ * The updater state is not stored, so this is for inference and fine-tuning, not for resuming training - use
+ * {@link ModelSerializer} for that.
+ * <p>
+ * If the file was written with another data type or byte order than the loading JVM uses, the parameters are copied
+ * and converted instead.
+ * <p>
+ * Layout: magic (int), format version (int), data type ordinal (int), byte order (int, 0 = big, 1 = little), JSON
+ * length (int), parameter count (long), blob offset (long), the UTF-8 JSON - then, at the blob offset, the
+ * parameters. All header numbers are big-endian.
+ */
+public class MappedModelSerializer {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedModelSerializer.class);
+
+    public static final String FILE_EXTENSION = ".mapped";
+
+    private static final int MAGIC = 0x4d4c4e4d; // "MLNM"
+    private static final int FORMAT_VERSION = 1;
+    private static final int BLOB_ALIGNMENT = 4096;
+
+    /**
+     * The parameter arrays don't reliably keep their mapping reachable, so each network holds its mapping here until
+     * the network itself is collected.
+     */
+    private static final Map<MultiLayerNetwork, MappedByteBuffer> __mappings = Collections.synchronizedMap(
+            new WeakHashMap<>());
+
+    private MappedModelSerializer() {
+        /* utility class */
+    }
+
+    /**
+     * @return whether the network's parameters are the memory mapping of a file read by {@link #read(File)} - and
+     *         thus not memory allocated by ND4J.
+     */
+    public static boolean isMapped(MultiLayerNetwork network) {
+        return __mappings.containsKey(network);
+    }
+
+    /**
+     * Writes the network's configuration and parameters. Written to a temporary file and then atomically renamed, so
+     * that e.g. the {@link ModelRegistry} scanner never sees a partial file.
+     */
+    public static void write(MultiLayerNetwork network, File file) throws IOException {
+        long nanosStart = System.nanoTime();
+        byte[] json = network.getLayerWiseConfigurations().toJson().getBytes(StandardCharsets.UTF_8);
+        INDArray params = network.params();
+        DataBuffer.Type dataType = params.data().dataType();
+        if ((dataType != DataBuffer.Type.FLOAT) && (dataType != DataBuffer.Type.DOUBLE)) {
+            throw new IllegalArgumentException("Unsupported parameter data type [" + dataType + "].");
+        }
+        long paramCount = params.length();
+        int headerLength = 4 + 4 + 4 + 4 + 4 + 8 + 8 + json.length;
+        long blobOffset = ((headerLength + BLOB_ALIGNMENT - 1) / BLOB_ALIGNMENT) * BLOB_ALIGNMENT;
+
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(dataType.ordinal())
+                .putInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0).putInt(json.length)
+                .putLong(paramCount).putLong(blobOffset).put(json);
+        header.flip();
+
+        int elementSize = dataType == DataBuffer.Type.DOUBLE ? 8 : 4;
+        ByteBuffer blob = ByteBuffer.allocate((int) (paramCount * elementSize)).order(ByteOrder.nativeOrder());
+        if (dataType == DataBuffer.Type.DOUBLE) {
+            blob.asDoubleBuffer().put(params.dup('c').data().asDouble());
+        }
+        else {
+            blob.asFloatBuffer().put(params.dup('c').data().asFloat());
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header, 0);
+            writeFully(channel, blob, blobOffset);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        log.info("Wrote mapped model [" + file + "] with [" + paramCount + "] parameters, took ["
+                + ((System.nanoTime() - nanosStart) / 1_000_000) + " ms].");
+    }
+
+    public static MultiLayerNetwork read(File file) throws IOException {
+        long nanosStart = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer fixed = ByteBuffer.allocate(4 + 4 + 4 + 4 + 4 + 8 + 8);
+            readFully(channel, fixed, 0);
+            fixed.flip();
+            if (fixed.getInt() != MAGIC) {
+                throw new IOException("File [" + file + "] is not a mapped model file.");
+            }
+            int formatVersion = fixed.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported mapped model format version [" + formatVersion + "] in [" + file
+                        + "].");
+            }
+            DataBuffer.Type dataType = DataBuffer.Type.values()[fixed.getInt()];
+            ByteOrder byteOrder = fixed.getInt() == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            int jsonLength = fixed.getInt();
+            long paramCount = fixed.getLong();
+            long blobOffset = fixed.getLong();
+            ByteBuffer json = ByteBuffer.allocate(jsonLength);
+            readFully(channel, json, fixed.capacity());
+
+            MultiLayerNetwork network = new MultiLayerNetwork(MultiLayerConfiguration.fromJson(
+                    new String(json.array(), StandardCharsets.UTF_8)));
+            int elementSize = dataType == DataBuffer.Type.DOUBLE ? 8 : 4;
+            MappedByteBuffer mapping = channel.map(MapMode.PRIVATE, blobOffset, paramCount * elementSize);
+            mapping.order(byteOrder);
+
+            INDArray params;
+            boolean zeroCopy = (dataType == Nd4j.dataType()) && (byteOrder == ByteOrder.nativeOrder());
+            if (zeroCopy) {
+                params = Nd4j.create(Nd4j.createBuffer(mapping, dataType, (int) paramCount),
+                        new int[] { 1, (int) paramCount });
+                __mappings.put(network, mapping);
+            }
+            else {
+                log.warn("Mapped model [" + file + "] has data type [" + dataType + "] and byte order [" + byteOrder
+                        + "], while ND4J uses [" + Nd4j.dataType() + "] and [" + ByteOrder.nativeOrder()
+                        + "] - copying the parameters.");
+                double[] values = new double[(int) paramCount];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = dataType == DataBuffer.Type.DOUBLE ? mapping.getDouble(i * 8) : mapping.getFloat(i * 4);
+                }
+                params = Nd4j.create(values, new int[] { 1, values.length });
+            }
+            network.init(params, false);
+            log.info("Read mapped model [" + file + "] with [" + paramCount + "] parameters" + (zeroCopy
+                    ? " (zero-copy)" : "") + ", took [" + ((System.nanoTime() - nanosStart) / 1_000_000) + " ms].");
+            return network;
+        }
+    }
+
+    /**
+     * Converts a {@link ModelSerializer} zip to this format, next to it, and compares the load times of the two.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: MappedModelSerializer <model.zip>");
+        }
+        File zipFile = new File(args[0]);
+        File mappedFile = new File(zipFile.getPath().replaceFirst("\\.zip$", "") + FILE_EXTENSION);
+        long nanosStart = System.nanoTime();
+        MultiLayerNetwork network = ModelSerializer.restoreMultiLayerNetwork(zipFile, false);
+        long zipMillis = (System.nanoTime() - nanosStart) / 1_000_000;
+        write(network, mappedFile);
+        // Load a few times, as the first includes JIT and class loading.
+        long mappedNanos = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            nanosStart = System.nanoTime();
+            read(mappedFile);
+            mappedNanos = Math.min(mappedNanos, System.nanoTime() - nanosStart);
+        }
+        log.info("Load times: zip [" + zipMillis + " ms], mapped (best of 5) [" + (mappedNanos / 1_000_000d)
+                + " ms].");
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of mapped model file.");
+            }
+            position += read;
+        }
+    }
+}
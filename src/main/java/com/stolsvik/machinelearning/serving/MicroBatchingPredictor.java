@@ -0,0 +1,212 @@
+package com.stolsvik.machinelearning.serving;
+
+import com.stolsvik.machinelearning.tools.RollingHistogram;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent single-sample prediction requests into micro-batches, so that one
+ * {@link MultiLayerNetwork#output(INDArray, boolean)} call serves many requests. A single batcher thread takes the
+ * first waiting request, then keeps collecting until either <code>maxBatchSize</code> requests are gathered or
+ * <code>maxWaitMillis</code> has passed since the first request arrived, and then runs the batch.
+ * <p>
+ * The model is fetched from the supplier at the start of every batch, so a model swapped in the {@link ModelRegistry}
+ * is picked up by the next batch, while the running batch completes on the version it started with. Each
+ * {@link Prediction} tells which version produced it. Since only the batcher thread runs the network, the (not thread
+ * safe) network needs no further guarding - other than that the supplier must not hand out a network that is also
+ * used elsewhere.
+ * <p>
+ * A request whose feature count doesn't match the model is rejected on submission - or, if the model is swapped to a
+ * version with another input count while it waits, failed alone when its batch runs; the rest of the batch is run.
+ * After {@link #shutdown()}, submissions are rejected, and requests still waiting are failed.
+ * <p>
+ * Per-request latency (from submission to completion) and batch sizes are recorded in {@link RollingHistogram}s.
+ */
+public class MicroBatchingPredictor {
+
+    private static final Logger log = LoggerFactory.getLogger(MicroBatchingPredictor.class);
+
+    private final String _modelName;
+    private final Supplier<ModelVersion> _modelSupplier;
+    private final int _maxBatchSize;
+    private final long _maxWaitNanos;
+
+    private final LinkedBlockingQueue<PendingRequest> _queue = new LinkedBlockingQueue<>();
+    private final Thread _batcherThread;
+    // Guards the check of _running and the enqueue in predict() against shutdown(), so that nothing is enqueued after
+    // the batcher thread's final drain.
+    private final Object _lifecycleLock = new Object();
+    private volatile boolean _running = true;
+
+    private final RollingHistogram _latencyMillis = new RollingHistogram(10_000);
+    private final RollingHistogram _batchSizes = new RollingHistogram(10_000);
+
+    /**
+     * @param modelSupplier provides the current version of the model, or <code>null</code> if it is not available.
+     */
+    public MicroBatchingPredictor(String modelName, Supplier<ModelVersion> modelSupplier, int maxBatchSize,
+            long maxWaitMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1, was [" + maxBatchSize + "].");
+        }
+        _modelName = modelName;
+        _modelSupplier = modelSupplier;
+        _maxBatchSize = maxBatchSize;
+        _maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        _batcherThread = new Thread(this::batchLoop, "MicroBatchingPredictor batcher [" + modelName + "]");
+        _batcherThread.setDaemon(true);
+        _batcherThread.start();
+    }
+
+    private static class PendingRequest {
+        private final double[] _features;
+        private final long _submittedNanos = System.nanoTime();
+        private final CompletableFuture<Prediction> _future = new CompletableFuture<>();
+
+        private PendingRequest(double[] features) {
+            _features = features;
+        }
+    }
+
+    /**
+     * @return a future which is completed with the network's output for the given features, when the micro-batch
+     * it ends up in has been run.
+     */
+    public CompletableFuture<Prediction> predict(double[] features) {
+        ModelVersion modelVersion = _modelSupplier.get();
+        if (modelVersion == null) {
+            throw new ModelNotAvailableException("Model [" + _modelName + "] is not available.");
+        }
+        if (features.length != modelVersion.getNumInputs()) {
+            throw new IllegalArgumentException("Expected [" + modelVersion.getNumInputs() + "] features, got ["
+                    + features.length + "].");
+        }
+        PendingRequest request = new PendingRequest(features);
+        synchronized (_lifecycleLock) {
+            if (!_running) {
+                throw new IllegalStateException("This MicroBatchingPredictor is shut down.");
+            }
+            _queue.add(request);
+        }
+        return request._future;
+    }
+
+    private void batchLoop() {
+        List<PendingRequest> batch = new ArrayList<>(_maxBatchSize);
+        while (_running) {
+            try {
+                PendingRequest first = _queue.take();
+                batch.add(first);
+                long deadline = first._submittedNanos + _maxWaitNanos;
+                while (batch.size() < _maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingRequest next = remaining > 0
+                            ? _queue.poll(remaining, TimeUnit.NANOSECONDS)
+                            : _queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                runBatch(batch);
+            }
+            catch (InterruptedException e) {
+                if (_running) {
+                    log.warn("Batcher thread interrupted while running, exiting.", e);
+                }
+                // Requests already taken into the batch are no longer in the queue, so fail them here.
+                for (PendingRequest request : batch) {
+                    request._future.completeExceptionally(new IllegalStateException(
+                            "MicroBatchingPredictor shut down."));
+                }
+                break;
+            }
+            catch (Throwable t) {
+                log.error("Got problems when running a batch of [" + batch.size() + "] requests.", t);
+                for (PendingRequest request : batch) {
+                    request._future.completeExceptionally(t);
+                }
+            }
+            finally {
+                batch.clear();
+            }
+        }
+        // Fail whatever is left, so that no caller waits forever.
+        PendingRequest leftover;
+        while ((leftover = _queue.poll()) != null) {
+            leftover._future.completeExceptionally(new IllegalStateException("MicroBatchingPredictor shut down."));
+        }
+    }
+
+    private void runBatch(List<PendingRequest> batch) {
+        ModelVersion modelVersion = _modelSupplier.get();
+        if (modelVersion == null) {
+            throw new ModelNotAvailableException("Model [" + _modelName + "] was retired.");
+        }
+        int numInputs = modelVersion.getNumInputs();
+        List<PendingRequest> runnable = new ArrayList<>(batch.size());
+        for (PendingRequest request : batch) {
+            if (request._features.length == numInputs) {
+                runnable.add(request);
+            }
+            else {
+                request._future.completeExceptionally(new IllegalArgumentException("Model [" + _modelName
+                        + "] was swapped to a version with [" + numInputs + "] inputs, while request had ["
+                        + request._features.length + "]."));
+            }
+        }
+        if (runnable.isEmpty()) {
+            return;
+        }
+        int rows = runnable.size();
+        double[] flatFeatures = new double[rows * numInputs];
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(runnable.get(i)._features, 0, flatFeatures, i * numInputs, numInputs);
+        }
+        INDArray output = modelVersion.getNetwork().output(Nd4j.create(flatFeatures, new int[] { rows, numInputs }),
+                false);
+        _batchSizes.record(rows);
+        for (int i = 0; i < rows; i++) {
+            PendingRequest request = runnable.get(i);
+            request._future.complete(new Prediction(output.getRow(i).dup().data().asDouble(), modelVersion));
+            _latencyMillis.record((System.nanoTime() - request._submittedNanos) / 1_000_000d);
+        }
+    }
+
+    /**
+     * @return latency percentiles and batch size distribution, suitable for JSON rendering.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        ModelVersion modelVersion = _modelSupplier.get();
+        stats.put("modelVersion", modelVersion != null ? modelVersion.getVersion() : null);
+        stats.put("maxBatchSize", _maxBatchSize);
+        stats.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(_maxWaitNanos));
+        stats.put("queued", _queue.size());
+        stats.put("latencyMillis", _latencyMillis.snapshot().toMap());
+        RollingHistogram.Snapshot batchSizes = _batchSizes.snapshot();
+        Map<String, Object> batchSizeMap = batchSizes.toMap();
+        batchSizeMap.put("buckets", batchSizes.getBucketCounts(Math.min(_maxBatchSize, 16)));
+        stats.put("batchSize", batchSizeMap);
+        return stats;
+    }
+
+    public void shutdown() {
+        synchronized (_lifecycleLock) {
+            _running = false;
+        }
+        _batcherThread.interrupt();
+    }
+}
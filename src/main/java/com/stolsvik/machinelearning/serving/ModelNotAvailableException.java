@@ -0,0 +1,14 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a prediction is requested but no model is loaded - rendered as 503 Service Unavailable.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ModelNotAvailableException extends RuntimeException {
+    public ModelNotAvailableException(String message) {
+        super(message);
+    }
+}
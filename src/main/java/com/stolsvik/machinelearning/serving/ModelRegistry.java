@@ -0,0 +1,183 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the models found in the directory given by <code>machinelearning.serving.model-directory</code>, keyed by
+ * file name without extension. Models are either {@link ModelSerializer} zips (".zip") or
+ * {@link MappedModelSerializer} files (".mapped"), the latter loading in milliseconds - if both exist for a name, as
+ * when {@link MappedModelSerializer#main(String[])} has converted a zip next to it, the ".mapped" file is used. A
+ * background thread scans the directory every
+ * <code>machinelearning.serving.model-scan-seconds</code>. New or changed model files are loaded and warmed up with
+ * synthetic batches on that thread, and only then published, by replacing the {@link ModelVersion} in the map. So
+ * inference never sees a cold model, and batches already running keep using the version they started with.
+ * <p>
+ * To roll out a model, write it to a temporary name (not ending in ".zip" or ".mapped") in the directory, and then rename it - so
+ * that the scanner never sees a partially written file.
+ * <p>
+ * Each publish, replace and retire is announced as a {@link ModelSwappedEvent}.
+ */
+@Service
+public class ModelRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelRegistry.class);
+
+    @Value("${machinelearning.serving.model-directory:}")
+    private String _modelDirectory;
+
+    @Value("${machinelearning.serving.model-scan-seconds:10}")
+    private int _scanSeconds;
+
+    @Value("${machinelearning.serving.warmup-batches:20}")
+    private int _warmupBatches;
+
+    @Value("${machinelearning.serving.max-batch-size:64}")
+    private int _maxBatchSize;
+
+    private final ApplicationEventPublisher _eventPublisher;
+
+    private final ConcurrentMap<String, ModelVersion> _models = new ConcurrentHashMap<>();
+    private final AtomicLong _versionSequence = new AtomicLong();
+    private ScheduledExecutorService _scanner;
+
+    public ModelRegistry(ApplicationEventPublisher eventPublisher) {
+        _eventPublisher = eventPublisher;
+    }
+
+    @PostConstruct
+    void startScanning() {
+        if (_modelDirectory.isEmpty()) {
+            log.info("No 'machinelearning.serving.model-directory' configured, no models will be loaded.");
+            return;
+        }
+        _scanner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ModelRegistry scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _scanner.scheduleWithFixedDelay(this::scan, 0, _scanSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void stopScanning() {
+        if (_scanner != null) {
+            _scanner.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the currently published version of the named model, or <code>null</code> if there is no such model.
+     */
+    public ModelVersion get(String name) {
+        return _models.get(name);
+    }
+
+    public Collection<ModelVersion> getAll() {
+        return _models.values();
+    }
+
+    void scan() {
+        File[] files = new File(_modelDirectory).listFiles((dir, name) -> name.endsWith(".zip")
+                || name.endsWith(MappedModelSerializer.FILE_EXTENSION));
+        if (files == null) {
+            log.warn("Model directory [" + _modelDirectory + "] is not readable.");
+            return;
+        }
+        Map<String, File> filesByName = modelFilesByName(files);
+        for (Entry<String, File> entry : filesByName.entrySet()) {
+            String name = entry.getKey();
+            File file = entry.getValue();
+            ModelVersion current = _models.get(name);
+            if ((current != null) && current.getFile().equals(file)
+                    && (current.getFileLastModified() == file.lastModified())) {
+                continue;
+            }
+            try {
+                publish(load(name, file));
+            }
+            catch (IOException | RuntimeException e) {
+                log.error("Couldn't load model [" + name + "] from [" + file + "], keeping "
+                        + (current != null ? "version [" + current.getVersion() + "]." : "it unavailable."), e);
+            }
+        }
+        for (String name : _models.keySet()) {
+            if (!filesByName.containsKey(name)) {
+                log.info("Model file for [" + name + "] is gone, retiring the model.");
+                _eventPublisher.publishEvent(new ModelSwappedEvent(this, name, _models.remove(name), null));
+            }
+        }
+    }
+
+    /**
+     * @return the model file to use for each model name - the ".mapped" one, if there are both.
+     */
+    static Map<String, File> modelFilesByName(File[] files) {
+        Map<String, File> filesByName = new TreeMap<>();
+        for (File file : files) {
+            String name = file.getName().substring(0, file.getName().lastIndexOf('.'));
+            File other = filesByName.get(name);
+            if ((other == null) || !other.getName().endsWith(MappedModelSerializer.FILE_EXTENSION)) {
+                filesByName.put(name, file);
+            }
+        }
+        return filesByName;
+    }
+
+    private ModelVersion load(String name, File file) throws IOException {
+        long lastModified = file.lastModified();
+        long nanosStart = System.nanoTime();
+        MultiLayerNetwork network = file.getName().endsWith(MappedModelSerializer.FILE_EXTENSION)
+                ? MappedModelSerializer.read(file)
+                : ModelSerializer.restoreMultiLayerNetwork(file, false);
+        long loadMillis = (System.nanoTime() - nanosStart) / 1_000_000;
+        ModelVersion modelVersion = new ModelVersion(name, _versionSequence.incrementAndGet(), file, lastModified,
+                network);
+        nanosStart = System.nanoTime();
+        warmup(modelVersion);
+        log.info("Loaded " + modelVersion + ": load took [" + loadMillis + " ms], warmup with [" + _warmupBatches
+                + "] batches took [" + ((System.nanoTime() - nanosStart) / 1_000_000) + " ms].");
+        return modelVersion;
+    }
+
+    /**
+     * Runs synthetic batches of varying size through the network, so that the JIT, ND4J's native code paths and its
+     * buffers are warm before the first real request arrives.
+     */
+    private void warmup(ModelVersion modelVersion) {
+        int numInputs = modelVersion.getNumInputs();
+        for (int i = 0; i < _warmupBatches; i++) {
+            // Alternate between single-sample, full and in-between batch sizes.
+            int rows = (i % 3 == 0) ? 1 : (i % 3 == 1) ? _maxBatchSize : 1 + (i * 7) % _maxBatchSize;
+            modelVersion.getNetwork().output(Nd4j.rand(rows, numInputs), false);
+        }
+    }
+
+    private void publish(ModelVersion modelVersion) {
+        ModelVersion previous = _models.put(modelVersion.getName(), modelVersion);
+        log.info("Published " + modelVersion + (previous != null ? ", replacing version ["
+                + previous.getVersion() + "]." : "."));
+        _eventPublisher.publishEvent(new ModelSwappedEvent(this, modelVersion.getName(), previous, modelVersion));
+    }
+}
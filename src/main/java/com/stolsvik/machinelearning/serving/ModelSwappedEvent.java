@@ -0,0 +1,37 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by the {@link ModelRegistry} when a model is published, replaced or retired.
+ */
+public class ModelSwappedEvent extends ApplicationEvent {
+    private final String _modelName;
+    private final ModelVersion _previous;
+    private final ModelVersion _current;
+
+    public ModelSwappedEvent(ModelRegistry source, String modelName, ModelVersion previous, ModelVersion current) {
+        super(source);
+        _modelName = modelName;
+        _previous = previous;
+        _current = current;
+    }
+
+    public String getModelName() {
+        return _modelName;
+    }
+
+    /**
+     * @return the version that was replaced or retired, or <code>null</code> if the model is new.
+     */
+    public ModelVersion getPrevious() {
+        return _previous;
+    }
+
+    /**
+     * @return the version now published, or <code>null</code> if the model was retired.
+     */
+    public ModelVersion getCurrent() {
+        return _current;
+    }
+}
@@ -0,0 +1,62 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+
+import java.io.File;
+
+/**
+ * An immutable, published version of a named model in the {@link ModelRegistry}. A new version of the same model is
+ * a new instance, so whoever holds on to an instance keeps using that exact network.
+ */
+public class ModelVersion {
+    private final String _name;
+    private final long _version;
+    private final File _file;
+    private final long _fileLastModified;
+    private final MultiLayerNetwork _network;
+    private final long _loadedAtMillis = System.currentTimeMillis();
+
+    ModelVersion(String name, long version, File file, long fileLastModified, MultiLayerNetwork network) {
+        _name = name;
+        _version = version;
+        _file = file;
+        _fileLastModified = fileLastModified;
+        _network = network;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * @return a number which is unique for each load within this JVM, increasing with each load.
+     */
+    public long getVersion() {
+        return _version;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    public long getFileLastModified() {
+        return _fileLastModified;
+    }
+
+    public MultiLayerNetwork getNetwork() {
+        return _network;
+    }
+
+    public int getNumInputs() {
+        return _network.layerInputSize(0);
+    }
+
+    public long getLoadedAtMillis() {
+        return _loadedAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ModelVersion[" + _name + ":" + _version + ", file:" + _file + "]";
+    }
+}
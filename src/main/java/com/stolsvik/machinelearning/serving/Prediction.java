@@ -0,0 +1,35 @@
+package com.stolsvik.machinelearning.serving;
+
+/**
+ * The output of a model for one sample, along with the {@link ModelVersion} which produced it.
+ */
+public class Prediction {
+    private final double[] _output;
+    private final ModelVersion _modelVersion;
+
+    public Prediction(double[] output, ModelVersion modelVersion) {
+        _output = output;
+        _modelVersion = modelVersion;
+    }
+
+    public double[] getOutput() {
+        return _output;
+    }
+
+    public ModelVersion getModelVersion() {
+        return _modelVersion;
+    }
+
+    /**
+     * @return the index of the largest output, i.e. the predicted class for a classifier.
+     */
+    public int getArgMax() {
+        int argMax = 0;
+        for (int i = 1; i < _output.length; i++) {
+            if (_output[i] > _output[argMax]) {
+                argMax = i;
+            }
+        }
+        return argMax;
+    }
+}
@@ -0,0 +1,102 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * REST endpoint for single-sample predictions: <code>POST /predict/{model}</code> (or <code>POST /predict</code> for
+ * the configured default model) with a JSON body <code>{"features": [..]}</code> returns the output vector, the arg-max
+ * class, and which version of the model produced them. The request is handled asynchronously, being completed when
+ * the micro-batch it was coalesced into has been run. <code>GET /predict/stats</code> returns latency percentiles and the batch size distribution for each model.
+ */
+@RestController
+@RequestMapping("/predict")
+public class PredictionController {
+
+    private final PredictionService _predictionService;
+
+    public PredictionController(PredictionService predictionService) {
+        _predictionService = predictionService;
+    }
+
+    public static class PredictionRequest {
+        private double[] features;
+
+        public double[] getFeatures() {
+            return features;
+        }
+
+        public void setFeatures(double[] features) {
+            this.features = features;
+        }
+    }
+
+    public static class PredictionResponse {
+        private final String model;
+        private final long modelVersion;
+        private final double[] output;
+        private final int predictedClass;
+
+        PredictionResponse(Prediction prediction) {
+            this.model = prediction.getModelVersion().getName();
+            this.modelVersion = prediction.getModelVersion().getVersion();
+            this.output = prediction.getOutput();
+            this.predictedClass = prediction.getArgMax();
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public long getModelVersion() {
+            return modelVersion;
+        }
+
+        public double[] getOutput() {
+            return output;
+        }
+
+        public int getPredictedClass() {
+            return predictedClass;
+        }
+    }
+
+    @PostMapping
+    public CompletableFuture<PredictionResponse> predict(@RequestBody PredictionRequest request) {
+        if (_predictionService.getDefaultModel().isEmpty()) {
+            throw new IllegalArgumentException("No 'machinelearning.serving.default-model' configured,"
+                    + " use /predict/{model}.");
+        }
+        return predict(_predictionService.getDefaultModel(), request);
+    }
+
+    @PostMapping("/{model}")
+    public CompletableFuture<PredictionResponse> predict(@PathVariable("model") String model,
+            @RequestBody PredictionRequest request) {
+        if (request.getFeatures() == null) {
+            throw new IllegalArgumentException("Missing 'features'.");
+        }
+        return _predictionService.predict(model, request.getFeatures()).thenApply(PredictionResponse::new);
+    }
+
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        return _predictionService.getStats();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String badRequest(IllegalArgumentException e) {
+        return e.getMessage();
+    }
+}
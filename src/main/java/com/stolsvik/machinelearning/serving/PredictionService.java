@@ -0,0 +1,79 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serves predictions from the models in the {@link ModelRegistry}, through one {@link MicroBatchingPredictor} per
+ * model name. The predictor fetches the current {@link ModelVersion} from the registry for every batch, so models are
+ * hot swapped without the predictor noticing. Requests for a model that isn't loaded fail with
+ * {@link ModelNotAvailableException}. If the {@link InferenceCache} is enabled, it is consulted first.
+ */
+@Service
+public class PredictionService {
+
+    private final ModelRegistry _modelRegistry;
+    private final InferenceCache _inferenceCache;
+
+    @Value("${machinelearning.serving.default-model:}")
+    private String _defaultModel;
+
+    @Value("${machinelearning.serving.max-batch-size:64}")
+    private int _maxBatchSize;
+
+    @Value("${machinelearning.serving.max-wait-millis:2}")
+    private long _maxWaitMillis;
+
+    private final ConcurrentMap<String, MicroBatchingPredictor> _predictors = new ConcurrentHashMap<>();
+
+    public PredictionService(ModelRegistry modelRegistry, InferenceCache inferenceCache) {
+        _modelRegistry = modelRegistry;
+        _inferenceCache = inferenceCache;
+    }
+
+    public String getDefaultModel() {
+        return _defaultModel;
+    }
+
+    public CompletableFuture<Prediction> predict(String modelName, double[] features) {
+        ModelVersion modelVersion = _modelRegistry.get(modelName);
+        if (modelVersion == null) {
+            throw new ModelNotAvailableException("Model [" + modelName + "] is not loaded.");
+        }
+        Prediction cached = _inferenceCache.get(modelVersion, features);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Prediction> future = _predictors.computeIfAbsent(modelName, name ->
+                new MicroBatchingPredictor(name, () -> _modelRegistry.get(name), _maxBatchSize, _maxWaitMillis))
+                .predict(features);
+        if (_inferenceCache.isEnabled()) {
+            future = future.thenApply(prediction -> {
+                _inferenceCache.put(features, prediction);
+                return prediction;
+            });
+        }
+        return future;
+    }
+
+    /**
+     * @return the stats of each model's {@link MicroBatchingPredictor}, by model name.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<>();
+        _predictors.forEach((name, predictor) -> stats.put(name, predictor.getStats()));
+        return stats;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        _predictors.values().forEach(MicroBatchingPredictor::shutdown);
+    }
+}
@@ -0,0 +1,160 @@
+package com.stolsvik.machinelearning.startup;
+
+import com.stolsvik.machinelearning.experiment.mnist.MnistDataService;
+import com.stolsvik.machinelearning.quandl.QuandlDataService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Fast-start mode: with <code>machinelearning.startup.background-load=true</code> the application context comes up
+ * without loading any data, and once the application is ready (i.e. is answering requests, health checks included),
+ * the MNIST images - and the Quandl data, if <code>machinelearning.quandl.load-on-startup=true</code> - are loaded on
+ * background threads, one per data set. Until all are loaded, the {@link DataReadinessEndpoint} at "/readiness"
+ * answers 503 along with the progress of each, so that an orchestrator can hold traffic back - while "/health", via the
+ * {@link DataReadinessHealthIndicator}, stays UP unless a load fails, so that a liveness probe doesn't kill the instance
+ * during a long load.
+ * <p>
+ * For the fastest start, configure the binary caches too: <code>machinelearning.quandl.cache-file</code> and
+ * <code>machinelearning.mnist.cache-directory</code>.
+ */
+@Component
+public class BackgroundDataLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(BackgroundDataLoader.class);
+
+    @Value("${machinelearning.startup.background-load:false}")
+    private boolean _enabled;
+
+    private final List<LoadTask> _tasks;
+
+    public BackgroundDataLoader(QuandlDataService quandlDataService, MnistDataService mnistDataService,
+            @Value("${machinelearning.quandl.load-on-startup:false}") boolean quandlLoadOnStartup) {
+        List<LoadTask> tasks = new ArrayList<>();
+        if (quandlLoadOnStartup) {
+            tasks.add(new LoadTask("quandl", quandlDataService::load, quandlDataService::getLoadProgress));
+        }
+        tasks.add(new LoadTask("mnist", mnistDataService::load, () -> -1));
+        _tasks = Collections.unmodifiableList(tasks);
+    }
+
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    public List<LoadTask> getTasks() {
+        return _tasks;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void startLoading() {
+        if (!_enabled) {
+            return;
+        }
+        for (LoadTask task : _tasks) {
+            Thread thread = new Thread(task::run, "Background data loader: " + task.getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public enum State {
+        PENDING, LOADING, LOADED, FAILED
+    }
+
+    /**
+     * The loading of one data set.
+     */
+    public static class LoadTask {
+        private final String _name;
+        private final Runnable _loader;
+        private final LongSupplier _progress;
+
+        private volatile State _state = State.PENDING;
+        private volatile long _startedMillis;
+        private volatile long _finishedMillis;
+        private volatile String _failure;
+
+        private LoadTask(String name, Runnable loader, LongSupplier progress) {
+            _name = name;
+            _loader = loader;
+            _progress = progress;
+        }
+
+        private void run() {
+            _startedMillis = System.currentTimeMillis();
+            _state = State.LOADING;
+            log.info("Loading [" + _name + "] in the background.");
+            try {
+                _loader.run();
+                _finishedMillis = System.currentTimeMillis();
+                _state = State.LOADED;
+                log.info("Loaded [" + _name + "], took [" + (_finishedMillis - _startedMillis) + " ms].");
+            }
+            catch (RuntimeException | Error e) {
+                _finishedMillis = System.currentTimeMillis();
+                _failure = e.toString();
+                _state = State.FAILED;
+                log.error("Loading [" + _name + "] failed.", e);
+            }
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public State getState() {
+            return _state;
+        }
+
+        /**
+         * @return the data set specific progress count while loading, -1 if not known.
+         */
+        public long getProgress() {
+            return _state == State.LOADING ? _progress.getAsLong() : -1;
+        }
+
+        /**
+         * @return millis spent loading so far, or in total when done; 0 if not started.
+         */
+        public long getElapsedMillis() {
+            long started = _startedMillis;
+            if (started == 0) {
+                return 0;
+            }
+            long finished = _finishedMillis;
+            return (finished != 0 ? finished : System.currentTimeMillis()) - started;
+        }
+
+        public String getFailure() {
+            return _failure;
+        }
+
+        /**
+         * @return the state, progress (if known), elapsed time and failure (if any), for JSON rendering.
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("state", _state);
+            long progress = getProgress();
+            if (progress >= 0) {
+                map.put("progress", progress);
+            }
+            map.put("elapsedMillis", getElapsedMillis());
+            if (_failure != null) {
+                map.put("failure", _failure);
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.stolsvik.machinelearning.startup;
+
+import com.stolsvik.machinelearning.startup.BackgroundDataLoader.LoadTask;
+import com.stolsvik.machinelearning.startup.BackgroundDataLoader.State;
+import org.springframework.boot.actuate.endpoint.mvc.AbstractMvcEndpoint;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint "/readiness", for an orchestrator's readiness probe: 200 when all data sets of the
+ * {@link BackgroundDataLoader} are loaded (or background loading is disabled), 503 while any is pending or loading, or
+ * has failed - with the state, progress and elapsed time of each data set in the body. Use "/health" for liveness,
+ * see {@link DataReadinessHealthIndicator}.
+ */
+@Component
+public class DataReadinessEndpoint extends AbstractMvcEndpoint {
+
+    private final BackgroundDataLoader _backgroundDataLoader;
+
+    public DataReadinessEndpoint(BackgroundDataLoader backgroundDataLoader) {
+        // Not sensitive: load states and progress only.
+        super("/readiness", false);
+        _backgroundDataLoader = backgroundDataLoader;
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> invoke() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (!_backgroundDataLoader.isEnabled()) {
+            result.put("status", "READY");
+            result.put("backgroundLoad", "disabled");
+            return ResponseEntity.ok(result);
+        }
+        boolean allLoaded = true;
+        boolean anyFailed = false;
+        Map<String, Object> tasks = new LinkedHashMap<>();
+        for (LoadTask task : _backgroundDataLoader.getTasks()) {
+            tasks.put(task.getName(), task.toMap());
+            allLoaded &= task.getState() == State.LOADED;
+            anyFailed |= task.getState() == State.FAILED;
+        }
+        result.put("status", anyFailed ? "FAILED" : allLoaded ? "READY" : "LOADING");
+        result.put("tasks", tasks);
+        return allLoaded
+                ? ResponseEntity.ok(result)
+                : ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(result);
+    }
+}
@@ -0,0 +1,43 @@
+package com.stolsvik.machinelearning.startup;
+
+import com.stolsvik.machinelearning.startup.BackgroundDataLoader.LoadTask;
+import com.stolsvik.machinelearning.startup.BackgroundDataLoader.State;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health.Builder;
+import org.springframework.stereotype.Component;
+
+/**
+ * The data loaded by the {@link BackgroundDataLoader}, as "dataReadiness" in the actuator health, with the state,
+ * progress and elapsed time of each data set in the details. Since Boot 1.5 has no separate liveness endpoint, this
+ * keeps "/health" usable as a liveness probe: it is UP while the data is still loading, and only DOWN (rendering
+ * "/health" as 503) if a load failed - which a restart may fix. Readiness, i.e. whether all data is loaded, is the
+ * {@link DataReadinessEndpoint} at "/readiness".
+ */
+@Component
+public class DataReadinessHealthIndicator extends AbstractHealthIndicator {
+
+    private final BackgroundDataLoader _backgroundDataLoader;
+
+    public DataReadinessHealthIndicator(BackgroundDataLoader backgroundDataLoader) {
+        _backgroundDataLoader = backgroundDataLoader;
+    }
+
+    @Override
+    protected void doHealthCheck(Builder builder) {
+        if (!_backgroundDataLoader.isEnabled()) {
+            builder.up().withDetail("backgroundLoad", "disabled");
+            return;
+        }
+        boolean anyFailed = false;
+        for (LoadTask task : _backgroundDataLoader.getTasks()) {
+            builder.withDetail(task.getName(), task.toMap());
+            anyFailed |= task.getState() == State.FAILED;
+        }
+        if (anyFailed) {
+            builder.down();
+        }
+        else {
+            builder.up();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.stolsvik.machinelearning.startup;
+
+import com.stolsvik.machinelearning.experiment.TrainingMetricsListener;
+import com.stolsvik.machinelearning.experiment.mnist.MnistDataService;
+import com.stolsvik.machinelearning.quandl.QuandlDataService;
+import com.stolsvik.machinelearning.serving.MappedModelSerializer;
+import com.stolsvik.machinelearning.serving.ModelRegistry;
+import com.stolsvik.machinelearning.serving.ModelVersion;
+import com.stolsvik.machinelearning.tools.MemoryReport;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Actuator endpoint "/memory", exposing the {@link MemoryReport} estimates of the loaded data sets - the Quandl data
+ * and the MNIST images, when loaded - and of the ND4J off-heap memory, including the parameters of the served models
+ * (those loaded zero-copy by {@link MappedModelSerializer} apart, since a file mapping is not JavaCPP memory), next to
+ * the JVM's own heap figures. The ND4J workspaces are thread local, so they are not read on the request thread, but as
+ * captured on each training thread by its {@link TrainingMetricsListener}, as of its last capture.
+ */
+@Component
+public class MemoryEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    private final QuandlDataService _quandlDataService;
+    private final MnistDataService _mnistDataService;
+    private final ModelRegistry _modelRegistry;
+
+    public MemoryEndpoint(QuandlDataService quandlDataService, MnistDataService mnistDataService,
+            ModelRegistry modelRegistry) {
+        // Not sensitive: these are sizes only.
+        super("memory", false);
+        _quandlDataService = quandlDataService;
+        _mnistDataService = mnistDataService;
+        _modelRegistry = modelRegistry;
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Runtime runtime = Runtime.getRuntime();
+        Map<String, Object> heap = new LinkedHashMap<>();
+        heap.put("usedBytes", runtime.totalMemory() - runtime.freeMemory());
+        heap.put("committedBytes", runtime.totalMemory());
+        heap.put("maxBytes", runtime.maxMemory());
+        heap.put("compressedOops", MemoryReport.COMPRESSED_OOPS);
+        result.put("heap", heap);
+        if (_quandlDataService.isLoaded()) {
+            result.put("quandl", _quandlDataService.getReader().estimateMemory().toMap());
+        }
+        if (_mnistDataService.isLoaded()) {
+            result.put("mnistTraining", _mnistDataService.getTraining().estimateMemory().toMap());
+            result.put("mnistTest", _mnistDataService.getTest().estimateMemory().toMap());
+        }
+        Map<String, MultiLayerNetwork> networks = new LinkedHashMap<>();
+        Map<String, MultiLayerNetwork> mappedNetworks = new LinkedHashMap<>();
+        for (ModelVersion modelVersion : _modelRegistry.getAll()) {
+            MultiLayerNetwork network = modelVersion.getNetwork();
+            (MappedModelSerializer.isMapped(network) ? mappedNetworks : networks).put(modelVersion.getName(),
+                    network);
+        }
+        Map<String, Long> workspaceBytes = new LinkedHashMap<>();
+        for (TrainingMetricsListener listener : TrainingMetricsListener.getRegisteredListeners()) {
+            for (Entry<String, Long> entry : listener.getWorkspaceBytes().entrySet()) {
+                workspaceBytes.put(listener.getName() + ": " + entry.getKey(), entry.getValue());
+            }
+        }
+        result.put("nd4j", MemoryReport.forNd4j(networks, mappedNetworks, workspaceBytes).toMap());
+        return result;
+    }
+}
@@ -0,0 +1,26 @@
+package com.stolsvik.machinelearning.tools;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes and reads one kind of value to and from a {@link SetupCheckpoint}. The codec's name is stored with each value
+ * it writes, and used to find the codec again on read - so it must stay the same for as long as the format does.
+ */
+public interface CheckpointCodec {
+
+    /**
+     * @return the name stored with the values this codec writes, e.g. "primitive-arrays-v1".
+     */
+    String getName();
+
+    boolean canWrite(Object value);
+
+    /**
+     * Writes the value so that {@link #read(DataInputStream)} reads exactly what was written, and nothing more.
+     */
+    void write(Object value, DataOutputStream out) throws IOException;
+
+    Object read(DataInputStream in) throws IOException;
+}
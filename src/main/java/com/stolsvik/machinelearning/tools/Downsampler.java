@@ -0,0 +1,113 @@
+package com.stolsvik.machinelearning.tools;
+
+import java.util.Arrays;
+
+/**
+ * Downsampling of (x-sorted) series for plotting, picking which of the points to draw so that a series of any length
+ * renders as a bounded number of points while keeping its visual shape. Both methods return indexes into the
+ * original arrays, ascending, and always include the first and last point of the range.
+ */
+public class Downsampler {
+
+    private Downsampler() {
+        /* utility class */
+    }
+
+    /**
+     * Min/max bucketing: splits the range into <code>targetPoints / 2</code> buckets and keeps the minimum and the
+     * maximum point of each, in x order. Every spike survives, which is what you want for prices and volumes.
+     *
+     * @param from first index, inclusive.
+     * @param to last index, exclusive.
+     */
+    public static int[] minMax(double[] y, int from, int to, int targetPoints) {
+        int count = to - from;
+        if (count <= targetPoints || targetPoints < 4) {
+            return all(from, to);
+        }
+        int buckets = (targetPoints - 2) / 2;
+        int[] result = new int[2 + buckets * 2];
+        int n = 0;
+        result[n++] = from;
+        for (int b = 0; b < buckets; b++) {
+            // The first and last point are kept separately, so the buckets cover the points between them.
+            int bucketFrom = from + 1 + (int) ((long) b * (count - 2) / buckets);
+            int bucketTo = from + 1 + (int) ((long) (b + 1) * (count - 2) / buckets);
+            int min = bucketFrom;
+            int max = bucketFrom;
+            for (int i = bucketFrom + 1; i < bucketTo; i++) {
+                if (y[i] < y[min]) {
+                    min = i;
+                }
+                if (y[i] > y[max]) {
+                    max = i;
+                }
+            }
+            result[n++] = Math.min(min, max);
+            if (min != max) {
+                result[n++] = Math.max(min, max);
+            }
+        }
+        result[n++] = to - 1;
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets (Steinarsson 2013): splits the range into <code>targetPoints - 2</code> buckets
+     * and keeps, from each, the point forming the largest triangle with the point kept from the previous bucket and the
+     * average of the next bucket. Gives a smoother, more "line-like" result than {@link #minMax(double[], int, int,
+     * int)}, at the cost of possibly dropping single-point spikes.
+     *
+     * @param from first index, inclusive.
+     * @param to last index, exclusive.
+     */
+    public static int[] lttb(double[] x, double[] y, int from, int to, int targetPoints) {
+        int count = to - from;
+        if (count <= targetPoints || targetPoints < 3) {
+            return all(from, to);
+        }
+        int buckets = targetPoints - 2;
+        int[] result = new int[targetPoints];
+        int n = 0;
+        int previous = from;
+        result[n++] = previous;
+        for (int b = 0; b < buckets; b++) {
+            int bucketFrom = from + 1 + (int) ((long) b * (count - 2) / buckets);
+            int bucketTo = from + 1 + (int) ((long) (b + 1) * (count - 2) / buckets);
+            // Average of the next bucket - for the last bucket, the last point.
+            int nextFrom = bucketTo;
+            int nextTo = b == buckets - 1 ? to : from + 1 + (int) ((long) (b + 2) * (count - 2) / buckets);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextFrom; i < nextTo; i++) {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            avgX /= (nextTo - nextFrom);
+            avgY /= (nextTo - nextFrom);
+
+            int best = bucketFrom;
+            double bestArea = -1;
+            for (int i = bucketFrom; i < bucketTo; i++) {
+                double area = Math.abs((x[previous] - avgX) * (y[i] - y[previous])
+                        - (x[previous] - x[i]) * (avgY - y[previous]));
+                if (area > bestArea) {
+                    bestArea = area;
+                    best = i;
+                }
+            }
+            result[n++] = best;
+            previous = best;
+        }
+        result[n] = to - 1;
+        return result;
+    }
+
+    private static int[] all(int from, int to) {
+        int[] result = new int[Math.max(0, to - from)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = from + i;
+        }
+        return result;
+    }
+}
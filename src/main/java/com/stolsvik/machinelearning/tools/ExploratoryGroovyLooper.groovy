@@ -1,9 +1,26 @@
 package com.stolsvik.machinelearning.tools;
 
 import groovy.transform.CompileStatic
+import org.codehaus.groovy.runtime.InvokerHelper
 
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardWatchEventKinds
+import java.nio.file.WatchEvent
+import java.nio.file.WatchKey
+import java.nio.file.WatchService
+import java.security.MessageDigest
 import java.text.DecimalFormat
 import java.text.DecimalFormatSymbols
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * <b>tl;dr: Jump to the Example.</b>
@@ -34,6 +51,24 @@ import java.text.DecimalFormatSymbols
  * each time it is being invoked, you can go totally nuts in your editing, with full IDE capabilities. Any Exception is
  * caught, so even heavy syntax errors will be handled smoothly.
  * <p>
+ * The script is only compiled when its content has changed: the compiled Script class is cached by the SHA-256 of the
+ * file content, so a re-run of the same code just instantiates the class again - and since it is the same class, the
+ * JIT's work from the previous runs is kept. The run times of each version of the script are recorded, and min, median
+ * and last are printed after each run, which shows the warm-up effect (and makes before/after comparisons fair).
+ * <p>
+ * With the <code>loopWatching(..)</code> variants, the script file is also watched, and the script re-run by itself
+ * each time it is saved with changed content - no need to switch to the console and hit Enter.
+ * <p>
+ * With the <code>loopScenarios(..)</code> variants, each run instead runs the script once per given scenario -
+ * concurrently, on a thread pool - where each scenario's parameters are bound on top of the shared setup result, and
+ * prints a table comparing the scenarios' return values and run times. E.g. to compare an analysis over different
+ * windows, without loading the data more than once.
+ * <p>
+ * Variants taking a {@link SetupCheckpoint} also survive JVM restarts: the setup result is written to the
+ * checkpoint's file after the setup Closure has run, and the next JVM restores it from there instead of running the
+ * Closure - as long as the checkpoint's key, e.g. the name of the data file loaded, is the same. Add codecs for the
+ * large structures of the setup result to make this fast, like <code>QuandlBinaryCache.Codec</code> for Quandl data.
+ * <p>
  * <h2>Example</h2>
  * You for example make a file "TransactionExploratoryScript.groovy":
  * <pre>
@@ -72,6 +107,8 @@ import java.text.DecimalFormatSymbols
 class ExploratoryGroovyLooper {
 
     private static String SETUP_DONE = "SETUP_DONE"
+    private static final int MAX_CACHED_SCRIPTS = 8
+    private static final int MAX_TABLE_VALUE_LENGTH = 80
     private static DecimalFormat df = new DecimalFormat('# ##0.000;-#', new DecimalFormatSymbols(Locale.US));
     private static ThreadLocal<Boolean> __alreadyInvoked = new ThreadLocal<>()
 
@@ -120,6 +157,105 @@ class ExploratoryGroovyLooper {
     static void loop(Script thisScript, Closure keyValueClosure) {
         if (__alreadyInvoked.get()) { return }
 
+        loopInternal(thisScript, setup(keyValueClosure, null), false, null)
+    }
+
+    /**
+     * As {@link #loop(Script, Closure)}, but restores the setup result from the checkpoint if it is there for the same
+     * key, and otherwise writes it there after running the setup Closure.
+     * <h2>Example</h2>
+     * <pre>
+     * ExploratoryGroovyLooper.loop(this, new SetupCheckpoint(new File("txs.checkpoint"), "transactions-2017-10")) {
+     *     _txs = Transactions.loadAll()
+     * }
+     * </pre>
+     */
+    static void loop(Script thisScript, SetupCheckpoint checkpoint, Closure keyValueClosure) {
+        if (__alreadyInvoked.get()) { return }
+
+        loopInternal(thisScript, setup(keyValueClosure, checkpoint), false, null)
+    }
+
+    /**
+     * As {@link #loop(Script, Closure)}, but also re-runs the script each time the script file is saved with changed
+     * content. Enter still re-runs it at once.
+     */
+    static void loopWatching(Script thisScript, Closure keyValueClosure) {
+        if (__alreadyInvoked.get()) { return }
+
+        loopInternal(thisScript, setup(keyValueClosure, null), true, null)
+    }
+
+    /**
+     * {@link #loopWatching(Script, Closure)} with the setup checkpointed as for
+     * {@link #loop(Script, SetupCheckpoint, Closure)}.
+     */
+    static void loopWatching(Script thisScript, SetupCheckpoint checkpoint, Closure keyValueClosure) {
+        if (__alreadyInvoked.get()) { return }
+
+        loopInternal(thisScript, setup(keyValueClosure, checkpoint), true, null)
+    }
+
+    /**
+     * As {@link #loop(Script, Closure)}, but each run runs the script once per scenario, concurrently, and prints a
+     * table comparing their return values and run times.
+     * <h2>Example</h2>
+     * <pre>
+     * import com.stolsvik.tools.ExploratoryGroovyLooper
+     * ExploratoryGroovyLooper.loopScenarios(this, ['short': [window: 5], 'medium': [window: 20],
+     *         'long': [window: 100]]) {
+     *     _txs = Transactions.loadAll()
+     * }
+     *
+     * Transaction[] txs = _txs
+     * int w = window
+     * return movingAverageHitRate(txs, w)
+     * </pre>
+     * The setup result is shared by all the scenarios, so the script must only read it - the scenarios run at the
+     * same time. Variables the script sets are private to its scenario. Output from <code>println</code> will be
+     * interleaved between the scenarios, so return the result instead.
+     *
+     * @param scenarios scenario name to the parameters that are bound for that scenario, in the order the table
+     *            should list them.
+     */
+    static void loopScenarios(Script thisScript, Map<String, Map<String, ?>> scenarios, Closure keyValueClosure) {
+        if (__alreadyInvoked.get()) { return }
+
+        loopInternal(thisScript, setup(keyValueClosure, null), false, scenarios)
+    }
+
+    /**
+     * {@link #loopScenarios(Script, Map, Closure)} with the setup checkpointed as for
+     * {@link #loop(Script, SetupCheckpoint, Closure)}.
+     */
+    static void loopScenarios(Script thisScript, Map<String, Map<String, ?>> scenarios, SetupCheckpoint checkpoint,
+            Closure keyValueClosure) {
+        if (__alreadyInvoked.get()) { return }
+
+        loopInternal(thisScript, setup(keyValueClosure, checkpoint), false, scenarios)
+    }
+
+    /**
+     * As {@link #loopScenarios(Script, Map, Closure)}, with the setup done in the script as for
+     * {@link #loop(Script, Binding)}.
+     */
+    static void loopScenarios(Script thisScript, Map<String, Map<String, ?>> scenarios, Binding binding) {
+        loopInternal(thisScript, binding, false, scenarios)
+    }
+
+    /**
+     * @param checkpoint <code>null</code> to always run the setup Closure.
+     */
+    private static Binding setup(Closure keyValueClosure, SetupCheckpoint checkpoint) {
+        if (checkpoint != null) {
+            long nanosStart = System.nanoTime()
+            Map<String, Object> restored = checkpoint.restore()
+            if (restored != null) {
+                double msTaken = (System.nanoTime() - nanosStart) / 1000000d;
+                println "Restored the setup from checkpoint '${checkpoint.file}' in ${df.format(msTaken)} ms"
+                return new Binding(restored)
+            }
+        }
         Binding binding = new Binding()
 
         def egl = new ExploratoryGroovyLooper(binding)
@@ -130,8 +266,11 @@ class ExploratoryGroovyLooper {
         keyValueClosure()
         double msTaken = (System.nanoTime() - nanosStart) / 1000000d;
         println ".. setup closure took ${df.format(msTaken)} ms"
-
-        loop(thisScript, binding)
+        if (checkpoint != null) {
+            println "Writing the setup to checkpoint '${checkpoint.file}'.."
+            checkpoint.save(binding.variables)
+        }
+        return binding
     }
 
     /**
@@ -157,23 +296,80 @@ class ExploratoryGroovyLooper {
      * @param binding
      */
     static void loop(Script thisScript, Binding binding) {
+        loopInternal(thisScript, binding, false, null)
+    }
+
+    /**
+     * As {@link #loop(Script, Binding)}, but also re-runs the script each time the script file is saved with changed
+     * content. Enter still re-runs it at once.
+     */
+    static void loopWatching(Script thisScript, Binding binding) {
+        loopInternal(thisScript, binding, true, null)
+    }
+
+    private static enum Trigger {
+        ENTER, EXIT, FILE_CHANGED
+    }
+
+    /**
+     * @param scenarios <code>null</code> to just run the script.
+     */
+    private static void loopInternal(Script thisScript, Binding binding, boolean watch,
+            Map<String, Map<String, ?>> scenarios) {
         if (__alreadyInvoked.get() || isSetup(binding)) { return }
 
         __alreadyInvoked.set(true)
         binding.setProperty(SETUP_DONE, SETUP_DONE)
 
         def thisScriptPath = thisScript.getClass().protectionDomain.codeSource.location.path
+        File scriptFile = new File(thisScriptPath)
+
+        BlockingQueue<Trigger> triggers = new LinkedBlockingQueue<>()
+        startConsoleReader(triggers)
+        if (watch) {
+            startFileWatcher(scriptFile, triggers)
+        }
+        ExecutorService scenarioExecutor = scenarios ? createScenarioExecutor(scenarios.size()) : null
+        Map<String, CompiledScript> cache = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                return size() > MAX_CACHED_SCRIPTS
+            }
+        }
 
+        String lastRunHash = null
         while (true) {
             println "\n\n============================================================================================="
             println " Running script '$thisScriptPath', class:${thisScript.getClass().getName()}"
             println "---------------------------------------------------------------------------------------------"
             long nanosStart = System.nanoTime()
-            GroovyShell shell = new GroovyShell(binding)
             try {
-                def value = shell.evaluate(new File(thisScriptPath))
-                double msTaken = (System.nanoTime() - nanosStart) / 1000000d;
-                println "-----------\n  Took ${df.format(msTaken)} ms - Script returned: $value"
+                byte[] content = Files.readAllBytes(scriptFile.toPath())
+                lastRunHash = contentHash(content)
+                CompiledScript compiled = cache.get(lastRunHash)
+                if (compiled == null) {
+                    Script parsed = new GroovyShell(binding).parse(new String(content, StandardCharsets.UTF_8),
+                            scriptFile.name)
+                    compiled = new CompiledScript(parsed.getClass())
+                    cache.put(lastRunHash, compiled)
+                    println "  (compiled in ${df.format((System.nanoTime() - nanosStart) / 1000000d)} ms)"
+                    nanosStart = System.nanoTime()
+                }
+                if (scenarios) {
+                    List<ScenarioResult> results = runScenarios(compiled, binding, scenarios, scenarioExecutor)
+                    double msTaken = (System.nanoTime() - nanosStart) / 1000000d;
+                    compiled.runMillis.add(msTaken)
+                    println "-----------\n  Took ${df.format(msTaken)} ms for ${scenarios.size()} scenarios:"
+                    printScenarioTable(results)
+                }
+                else {
+                    def value = InvokerHelper.createScript(compiled.scriptClass, binding).run()
+                    double msTaken = (System.nanoTime() - nanosStart) / 1000000d;
+                    compiled.runMillis.add(msTaken)
+                    println "-----------\n  Took ${df.format(msTaken)} ms - Script returned: $value"
+                }
+                println "  Runs of this version: ${compiled.runMillis.size()}, min ${df.format(compiled.min())} ms," +
+                        " median ${df.format(compiled.median())} ms, last ${df.format(compiled.last())} ms"
             }
             catch (Throwable t) {
                 double msTaken = (System.nanoTime() - nanosStart) / 1000000d;
@@ -184,21 +380,208 @@ class ExploratoryGroovyLooper {
             }
             println "---------------------------------------------------------------------------------------------"
 
-            BufferedReader br = new BufferedReader(new InputStreamReader(System.in))
-            print "\nHit enter to run again, or 'x' and enter to exit."
-            def userInput = br.readLine()
-            if (userInput == "x") {
-                System.exit(0)
+            print(watch
+                    ? "\nSave the script to run it again on change, hit enter to run again, or 'x' and enter to exit."
+                    : "\nHit enter to run again, or 'x' and enter to exit.")
+            while (true) {
+                Trigger trigger = triggers.take()
+                if (trigger == Trigger.EXIT) {
+                    System.exit(0)
+                }
+                // Saves without changes, and the rest of an editor's burst of file events, don't warrant a re-run.
+                if ((trigger == Trigger.ENTER) || (currentHash(scriptFile) != lastRunHash)) {
+                    break
+                }
+            }
+        }
+    }
+
+    /**
+     * A compiled version of the script, with the run times of that version.
+     */
+    private static class CompiledScript {
+        final Class scriptClass
+        final List<Double> runMillis = new ArrayList<>()
+
+        CompiledScript(Class scriptClass) {
+            this.scriptClass = scriptClass
+        }
+
+        double min() {
+            double min = Double.MAX_VALUE
+            for (double ms : runMillis) {
+                min = Math.min(min, ms)
+            }
+            return min
+        }
+
+        double last() {
+            return runMillis.get(runMillis.size() - 1)
+        }
+
+        double median() {
+            List<Double> sorted = new ArrayList<>(runMillis)
+            Collections.sort(sorted)
+            int half = sorted.size() >> 1
+            return sorted.size() % 2 == 1 ? sorted.get(half) : (sorted.get(half - 1) + sorted.get(half)) / 2d
+        }
+    }
+
+    /**
+     * A scenario's view of the setup Binding: its own variables - the scenario parameters, and whatever the script
+     * sets - on top of the shared ones, which are only read.
+     */
+    private static class ScenarioBinding extends Binding {
+        private final Binding shared
+
+        ScenarioBinding(Binding shared, Map<String, ?> parameters) {
+            super(new LinkedHashMap<String, Object>(parameters))
+            this.shared = shared
+        }
+
+        @Override
+        Object getVariable(String name) {
+            return variables.containsKey(name) ? super.getVariable(name) : shared.getVariable(name)
+        }
+
+        @Override
+        boolean hasVariable(String name) {
+            return variables.containsKey(name) || shared.hasVariable(name)
+        }
+    }
+
+    private static class ScenarioResult {
+        final String name
+        final double msTaken
+        final Object value
+        final Throwable throwable
+
+        ScenarioResult(String name, double msTaken, Object value, Throwable throwable) {
+            this.name = name
+            this.msTaken = msTaken
+            this.value = value
+            this.throwable = throwable
+        }
+    }
+
+    private static ExecutorService createScenarioExecutor(int numberOfScenarios) {
+        AtomicInteger threadNumber = new AtomicInteger()
+        return Executors.newFixedThreadPool(Math.min(numberOfScenarios, Runtime.getRuntime().availableProcessors()),
+                { Runnable r ->
+                    Thread thread = new Thread(r, "ExploratoryGroovyLooper scenario #" + threadNumber.getAndIncrement())
+                    thread.daemon = true
+                    return thread
+                } as ThreadFactory)
+    }
+
+    private static List<ScenarioResult> runScenarios(CompiledScript compiled, Binding binding,
+            Map<String, Map<String, ?>> scenarios, ExecutorService executor) {
+        List<Future<ScenarioResult>> futures = new ArrayList<>()
+        scenarios.each { String name, Map<String, ?> parameters ->
+            futures.add(executor.submit({
+                // The script's first line is the loop call, which must return at once on this thread too.
+                __alreadyInvoked.set(true)
+                long nanosStart = System.nanoTime()
+                try {
+                    def value = InvokerHelper.createScript(compiled.scriptClass,
+                            new ScenarioBinding(binding, parameters)).run()
+                    return new ScenarioResult(name, (System.nanoTime() - nanosStart) / 1000000d, value, null)
+                }
+                catch (Throwable t) {
+                    return new ScenarioResult(name, (System.nanoTime() - nanosStart) / 1000000d, null, t)
+                }
+            } as Callable<ScenarioResult>))
+        }
+        List<ScenarioResult> results = new ArrayList<>()
+        for (Future<ScenarioResult> future : futures) {
+            results.add(future.get())
+        }
+        return results
+    }
+
+    private static void printScenarioTable(List<ScenarioResult> results) {
+        int nameWidth = 8
+        for (ScenarioResult result : results) {
+            nameWidth = Math.max(nameWidth, result.name.length())
+        }
+        println "  ${'Scenario'.padRight(nameWidth)} | ${'ms'.padLeft(12)} | Returned"
+        println "  ${'-' * nameWidth}-+-${'-' * 12}-+-${'-' * 20}"
+        for (ScenarioResult result : results) {
+            String returned = result.throwable ? "FAILED: $result.throwable" : String.valueOf(result.value)
+            if (returned.length() > MAX_TABLE_VALUE_LENGTH) {
+                returned = returned.substring(0, MAX_TABLE_VALUE_LENGTH - 3) + "..."
             }
+            println "  ${result.name.padRight(nameWidth)} | ${df.format(result.msTaken).padLeft(12)} | $returned"
         }
+        for (ScenarioResult result : results) {
+            if (result.throwable) {
+                System.err.println("Scenario '${result.name}' failed:")
+                result.throwable.printStackTrace()
+            }
+        }
+    }
+
+    private static String contentHash(byte[] content) {
+        return MessageDigest.getInstance("SHA-256").digest(content).encodeHex().toString()
+    }
+
+    private static String currentHash(File scriptFile) {
+        try {
+            return contentHash(Files.readAllBytes(scriptFile.toPath()))
+        }
+        catch (IOException e) {
+            // E.g. in the middle of an editor's save-by-rename: take it as changed, the run will tell.
+            return null
+        }
+    }
+
+    private static void startConsoleReader(BlockingQueue<Trigger> triggers) {
+        Thread thread = new Thread({
+            BufferedReader br = new BufferedReader(new InputStreamReader(System.in))
+            String userInput
+            while ((userInput = br.readLine()) != null) {
+                triggers.put(userInput == "x" ? Trigger.EXIT : Trigger.ENTER)
+            }
+        } as Runnable, "ExploratoryGroovyLooper console reader")
+        thread.daemon = true
+        thread.start()
+    }
+
+    /**
+     * Watches the script's directory, as that is the only thing a WatchService can watch - and since many editors
+     * save by writing a new file and renaming it over the old, both creates and modifies are taken as a change.
+     */
+    private static void startFileWatcher(File scriptFile, BlockingQueue<Trigger> triggers) {
+        Path file = scriptFile.toPath().toAbsolutePath()
+        WatchService watchService = file.fileSystem.newWatchService()
+        file.parent.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE)
+        Thread thread = new Thread({
+            while (true) {
+                WatchKey key = watchService.take()
+                boolean changed = false
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (file.fileName == event.context()) {
+                        changed = true
+                    }
+                }
+                key.reset()
+                if (changed) {
+                    // Let the editor finish writing before the content is hashed.
+                    sleep 100
+                    triggers.put(Trigger.FILE_CHANGED)
+                }
+            }
+        } as Runnable, "ExploratoryGroovyLooper file watcher")
+        thread.daemon = true
+        thread.start()
     }
 
     /**
      * @param binding the current script {@link Binding}
-     * @return whether Setup is already performed: <code>binding.variables.containsKey(ContinuousScriptLooper.SETUP_DONE)</code>
+     * @return whether Setup is already performed: <code>binding.hasVariable(ExploratoryGroovyLooper.SETUP_DONE)</code>
      */
     static boolean isSetup(Binding binding) {
-        binding.variables.containsKey(ExploratoryGroovyLooper.SETUP_DONE)
+        binding.hasVariable(ExploratoryGroovyLooper.SETUP_DONE)
     }
 
 }
@@ -0,0 +1,263 @@
+package com.stolsvik.machinelearning.tools;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * An estimate of the memory retained by a data set, by component - e.g. for the Quandl data, the DataPoints, the
+ * LocalDates, and the nodes and lists of the maps - so that one can see which part a heap is spent on, size the heap,
+ * and compare storage modes. Made by <code>estimateMemory()</code> on the data holders, and {@link #forNd4j(Map)}.
+ * <p>
+ * The sizes are computed from counts and the HotSpot object layout - headers, reference size (compressed oops or
+ * not, as read from the running VM), 8 byte alignment - not measured, so they are estimates: exact for the object
+ * graphs as modelled, but e.g. not counting JIT or GC overhead.
+ */
+public class MemoryReport {
+
+    public static final boolean COMPRESSED_OOPS;
+    public static final int REFERENCE_BYTES;
+    public static final int OBJECT_HEADER_BYTES;
+    public static final int ARRAY_HEADER_BYTES;
+    // Java 9+ strings hold Latin-1 text as a byte[], with a "coder" byte - Java 8 as a char[].
+    private static final boolean COMPACT_STRINGS = !System.getProperty("java.specification.version").startsWith("1.");
+
+    static {
+        boolean compressedOops = true;
+        try {
+            HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            compressedOops = Boolean.parseBoolean(hotSpot.getVMOption("UseCompressedOops").getValue());
+        }
+        catch (RuntimeException e) {
+            // Not HotSpot: assume its default for heaps below 32 GB.
+        }
+        COMPRESSED_OOPS = compressedOops;
+        REFERENCE_BYTES = compressedOops ? 4 : 8;
+        OBJECT_HEADER_BYTES = compressedOops ? 12 : 16;
+        ARRAY_HEADER_BYTES = align(OBJECT_HEADER_BYTES + 4);
+    }
+
+    public static class Component {
+        private final String _name;
+        private final long _count;
+        private final long _bytes;
+
+        private Component(String name, long count, long bytes) {
+            _name = name;
+            _count = count;
+            _bytes = bytes;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        /**
+         * @return the number of instances, or -1 if not applicable.
+         */
+        public long getCount() {
+            return _count;
+        }
+
+        public long getBytes() {
+            return _bytes;
+        }
+    }
+
+    private final String _name;
+    private final List<Component> _components = new ArrayList<>();
+
+    public MemoryReport(String name) {
+        _name = name;
+    }
+
+    /**
+     * @param count the number of instances, or -1 if not applicable.
+     * @return this, for chaining.
+     */
+    public MemoryReport add(String name, long count, long bytes) {
+        _components.add(new Component(name, count, bytes));
+        return this;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public List<Component> getComponents() {
+        return Collections.unmodifiableList(_components);
+    }
+
+    public long getTotalBytes() {
+        long total = 0;
+        for (Component component : _components) {
+            total += component._bytes;
+        }
+        return total;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("totalBytes", getTotalBytes());
+        for (Component component : _components) {
+            Map<String, Object> componentMap = new LinkedHashMap<>();
+            if (component._count >= 0) {
+                componentMap.put("count", component._count);
+            }
+            componentMap.put("bytes", component._bytes);
+            map.put(component._name, componentMap);
+        }
+        return map;
+    }
+
+    /**
+     * @return a table of the components, largest first, with their share of the total.
+     */
+    @Override
+    public String toString() {
+        List<Component> sorted = new ArrayList<>(_components);
+        sorted.sort((a, b) -> Long.compare(b._bytes, a._bytes));
+        long total = getTotalBytes();
+        StringBuilder buf = new StringBuilder();
+        buf.append("Memory [").append(_name).append("]: ").append(String.format("%.1f MB", total / (1024d * 1024d)))
+                .append('\n');
+        for (Component component : sorted) {
+            buf.append(String.format("  %-48s %12s %10.1f MB %5.1f %%%n", component._name,
+                    component._count >= 0 ? component._count : "", component._bytes / (1024d * 1024d),
+                    total == 0 ? 0d : 100d * component._bytes / total));
+        }
+        return buf.toString();
+    }
+
+    // ===== Layout estimates
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * @return the size of an object with the given number of reference fields and bytes of primitive fields.
+     */
+    public static long objectBytes(int references, int primitiveBytes) {
+        return align(OBJECT_HEADER_BYTES + references * REFERENCE_BYTES + primitiveBytes);
+    }
+
+    public static long arrayBytes(int elementBytes, long length) {
+        return align(ARRAY_HEADER_BYTES + elementBytes * length);
+    }
+
+    public static long referenceArrayBytes(long length) {
+        return arrayBytes(REFERENCE_BYTES, length);
+    }
+
+    /**
+     * @return the size of a String of Latin-1 text, with its array.
+     */
+    public static long stringBytes(int length) {
+        return COMPACT_STRINGS
+                ? objectBytes(1, 4 + 1) + arrayBytes(1, length)
+                : objectBytes(1, 4) + arrayBytes(2, length);
+    }
+
+    /**
+     * @return the size of an ArrayList made with the given initial capacity and grown by adds to the given size,
+     *         with its backing array.
+     */
+    public static long arrayListBytes(int initialCapacity, int size) {
+        long capacity = initialCapacity;
+        while (capacity < size) {
+            capacity = Math.max(capacity + (capacity >> 1), 1);
+        }
+        // modCount and size, and the elementData reference.
+        return objectBytes(1, 4 + 4) + referenceArrayBytes(capacity);
+    }
+
+    /**
+     * @return the size of a TreeMap node: key, value, left, right and parent, and the color.
+     */
+    public static long treeMapEntryBytes() {
+        return objectBytes(5, 1);
+    }
+
+    // ===== ND4J
+
+    /**
+     * Reports the ND4J (JavaCPP) off-heap memory: the parameters of the given networks, the workspaces of the
+     * <i>current thread</i>, and the rest of the allocated off-heap memory, which together add up to
+     * <code>Pointer.totalBytes()</code>. Workspaces are thread local, so this only sees them when invoked on e.g. the
+     * training thread - elsewhere, use {@link #forNd4j(Map, Map, Map)} with sizes captured on the threads that own them.
+     */
+    public static MemoryReport forNd4j(Map<String, MultiLayerNetwork> networks) {
+        return forNd4j(networks, Collections.emptyMap(), currentThreadWorkspaceBytes());
+    }
+
+    /**
+     * Reports the ND4J (JavaCPP) off-heap memory: the parameters of the given networks, the given workspace sizes (e.g.
+     * as captured by {@link #currentThreadWorkspaceBytes()} on the training threads), and the rest of the allocated
+     * off-heap memory, which together add up to <code>Pointer.totalBytes()</code>. The parameters are only counted if
+     * in off-heap buffers, i.e. with the default CPU backend.
+     * <p>
+     * The parameters of <code>mappedNetworks</code> live in a memory-mapped file (see
+     * <code>MappedModelSerializer</code>), which JavaCPP doesn't allocate, and so doesn't count: they are reported
+     * separately, and not subtracted from JavaCPP's total. Should the parameters and workspaces still exceed that
+     * total, the excess is reported as an accounting error, rather than hidden.
+     */
+    public static MemoryReport forNd4j(Map<String, MultiLayerNetwork> networks,
+            Map<String, MultiLayerNetwork> mappedNetworks, Map<String, Long> workspaceBytes) {
+        MemoryReport report = new MemoryReport("nd4j");
+        long accounted = 0;
+        for (Entry<String, MultiLayerNetwork> entry : networks.entrySet()) {
+            long length = entry.getValue().params().length();
+            long bytes = length * Nd4j.sizeOfDataType();
+            report.add("params [" + entry.getKey() + "]", length, bytes);
+            accounted += bytes;
+        }
+        for (Entry<String, MultiLayerNetwork> entry : mappedNetworks.entrySet()) {
+            long length = entry.getValue().params().length();
+            report.add("params [" + entry.getKey() + "] (memory-mapped, not JavaCPP)", length,
+                    length * Nd4j.sizeOfDataType());
+        }
+        for (Entry<String, Long> entry : workspaceBytes.entrySet()) {
+            report.add("workspace [" + entry.getKey() + "]", -1, entry.getValue());
+            accounted += entry.getValue();
+        }
+        long other = Pointer.totalBytes() - accounted;
+        if (other >= 0) {
+            report.add("other off-heap (JavaCPP, of max " + Pointer.maxBytes() + ")", -1, other);
+        }
+        else {
+            report.add("accounting error: params and workspaces exceed JavaCPP total [" + Pointer.totalBytes()
+                    + "] by", -1, -other);
+        }
+        return report;
+    }
+
+    /**
+     * @return the current size of each of the current thread's ND4J workspaces, by workspace id.
+     */
+    public static Map<String, Long> currentThreadWorkspaceBytes() {
+        List<MemoryWorkspace> workspaces = Nd4j.getWorkspaceManager().getAllWorkspacesForCurrentThread();
+        if ((workspaces == null) || workspaces.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> workspaceBytes = new LinkedHashMap<>();
+        for (MemoryWorkspace workspace : workspaces) {
+            workspaceBytes.put(workspace.getId(), workspace.getCurrentSize());
+        }
+        return workspaceBytes;
+    }
+}
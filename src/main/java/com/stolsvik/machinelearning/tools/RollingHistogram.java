@@ -0,0 +1,139 @@
+package com.stolsvik.machinelearning.tools;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the last <code>windowSize</code> recorded values in a ring buffer, and computes count, min, max, mean and
+ * percentiles over that window on demand. Recording is O(1) and allocation free; the statistics are computed by
+ * sorting a copy of the window, so they are meant for periodic reporting, not for the hot path.
+ * <p>
+ * Thread safe: values are typically recorded by one thread (e.g. the training thread) and read by another (e.g. an
+ * actuator endpoint).
+ */
+public class RollingHistogram {
+
+    private final double[] _window;
+    private long _totalCount;
+
+    public RollingHistogram(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1, was [" + windowSize + "].");
+        }
+        _window = new double[windowSize];
+    }
+
+    public synchronized void record(double value) {
+        _window[(int) (_totalCount % _window.length)] = value;
+        _totalCount++;
+    }
+
+    /**
+     * @return the total number of values recorded, not only those still in the window.
+     */
+    public synchronized long getTotalCount() {
+        return _totalCount;
+    }
+
+    public Snapshot snapshot() {
+        double[] values;
+        long totalCount;
+        synchronized (this) {
+            totalCount = _totalCount;
+            values = Arrays.copyOf(_window, (int) Math.min(_totalCount, _window.length));
+        }
+        Arrays.sort(values);
+        return new Snapshot(totalCount, values);
+    }
+
+    /**
+     * Immutable statistics over the window at the time of {@link #snapshot()}.
+     */
+    public static class Snapshot {
+        private final long _totalCount;
+        private final double[] _sortedValues;
+
+        private Snapshot(long totalCount, double[] sortedValues) {
+            _totalCount = totalCount;
+            _sortedValues = sortedValues;
+        }
+
+        public long getTotalCount() {
+            return _totalCount;
+        }
+
+        public int getWindowCount() {
+            return _sortedValues.length;
+        }
+
+        public double getMin() {
+            return _sortedValues.length == 0 ? Double.NaN : _sortedValues[0];
+        }
+
+        public double getMax() {
+            return _sortedValues.length == 0 ? Double.NaN : _sortedValues[_sortedValues.length - 1];
+        }
+
+        public double getMean() {
+            if (_sortedValues.length == 0) {
+                return Double.NaN;
+            }
+            double sum = 0;
+            for (double value : _sortedValues) {
+                sum += value;
+            }
+            return sum / _sortedValues.length;
+        }
+
+        /**
+         * @param percentile 0-100, using nearest-rank.
+         */
+        public double getPercentile(double percentile) {
+            if (_sortedValues.length == 0) {
+                return Double.NaN;
+            }
+            int rank = (int) Math.ceil(percentile / 100d * _sortedValues.length);
+            return _sortedValues[Math.max(0, Math.min(_sortedValues.length - 1, rank - 1))];
+        }
+
+        /**
+         * Counts the values in the window into <code>buckets</code> equally wide buckets between min and max.
+         */
+        public long[] getBucketCounts(int buckets) {
+            long[] counts = new long[buckets];
+            if (_sortedValues.length == 0) {
+                return counts;
+            }
+            double min = getMin();
+            double width = (getMax() - min) / buckets;
+            for (double value : _sortedValues) {
+                int bucket = width == 0 ? 0 : (int) ((value - min) / width);
+                counts[Math.min(buckets - 1, bucket)]++;
+            }
+            return counts;
+        }
+
+        /**
+         * @return the statistics as a map, suitable for JSON rendering, e.g. in an actuator endpoint.
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", _totalCount);
+            map.put("window", _sortedValues.length);
+            map.put("min", getMin());
+            map.put("mean", getMean());
+            map.put("p50", getPercentile(50));
+            map.put("p90", getPercentile(90));
+            map.put("p99", getPercentile(99));
+            map.put("max", getMax());
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mean:%.3f, p50:%.3f, p90:%.3f, p99:%.3f, max:%.3f",
+                    getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+        }
+    }
+}
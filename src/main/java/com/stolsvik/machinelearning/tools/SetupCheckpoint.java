@@ -0,0 +1,406 @@
+package com.stolsvik.machinelearning.tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A file holding the result of an expensive setup - named values, e.g. the variables of the
+ * {@link ExploratoryGroovyLooper}'s Binding - so that a new JVM can restore them instead of running the setup again.
+ * The checkpoint is tied to a key given by the user, which should change whenever the setup would give another result
+ * - e.g. the name of the data file it loads. A checkpoint with another key is ignored (and overwritten by the next
+ * save).
+ * <p>
+ * Each value is written by the first {@link CheckpointCodec} that can take it: first those added with
+ * {@link #withCodec(CheckpointCodec)}, then the {@link PrimitiveArrayCodec}, which bulk-copies primitive arrays (also
+ * nested, like <code>double[][]</code>), and finally the {@link SerializableCodec}, which takes anything
+ * {@link Serializable}. If some value can't be written by any of them, no checkpoint is written.
+ * <p>
+ * Layout: magic (int), key (UTF), value count (int), then per value its name (UTF), its codec's name (UTF) and what the
+ * codec wrote. Written to a temporary file and then atomically renamed, so a crash never leaves a partial checkpoint.
+ */
+public class SetupCheckpoint {
+
+    private static final Logger log = LoggerFactory.getLogger(SetupCheckpoint.class);
+
+    private static final int MAGIC = 0x53435031; // "SCP1"
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final List<CheckpointCodec> DEFAULT_CODECS = Arrays.asList(new PrimitiveArrayCodec(),
+            new SerializableCodec());
+
+    private final File _file;
+    private final String _key;
+    private final List<CheckpointCodec> _codecs = new ArrayList<>();
+
+    public SetupCheckpoint(File file, String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key must be set.");
+        }
+        _file = file;
+        _key = key;
+    }
+
+    /**
+     * Adds a codec, which is tried before the default ones - and before those added after it.
+     */
+    public SetupCheckpoint withCodec(CheckpointCodec codec) {
+        _codecs.add(codec);
+        return this;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    public String getKey() {
+        return _key;
+    }
+
+    /**
+     * @return the values of the checkpoint, or <code>null</code> if there is no checkpoint, it is for another key, or
+     *         it couldn't be read.
+     */
+    public Map<String, Object> restore() {
+        if (!_file.isFile()) {
+            return null;
+        }
+        long nanosStart = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file),
+                BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                log.warn("Checkpoint [" + _file + "] has the wrong format, ignoring it.");
+                return null;
+            }
+            String key = in.readUTF();
+            if (!key.equals(_key)) {
+                log.info("Checkpoint [" + _file + "] is for key [" + key + "], not [" + _key + "] - ignoring it.");
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                String codecName = in.readUTF();
+                CheckpointCodec codec = codecNamed(codecName);
+                if (codec == null) {
+                    log.warn("Checkpoint [" + _file + "] has value [" + name + "] written by codec [" + codecName
+                            + "], which isn't added - ignoring the checkpoint.");
+                    return null;
+                }
+                values.put(name, codec.read(in));
+            }
+            log.info("Restored [" + count + "] values from checkpoint [" + _file + "], took ["
+                    + ((System.nanoTime() - nanosStart) / 1_000_000) + " ms].");
+            return values;
+        }
+        catch (IOException | RuntimeException e) {
+            log.warn("Couldn't read checkpoint [" + _file + "], ignoring it.", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the checkpoint was written - false if some value has no codec, or the write failed.
+     */
+    public boolean save(Map<String, ?> values) {
+        long nanosStart = System.nanoTime();
+        Map<String, CheckpointCodec> codecs = new LinkedHashMap<>();
+        for (Entry<String, ?> entry : values.entrySet()) {
+            CheckpointCodec codec = codecFor(entry.getValue());
+            if (codec == null) {
+                log.warn("No checkpoint codec can write value [" + entry.getKey() + "] of type ["
+                        + entry.getValue().getClass().getName() + "] - not writing checkpoint [" + _file + "].");
+                return false;
+            }
+            codecs.put(entry.getKey(), codec);
+        }
+        File tempFile = new File(_file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile),
+                    BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(_key);
+                out.writeInt(values.size());
+                for (Entry<String, CheckpointCodec> entry : codecs.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue().getName());
+                    entry.getValue().write(values.get(entry.getKey()), out);
+                }
+            }
+            Files.move(tempFile.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException | RuntimeException e) {
+            log.warn("Couldn't write checkpoint [" + _file + "].", e);
+            tempFile.delete();
+            return false;
+        }
+        log.info("Wrote [" + values.size() + "] values to checkpoint [" + _file + "] (" + (_file.length() / 1024)
+                + " KB), took [" + ((System.nanoTime() - nanosStart) / 1_000_000) + " ms].");
+        return true;
+    }
+
+    private CheckpointCodec codecFor(Object value) {
+        for (CheckpointCodec codec : _codecs) {
+            if (codec.canWrite(value)) {
+                return codec;
+            }
+        }
+        for (CheckpointCodec codec : DEFAULT_CODECS) {
+            if (codec.canWrite(value)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    private CheckpointCodec codecNamed(String name) {
+        for (CheckpointCodec codec : _codecs) {
+            if (codec.getName().equals(name)) {
+                return codec;
+            }
+        }
+        for (CheckpointCodec codec : DEFAULT_CODECS) {
+            if (codec.getName().equals(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Primitive arrays of byte, int, long, float and double - and arrays of those, to any depth - copied in bulk
+     * through a ByteBuffer instead of element by element through the stream.
+     */
+    public static class PrimitiveArrayCodec implements CheckpointCodec {
+        private static final int CHUNK_BYTES = 64 * 1024;
+
+        private static final byte NULL = 0;
+        private static final byte BYTES = 1;
+        private static final byte INTS = 2;
+        private static final byte LONGS = 3;
+        private static final byte FLOATS = 4;
+        private static final byte DOUBLES = 5;
+        private static final byte NESTED = 6;
+
+        @Override
+        public String getName() {
+            return "primitive-arrays-v1";
+        }
+
+        @Override
+        public boolean canWrite(Object value) {
+            if ((value == null) || !value.getClass().isArray()) {
+                return false;
+            }
+            Class<?> leaf = value.getClass();
+            while (leaf.isArray()) {
+                leaf = leaf.getComponentType();
+            }
+            return (leaf == byte.class) || (leaf == int.class) || (leaf == long.class) || (leaf == float.class)
+                    || (leaf == double.class);
+        }
+
+        @Override
+        public void write(Object value, DataOutputStream out) throws IOException {
+            writeArray(value, out, ByteBuffer.allocate(CHUNK_BYTES));
+        }
+
+        @Override
+        public Object read(DataInputStream in) throws IOException {
+            return readArray(in, ByteBuffer.allocate(CHUNK_BYTES));
+        }
+
+        @FunctionalInterface
+        private interface ChunkCopier {
+            /**
+             * Copies <code>count</code> elements, starting at array index <code>from</code>, between the array and
+             * the start of the buffer.
+             */
+            void copy(ByteBuffer buffer, int from, int count);
+        }
+
+        private static void writeArray(Object value, DataOutputStream out, ByteBuffer buffer) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            }
+            else if (value instanceof byte[]) {
+                byte[] array = (byte[]) value;
+                out.writeByte(BYTES);
+                out.writeInt(array.length);
+                out.write(array);
+            }
+            else if (value instanceof int[]) {
+                int[] array = (int[]) value;
+                out.writeByte(INTS);
+                writeChunked(out, buffer, array.length, 4, (b, from, count) -> b.asIntBuffer().put(array, from,
+                        count));
+            }
+            else if (value instanceof long[]) {
+                long[] array = (long[]) value;
+                out.writeByte(LONGS);
+                writeChunked(out, buffer, array.length, 8, (b, from, count) -> b.asLongBuffer().put(array, from,
+                        count));
+            }
+            else if (value instanceof float[]) {
+                float[] array = (float[]) value;
+                out.writeByte(FLOATS);
+                writeChunked(out, buffer, array.length, 4, (b, from, count) -> b.asFloatBuffer().put(array, from,
+                        count));
+            }
+            else if (value instanceof double[]) {
+                double[] array = (double[]) value;
+                out.writeByte(DOUBLES);
+                writeChunked(out, buffer, array.length, 8, (b, from, count) -> b.asDoubleBuffer().put(array, from,
+                        count));
+            }
+            else {
+                Object[] array = (Object[]) value;
+                out.writeByte(NESTED);
+                out.writeUTF(value.getClass().getComponentType().getName());
+                out.writeInt(array.length);
+                for (Object element : array) {
+                    writeArray(element, out, buffer);
+                }
+            }
+        }
+
+        private static Object readArray(DataInputStream in, ByteBuffer buffer) throws IOException {
+            byte type = in.readByte();
+            switch (type) {
+                case NULL:
+                    return null;
+                case BYTES: {
+                    byte[] array = new byte[in.readInt()];
+                    in.readFully(array);
+                    return array;
+                }
+                case INTS: {
+                    int[] array = new int[in.readInt()];
+                    readChunked(in, buffer, array.length, 4, (b, from, count) -> b.asIntBuffer().get(array, from,
+                            count));
+                    return array;
+                }
+                case LONGS: {
+                    long[] array = new long[in.readInt()];
+                    readChunked(in, buffer, array.length, 8, (b, from, count) -> b.asLongBuffer().get(array, from,
+                            count));
+                    return array;
+                }
+                case FLOATS: {
+                    float[] array = new float[in.readInt()];
+                    readChunked(in, buffer, array.length, 4, (b, from, count) -> b.asFloatBuffer().get(array, from,
+                            count));
+                    return array;
+                }
+                case DOUBLES: {
+                    double[] array = new double[in.readInt()];
+                    readChunked(in, buffer, array.length, 8, (b, from, count) -> b.asDoubleBuffer().get(array, from,
+                            count));
+                    return array;
+                }
+                case NESTED: {
+                    Class<?> componentType;
+                    try {
+                        componentType = Class.forName(in.readUTF());
+                    }
+                    catch (ClassNotFoundException e) {
+                        throw new IOException("Unknown nested array type in checkpoint.", e);
+                    }
+                    Object[] array = (Object[]) Array.newInstance(componentType, in.readInt());
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = readArray(in, buffer);
+                    }
+                    return array;
+                }
+                default:
+                    throw new IOException("Unknown array type [" + type + "] in checkpoint.");
+            }
+        }
+
+        private static void writeChunked(DataOutputStream out, ByteBuffer buffer, int length, int elementSize,
+                ChunkCopier copier) throws IOException {
+            out.writeInt(length);
+            int chunkElements = buffer.capacity() / elementSize;
+            for (int from = 0; from < length; from += chunkElements) {
+                int count = Math.min(chunkElements, length - from);
+                buffer.clear();
+                copier.copy(buffer, from, count);
+                out.write(buffer.array(), 0, count * elementSize);
+            }
+        }
+
+        private static void readChunked(DataInputStream in, ByteBuffer buffer, int length, int elementSize,
+                ChunkCopier copier) throws IOException {
+            int chunkElements = buffer.capacity() / elementSize;
+            for (int from = 0; from < length; from += chunkElements) {
+                int count = Math.min(chunkElements, length - from);
+                buffer.clear();
+                in.readFully(buffer.array(), 0, count * elementSize);
+                copier.copy(buffer, from, count);
+            }
+        }
+    }
+
+    /**
+     * Anything {@link Serializable} (and null), through Java serialization - the slow, but general, fallback.
+     */
+    public static class SerializableCodec implements CheckpointCodec {
+        @Override
+        public String getName() {
+            return "java-serialization-v1";
+        }
+
+        @Override
+        public boolean canWrite(Object value) {
+            return (value == null) || (value instanceof Serializable);
+        }
+
+        @Override
+        public void write(Object value, DataOutputStream out) throws IOException {
+            // Serialized to a byte array first, as an ObjectInputStream may read past the end of its object.
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                objectOut.writeObject(value);
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+
+        @Override
+        public Object read(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return objectIn.readObject();
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException("Unknown class of serialized value in checkpoint.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.stolsvik.machinelearning.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free ring buffer of the last N published values, for one writer thread and any number of readers - made for
+ * handing metrics from a hot loop (e.g. the training thread) to a slow consumer (e.g. a UI) without ever slowing or
+ * blocking the writer. The writer never waits for readers: a reader that falls more than the capacity behind simply
+ * misses the overwritten values.
+ * <p>
+ * The values should be immutable, since a reader may hold on to a value after the writer has moved on.
+ * <p>
+ * The writer stores value <code>s + capacity</code> into the slot of value <code>s</code> before publishing it, so
+ * while <code>capacity</code> values are published, the oldest of them may already be overwritten: a reader gets at
+ * most the last <code>capacity - 1</code>.
+ */
+public class SingleWriterRingBuffer<T> {
+
+    private final AtomicReferenceArray<T> _slots;
+    private final int _mask;
+    private final AtomicLong _published = new AtomicLong();
+
+    /**
+     * @param capacity must be a power of two, at least 2.
+     */
+    public SingleWriterRingBuffer(int capacity) {
+        if ((capacity < 2) || (Integer.bitCount(capacity) != 1)) {
+            throw new IllegalArgumentException("capacity must be a power of two, at least 2, was [" + capacity
+                    + "].");
+        }
+        _slots = new AtomicReferenceArray<>(capacity);
+        _mask = capacity - 1;
+    }
+
+    /**
+     * Publishes a value. Must only be invoked by the single writer thread. Two ordered stores, no locks, no CAS.
+     */
+    public void publish(T value) {
+        long sequence = _published.get();
+        _slots.lazySet((int) (sequence & _mask), value);
+        _published.lazySet(sequence + 1);
+    }
+
+    /**
+     * @return the number of values published so far, i.e. the sequence the next value will get.
+     */
+    public long getPublishedCount() {
+        return _published.get();
+    }
+
+    /**
+     * Hands the values published from <code>fromSequence</code> onwards - or the last <code>capacity - 1</code> of
+     * them, if the reader has fallen further behind - to the consumer, oldest first.
+     *
+     * @return the sequence to provide as <code>fromSequence</code> on the next read.
+     */
+    public long readFrom(long fromSequence, Consumer<T> consumer) {
+        long published = _published.get();
+        int capacity = _mask + 1;
+        for (long sequence = Math.max(fromSequence, published - capacity + 1); sequence < published; sequence++) {
+            T value = _slots.get((int) (sequence & _mask));
+            // If the writer has lapped us while reading, the slot may hold a newer value: skip it. At a difference of
+            // exactly capacity, the writer may have stored the next value without having published it yet.
+            if (_published.get() - sequence >= capacity) {
+                continue;
+            }
+            consumer.accept(value);
+        }
+        return published;
+    }
+}
@@ -0,0 +1,88 @@
+package com.stolsvik.machinelearning.experiment;
+
+import com.stolsvik.machinelearning.experiment.TrainingMetricsListener.Sample;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the receiving end of {@link TrainingMetricsPublisher}: samples survive the trip through a map, also with NaN
+ * as JSON renders it, and a new run with the same name replaces the old one.
+ */
+public class ReceivedTrainingMetricsTest {
+
+    @Test
+    public void sampleSurvivesMapRoundTrip() {
+        Map<String, Object> map = sample(7).toMap();
+        // As Jackson writes NaN.
+        map.put("samplesPerSecond", "NaN");
+        Sample sample = Sample.fromMap(map);
+        assertEquals(7, sample.getIteration());
+        assertEquals(0.5, sample.getScore(), 0);
+        assertTrue(Double.isNaN(sample.getSamplesPerSecond()));
+        assertEquals(-1, sample.getNextScheduleChangeIteration());
+        assertEquals(map.keySet(), sample.toMap().keySet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sampleLackingAFieldIsRejected() {
+        Map<String, Object> map = sample(1).toMap();
+        map.remove("score");
+        Sample.fromMap(map);
+    }
+
+    @Test
+    public void newRunReplacesOldRunWithSameName() {
+        String name = "ReceivedTrainingMetricsTest";
+        ReceivedTrainingMetrics.receive(name, 1000, Collections.singletonMap("iteration", 1),
+                Arrays.asList(sample(0), sample(1)));
+        ReceivedTrainingMetrics first = received(name);
+        ReceivedTrainingMetrics.receive(name, 1000, Collections.singletonMap("iteration", 2),
+                Collections.singletonList(sample(2)));
+        assertSame(first, received(name));
+        assertEquals(3, first.getSamples().getPublishedCount());
+        assertEquals(2, first.toMap().get("iteration"));
+
+        ReceivedTrainingMetrics.receive(name, 2000, Collections.singletonMap("iteration", 0),
+                Collections.singletonList(sample(0)));
+        ReceivedTrainingMetrics second = received(name);
+        assertNotSame(first, second);
+        List<Integer> iterations = new ArrayList<>();
+        second.getSamples().readFrom(0, s -> iterations.add(s.getIteration()));
+        assertEquals(Collections.singletonList(0), iterations);
+    }
+
+    private static ReceivedTrainingMetrics received(String name) {
+        for (ReceivedTrainingMetrics received : ReceivedTrainingMetrics.getReceived()) {
+            if (received.getName().equals(name)) {
+                return received;
+            }
+        }
+        throw new AssertionError("No received training [" + name + "].");
+    }
+
+    private static Sample sample(int iteration) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("iteration", iteration);
+        map.put("timestampMillis", 1_500_000_000_000L + iteration);
+        map.put("score", 0.5);
+        map.put("samplesPerSecond", 1000d);
+        map.put("learningRate", 0.01);
+        map.put("scheduleStep", -1);
+        map.put("scheduleSteps", 0);
+        map.put("nextScheduleChangeIteration", -1);
+        map.put("heapUsedMegabytes", 100d);
+        map.put("offHeapMegabytes", 200d);
+        return Sample.fromMap(map);
+    }
+}
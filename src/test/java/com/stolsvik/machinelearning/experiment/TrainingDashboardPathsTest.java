@@ -0,0 +1,39 @@
+package com.stolsvik.machinelearning.experiment;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Vaadin {@link TrainingDashboardUI} and the actuator {@link TrainingMetricsEndpoint} must not share a path, or the
+ * actuator's handler mapping shadows the dashboard.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+public class TrainingDashboardPathsTest {
+
+    @Autowired
+    private TestRestTemplate _restTemplate;
+
+    @Test
+    public void endpointAndDashboardBothRespond() {
+        ResponseEntity<String> endpoint = _restTemplate.getForEntity("/training", String.class);
+        assertEquals(HttpStatus.OK, endpoint.getStatusCode());
+        // JSON, not the Vaadin bootstrap page.
+        assertTrue(endpoint.getBody().startsWith("{"));
+
+        ResponseEntity<String> dashboard = _restTemplate.getForEntity("/dashboard", String.class);
+        assertEquals(HttpStatus.OK, dashboard.getStatusCode());
+        assertTrue(MediaType.TEXT_HTML.isCompatibleWith(dashboard.getHeaders().getContentType()));
+    }
+}
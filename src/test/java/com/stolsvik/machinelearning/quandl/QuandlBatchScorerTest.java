@@ -0,0 +1,136 @@
+package com.stolsvik.machinelearning.quandl;
+
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs {@link QuandlBatchScorer} over a small reader, and resumes it from a progress file as left by a crash.
+ */
+public class QuandlBatchScorerTest {
+
+    private static final String[] TICKERS = { "AAA", "BBB", "CCC" };
+    // BBB has fewer DataPoints than the feature window, so no rows: 40 + 0 + 55 rows.
+    private static final int[] DATA_POINTS = { 60, 10, 75 };
+    private static final int ROWS = 95;
+    private static final int OUTPUTS = 3;
+    private static final int CHUNK_SIZE = 16;
+    private static final int CHUNKS = 6;
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void resumesAfterLastCompletedChunk() throws IOException {
+        QuandlReader reader = reader();
+        MultiLayerNetwork model = model();
+        File output = new File(_folder.getRoot(), "scores.bin");
+        File progress = new File(output.getPath() + ".progress");
+
+        QuandlBatchScorer.Result full = new QuandlBatchScorer(model, 2, CHUNK_SIZE).score(reader, output);
+        assertEquals(ROWS, full.getRowsScored());
+        assertEquals(0, full.getResumedFromChunk());
+        byte[] expected = Files.readAllBytes(output.toPath());
+        assertEquals(lengthAfterChunks(CHUNKS), expected.length);
+
+        // A crash after 2 chunks, in the middle of writing the third.
+        long lengthAfter2 = lengthAfterChunks(2);
+        try (RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+            file.setLength(lengthAfter2);
+            file.seek(lengthAfter2);
+            file.write(new byte[17]);
+        }
+        writeProgress(progress, 2, lengthAfter2);
+
+        QuandlBatchScorer.Result resumed = new QuandlBatchScorer(model, 3, CHUNK_SIZE).score(reader, output);
+        assertEquals(2, resumed.getResumedFromChunk());
+        assertEquals(ROWS - 2 * CHUNK_SIZE, resumed.getRowsScored());
+        assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+
+        // Already complete: nothing to do.
+        QuandlBatchScorer.Result complete = new QuandlBatchScorer(model, 1, CHUNK_SIZE).score(reader, output);
+        assertEquals(CHUNKS, complete.getResumedFromChunk());
+        assertEquals(0, complete.getRowsScored());
+        assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void otherChunkSizeStartsOver() throws IOException {
+        QuandlReader reader = reader();
+        MultiLayerNetwork model = model();
+        File output = new File(_folder.getRoot(), "scores.bin");
+
+        new QuandlBatchScorer(model, 2, CHUNK_SIZE).score(reader, output);
+        QuandlBatchScorer.Result result = new QuandlBatchScorer(model, 2, 10).score(reader, output);
+        assertEquals(0, result.getResumedFromChunk());
+        assertEquals(ROWS, result.getRowsScored());
+    }
+
+    /**
+     * Header: magic, chunk size, outputs, total rows (long), ticker count, ticker names - then per chunk its number
+     * and row count, and per row ticker index, epoch day and the outputs.
+     */
+    private static long lengthAfterChunks(int chunks) {
+        long length = 4 + 4 + 4 + 8 + 4;
+        for (String ticker : TICKERS) {
+            length += 2 + ticker.length();
+        }
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int rows = Math.min(CHUNK_SIZE, ROWS - chunk * CHUNK_SIZE);
+            length += 8 + rows * (8 + 4 * OUTPUTS);
+        }
+        return length;
+    }
+
+    private static void writeProgress(File progress, int completedChunks, long length) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(progress))) {
+            out.writeInt(completedChunks);
+            out.writeLong(length);
+        }
+    }
+
+    private static QuandlReader reader() {
+        QuandlReader reader = new QuandlReader();
+        LocalDate start = LocalDate.of(2016, 1, 1);
+        for (int t = 0; t < TICKERS.length; t++) {
+            for (int i = 0; i < DATA_POINTS[t]; i++) {
+                double close = 10 + t + (i % 7);
+                reader.addDataPoint(TICKERS[t], start.plusDays(i), close, close + 1, close - 1, close, 1000 * i);
+            }
+        }
+        reader.buildIndexes();
+        return reader;
+    }
+
+    private static MultiLayerNetwork model() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(1)
+                .list()
+                .layer(0, new DenseLayer.Builder().nIn(QuandlFeatures.NUM_FEATURES).nOut(8)
+                        .activation(Activation.TANH).build())
+                .layer(1, new OutputLayer.Builder(LossFunction.MCXENT).activation(Activation.SOFTMAX)
+                        .nIn(8).nOut(OUTPUTS).build())
+                .build();
+        MultiLayerNetwork network = new MultiLayerNetwork(conf);
+        network.init();
+        return network;
+    }
+}
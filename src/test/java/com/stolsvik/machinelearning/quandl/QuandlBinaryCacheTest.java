@@ -0,0 +1,151 @@
+package com.stolsvik.machinelearning.quandl;
+
+import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint;
+import com.stolsvik.machinelearning.quandl.QuandlReader.Ticker;
+import com.stolsvik.machinelearning.tools.SetupCheckpoint;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round-trips a {@link QuandlReader} through the {@link QuandlBinaryCache} file, and through its
+ * {@link QuandlBinaryCache.Codec} in a {@link SetupCheckpoint}.
+ */
+public class QuandlBinaryCacheTest {
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void cacheFileRoundTrip() throws IOException {
+        QuandlReader original = reader();
+        File cacheFile = new File(_folder.getRoot(), "quandl.cache");
+        QuandlBinaryCache.write(original, cacheFile, "WIKI_PRICES_1.zip");
+
+        QuandlReader restored = new QuandlReader();
+        assertTrue(QuandlBinaryCache.read(restored, cacheFile, "WIKI_PRICES_1.zip"));
+        assertSameData(original.getTickerMap(), restored.getTickerMap());
+        assertEquals(original.getDateListMap().keySet(), restored.getDateListMap().keySet());
+        // The date index is built: AAPL's first DataPoint on or after the 3rd.
+        assertEquals(2, restored.getTickerMap().get("AAPL").indexOfFirstOnOrAfter(LocalDate.of(2017, 3, 3)));
+    }
+
+    @Test
+    public void readSharesOneLocalDatePerDateOverAWideSpan() throws IOException {
+        // Dates decades apart, and going backwards, so that the epoch-day date slots grow both ways.
+        QuandlReader original = new QuandlReader();
+        LocalDate[] starts = { LocalDate.of(2017, 3, 1), LocalDate.of(1962, 1, 2), LocalDate.of(1990, 6, 30) };
+        for (int t = 0; t < starts.length; t++) {
+            for (int i = 0; i < 3; i++) {
+                original.addDataPoint("T" + t, starts[t].plusDays(i), i, i, i, i, i);
+            }
+            // .. and one date shared by all tickers.
+            original.addDataPoint("T" + t, LocalDate.of(2018, 1, 2), t, t, t, t, t);
+        }
+        original.buildIndexes();
+        File cacheFile = new File(_folder.getRoot(), "quandl.cache");
+        QuandlBinaryCache.write(original, cacheFile, "WIKI_PRICES_1.zip");
+
+        QuandlReader restored = new QuandlReader();
+        assertTrue(QuandlBinaryCache.read(restored, cacheFile, "WIKI_PRICES_1.zip"));
+        assertSameData(original.getTickerMap(), restored.getTickerMap());
+        assertEquals(original.getDateListMap().keySet(), restored.getDateListMap().keySet());
+        for (Map.Entry<LocalDate, List<DataPoint>> entry : restored.getDateListMap().entrySet()) {
+            for (DataPoint dataPoint : entry.getValue()) {
+                assertSame(entry.getKey(), dataPoint.getDate());
+            }
+        }
+        assertEquals(3, restored.getDateListMap().get(LocalDate.of(2018, 1, 2)).size());
+    }
+
+    @Test
+    public void cacheFromOtherZipIsIgnored() throws IOException {
+        File cacheFile = new File(_folder.getRoot(), "quandl.cache");
+        QuandlBinaryCache.write(reader(), cacheFile, "WIKI_PRICES_1.zip");
+
+        QuandlReader restored = new QuandlReader();
+        assertFalse(QuandlBinaryCache.read(restored, cacheFile, "WIKI_PRICES_2.zip"));
+        assertTrue(restored.getTickerMap().isEmpty());
+    }
+
+    @Test
+    public void codecRoundTripsReaderAndTickerMap() {
+        QuandlReader original = reader();
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("reader", original);
+        values.put("tickers", original.getTickerMap());
+        File file = new File(_folder.getRoot(), "setup.checkpoint");
+        assertTrue(new SetupCheckpoint(file, "key").withCodec(new QuandlBinaryCache.Codec()).save(values));
+
+        // Without the codec added, the checkpoint can't be read.
+        assertEquals(null, new SetupCheckpoint(file, "key").restore());
+
+        Map<String, Object> restored = new SetupCheckpoint(file, "key").withCodec(new QuandlBinaryCache.Codec())
+                .restore();
+        assertTrue(restored.get("reader") instanceof QuandlReader);
+        assertSameData(original.getTickerMap(), ((QuandlReader) restored.get("reader")).getTickerMap());
+        @SuppressWarnings("unchecked")
+        Map<String, Ticker> tickers = (Map<String, Ticker>) restored.get("tickers");
+        assertSameData(original.getTickerMap(), tickers);
+    }
+
+    @Test
+    public void codecTakesOnlyReadersAndTickerMaps() {
+        QuandlBinaryCache.Codec codec = new QuandlBinaryCache.Codec();
+        assertTrue(codec.canWrite(reader()));
+        assertTrue(codec.canWrite(reader().getTickerMap()));
+        assertFalse(codec.canWrite(new LinkedHashMap<>()));
+        Map<String, Object> mixed = new LinkedHashMap<>(reader().getTickerMap());
+        mixed.put("other", "value");
+        assertFalse(codec.canWrite(mixed));
+        assertFalse(codec.canWrite("text"));
+    }
+
+    private static void assertSameData(Map<String, Ticker> expected, Map<String, Ticker> actual) {
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+        for (Ticker ticker : expected.values()) {
+            List<DataPoint> expectedPoints = ticker.getDataPoints();
+            List<DataPoint> actualPoints = actual.get(ticker.getTickerName()).getDataPoints();
+            assertEquals(expectedPoints.size(), actualPoints.size());
+            for (int i = 0; i < expectedPoints.size(); i++) {
+                DataPoint e = expectedPoints.get(i);
+                DataPoint a = actualPoints.get(i);
+                assertEquals(e.getDate(), a.getDate());
+                assertEquals(e.getAdjustedOpen(), a.getAdjustedOpen(), 0);
+                assertEquals(e.getAdjustedHigh(), a.getAdjustedHigh(), 0);
+                assertEquals(e.getAdjustedLow(), a.getAdjustedLow(), 0);
+                assertEquals(e.getAdjustedClose(), a.getAdjustedClose(), 0);
+                assertEquals(e.getAdjustedVolume(), a.getAdjustedVolume(), 0);
+                assertEquals(ticker.getTickerName(), a.getTicker().getTickerName());
+            }
+        }
+    }
+
+    private static QuandlReader reader() {
+        QuandlReader reader = new QuandlReader();
+        LocalDate start = LocalDate.of(2017, 3, 1);
+        for (int i = 0; i < 40; i++) {
+            reader.addDataPoint("AAPL", start.plusDays(i), 130 + i * 0.25, 131 + i, 129 - i, 130.5 + i / 3d, 1e6 + i);
+        }
+        // A single DataPoint, and a ticker name outside ASCII.
+        reader.addDataPoint("\u00d8", start, 1, 2, 0.5, 1.5, 0);
+        for (int i = 0; i < 5; i++) {
+            reader.addDataPoint("IBM", start.plusDays(2 * i), Double.NaN, 0, -0d, Double.MAX_VALUE, 7);
+        }
+        reader.buildIndexes();
+        return reader;
+    }
+}
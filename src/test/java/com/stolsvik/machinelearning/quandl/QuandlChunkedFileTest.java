@@ -0,0 +1,121 @@
+package com.stolsvik.machinelearning.quandl;
+
+import com.stolsvik.machinelearning.quandl.QuandlChunkedFile.Chunk;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Converts CSV lines into a {@link QuandlChunkedFile}, and checks the index and that
+ * {@link QuandlChunkedFile#openParallel(File, int)} gives the same CSV back.
+ */
+public class QuandlChunkedFileTest {
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void otherOrTruncatedFileHasNoSourceName() throws IOException {
+        File other = _folder.newFile("other.chunks");
+        Files.write(other.toPath(), "ticker,date,open\n".getBytes(StandardCharsets.UTF_8));
+        assertNull(QuandlChunkedFile.readSourceName(other));
+
+        File chunkedFile = new File(_folder.getRoot(), "quandl_wiki.chunks");
+        QuandlChunkedFile.convert(new BufferedReader(new StringReader(csv(2, 3))), "WIKI_PRICES_1.zip", chunkedFile);
+        try (RandomAccessFile file = new RandomAccessFile(chunkedFile, "rw")) {
+            // Magic, and the start of the source name only.
+            file.setLength(4 + 2 + 3);
+        }
+        assertNull(QuandlChunkedFile.readSourceName(chunkedFile));
+    }
+
+    @Test
+    public void roundTripOverManyChunks() throws IOException {
+        // ~40 bytes per line, 200 tickers of 500 lines: ~4 MB, i.e. a few chunks of ~1 MB.
+        String csv = csv(200, 500);
+        File chunkedFile = new File(_folder.getRoot(), "quandl_wiki.chunks");
+        QuandlChunkedFile.convert(new BufferedReader(new StringReader(csv)), "WIKI_PRICES_1.zip", chunkedFile);
+
+        assertEquals("WIKI_PRICES_1.zip", QuandlChunkedFile.readSourceName(chunkedFile));
+        List<Chunk> chunks = QuandlChunkedFile.readIndex(chunkedFile);
+        assertTrue("Only [" + chunks.size() + "] chunks.", chunks.size() > 3);
+        int lines = 0;
+        long uncompressed = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            lines += chunk._lines;
+            uncompressed += chunk._uncompressedLength;
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk._uncompressedLength >= QuandlChunkedFile.TARGET_CHUNK_BYTES);
+                // Cut at a ticker change: no ticker in two chunks.
+                assertNotEquals(chunk._lastTicker, chunks.get(i + 1)._firstTicker);
+                assertEquals(chunk._offset + chunk._compressedLength, chunks.get(i + 1)._offset);
+            }
+        }
+        assertEquals("T000", chunks.get(0)._firstTicker);
+        assertEquals("T199", chunks.get(chunks.size() - 1)._lastTicker);
+        assertEquals(200 * 500, lines);
+        assertEquals(csv.length(), uncompressed);
+
+        for (int threads : new int[] { 1, 3 }) {
+            assertEquals(csv, readAll(QuandlChunkedFile.openParallel(chunkedFile, threads)));
+        }
+    }
+
+    @Test
+    public void singleChunkAndEmpty() throws IOException {
+        String csv = csv(3, 2);
+        File chunkedFile = new File(_folder.getRoot(), "small.chunks");
+        QuandlChunkedFile.convert(new BufferedReader(new StringReader(csv)), "small.zip", chunkedFile);
+        List<Chunk> chunks = QuandlChunkedFile.readIndex(chunkedFile);
+        assertEquals(1, chunks.size());
+        assertEquals(6, chunks.get(0)._lines);
+        assertEquals("T000", chunks.get(0)._firstTicker);
+        assertEquals("T002", chunks.get(0)._lastTicker);
+        assertEquals(csv, readAll(QuandlChunkedFile.openParallel(chunkedFile, 2)));
+
+        File emptyFile = new File(_folder.getRoot(), "empty.chunks");
+        QuandlChunkedFile.convert(new BufferedReader(new StringReader("")), "empty.zip", emptyFile);
+        assertEquals(0, QuandlChunkedFile.readIndex(emptyFile).size());
+        assertEquals("", readAll(QuandlChunkedFile.openParallel(emptyFile, 2)));
+    }
+
+    private static String csv(int tickers, int linesPerTicker) {
+        StringBuilder csv = new StringBuilder();
+        for (int t = 0; t < tickers; t++) {
+            for (int i = 0; i < linesPerTicker; i++) {
+                csv.append(String.format("T%03d,2016-%02d-%02d,%d.25,%d.5,%d,%d.75,%d\n", t, 1 + i % 12,
+                        1 + i % 28, i, i + 1, i, t, 1000 * i));
+            }
+        }
+        return csv.toString();
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[7919];
+            int read;
+            while ((read = stream.read(buffer, 0, buffer.length)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toString("UTF-8");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.stolsvik.machinelearning.quandl;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs {@link QuandlPersister} against an embedded H2 database, i.e. through the JDBC batch path.
+ */
+public class QuandlPersisterTest {
+
+    @Test
+    public void persistsAllDataPointsIntoYearTables() throws SQLException {
+        QuandlReader reader = new QuandlReader();
+        String[] tickers = { "AAPL", "IBM", "MSFT", "ORCL", "XOM" };
+        LocalDate start = LocalDate.of(2014, 12, 1);
+        int days = 100;
+        for (String ticker : tickers) {
+            for (int i = 0; i < days; i++) {
+                reader.addDataPoint(ticker, start.plusDays(i), i, i + 1, i - 1, i + 0.5, 1000 * i);
+            }
+        }
+        reader.buildIndexes();
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:quandl_persister_test;DB_CLOSE_DELAY=-1");
+
+        // Batch size and writer count chosen so that batches and ranges don't divide evenly.
+        QuandlPersister.Result result = new QuandlPersister(dataSource, 3, 7).persist(reader);
+        assertEquals(tickers.length * days, result.getRows());
+
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            assertEquals(tickers.length * days, count(statement, "SELECT COUNT(*) FROM " + QuandlPersister.TABLE));
+            // 2014-12-01 + 100 days: 31 days of December in 2014, the rest in 2015.
+            assertEquals(tickers.length * 31, count(statement, "SELECT COUNT(*) FROM "
+                    + QuandlPersister.partition(2014)));
+            assertEquals(tickers.length * (days - 31), count(statement, "SELECT COUNT(*) FROM "
+                    + QuandlPersister.partition(2015)));
+            try (ResultSet rs = statement.executeQuery("SELECT adj_close, adj_volume FROM "
+                    + QuandlPersister.TABLE + " WHERE ticker = 'MSFT' AND date = '2015-01-01'")) {
+                rs.next();
+                assertEquals(31.5, rs.getDouble(1), 0);
+                assertEquals(31_000, rs.getDouble(2), 0);
+            }
+        }
+    }
+
+    private static long count(Statement statement, String sql) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.stolsvik.machinelearning.quandl;
+
+import com.stolsvik.machinelearning.quandl.QuandlReader.DataPoint;
+import org.junit.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the {@link QuandlSeries} kernels, sequential and parallel, over tickers of different lengths - including one
+ * shorter than the rolling window.
+ */
+public class QuandlSeriesTest {
+
+    private static final LocalDate START = LocalDate.of(2017, 1, 2);
+    private static final int START_DAY = (int) START.toEpochDay();
+
+    @Test
+    public void rollingDatesEachWindowAtItsLastDay() {
+        for (QuandlSeries series : bothModes(closes())) {
+            QuandlSeries sums = series.rolling(3, QuandlSeriesTest::sum);
+            int a = sums.indexOf("A");
+            // A: 1..6 - windows of 3 sum to 6, 9, 12, 15.
+            assertArrayEquals(new double[] { 6, 9, 12, 15 }, sums.getValues(a), 0);
+            assertArrayEquals(new int[] { START_DAY + 2, START_DAY + 3, START_DAY + 4, START_DAY + 5 },
+                    sums.getEpochDays(a));
+            // B has 2 values, fewer than the window: no windows, no dates.
+            int b = sums.indexOf("B");
+            assertEquals(0, sums.getValues(b).length);
+            assertEquals(0, sums.getEpochDays(b).length);
+            // C: a single value, window 1 is the identity.
+            QuandlSeries same = series.rolling(1, QuandlSeriesTest::sum);
+            assertArrayEquals(series.getValues(series.indexOf("C")), same.getValues(same.indexOf("C")), 0);
+            assertArrayEquals(series.getEpochDays(series.indexOf("C")), same.getEpochDays(same.indexOf("C")));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rollingRejectsEmptyWindow() {
+        closes().rolling(0, QuandlSeriesTest::sum);
+    }
+
+    @Test
+    public void filterKeepsDatesOfKeptValues() {
+        for (QuandlSeries series : bothModes(closes())) {
+            QuandlSeries even = series.filter(value -> value % 2 == 0);
+            int a = even.indexOf("A");
+            assertArrayEquals(new double[] { 2, 4, 6 }, even.getValues(a), 0);
+            assertArrayEquals(new int[] { START_DAY + 1, START_DAY + 3, START_DAY + 5 }, even.getEpochDays(a));
+            // C's single value 7 is odd: C is kept, empty.
+            assertEquals(3, even.getTickerCount());
+            assertEquals(0, even.getValues(even.indexOf("C")).length);
+            assertEquals(0, even.getEpochDays(even.indexOf("C")).length);
+            // B: 10 and 20 both kept.
+            assertEquals(3 + 2, even.size());
+        }
+    }
+
+    @Test
+    public void reduceAndMean() {
+        for (QuandlSeries series : bothModes(closes())) {
+            // A: 1..6, B: 10, 20, C: 7.
+            assertEquals(21 + 30 + 7, series.sum(), 0);
+            assertEquals(58 / 9d, series.mean(), 1e-12);
+            assertEquals(20, series.reduce(Double.NEGATIVE_INFINITY, Math::max), 0);
+            assertArrayEquals(new double[] { 21, 30, 7 }, series.reduceByTicker(0, Double::sum), 0);
+            assertEquals(42 + 60 + 14, series.map(value -> 2 * value).sum(), 0);
+        }
+    }
+
+    private static QuandlSeries[] bothModes(QuandlSeries series) {
+        return new QuandlSeries[] { series.sequential(), series.parallel() };
+    }
+
+    private static double sum(double[] values, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    private static QuandlSeries closes() {
+        QuandlReader reader = new QuandlReader();
+        for (int i = 0; i < 6; i++) {
+            add(reader, "A", i, i + 1);
+        }
+        add(reader, "B", 0, 10);
+        add(reader, "B", 1, 20);
+        add(reader, "C", 4, 7);
+        reader.buildIndexes();
+        return QuandlSeries.of(reader.getTickerMap(), DataPoint::getAdjustedClose);
+    }
+
+    private static void add(QuandlReader reader, String ticker, int day, double close) {
+        reader.addDataPoint(ticker, START.plusDays(day), close, close, close, close, 100);
+    }
+}
@@ -0,0 +1,125 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests {@link InferenceCache}: hits on equal features, LRU eviction, and that a swapped model's entries - also
+ * those put after the swap - are never returned, and are dropped.
+ */
+public class InferenceCacheTest {
+
+    private static final ModelRegistry REGISTRY = new ModelRegistry(null);
+
+    @Test
+    public void hitsOnEqualFeaturesOfSameVersion() {
+        InferenceCache cache = new InferenceCache(true, 100);
+        ModelVersion v1 = version("m", 1);
+        double[] features = { 1, 2, 3 };
+        Prediction prediction = new Prediction(new double[] { 0.5 }, v1);
+        cache.put(features, prediction);
+
+        // The key is a copy: changing the caller's array doesn't change the entry.
+        features[0] = 99;
+        assertNull(cache.get(v1, features));
+        assertSame(prediction, cache.get(v1, new double[] { 1, 2, 3 }));
+        assertNull(cache.get(version("m", 2), new double[] { 1, 2, 3 }));
+        assertNull(cache.get(version("other", 1), new double[] { 1, 2, 3 }));
+        // -0.0 has other bits than 0.0.
+        cache.put(new double[] { 0.0 }, prediction);
+        assertNull(cache.get(v1, new double[] { -0.0 }));
+
+        Map<String, Number> metrics = metrics(cache);
+        assertEquals(1L, metrics.get("inference.cache.hits"));
+        assertEquals(4L, metrics.get("inference.cache.misses"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        InferenceCache cache = new InferenceCache(true, 3);
+        ModelVersion v1 = version("m", 1);
+        for (int i = 0; i < 3; i++) {
+            cache.put(new double[] { i }, new Prediction(new double[] { i }, v1));
+        }
+        // Touch 0, so that 1 is the eldest.
+        cache.get(v1, new double[] { 0 });
+        cache.put(new double[] { 3 }, new Prediction(new double[] { 3 }, v1));
+
+        assertNull(cache.get(v1, new double[] { 1 }));
+        assertEquals(0, cache.get(v1, new double[] { 0 }).getOutput()[0], 0);
+        assertEquals(3, cache.get(v1, new double[] { 3 }).getOutput()[0], 0);
+        assertEquals(1L, metrics(cache).get("inference.cache.evictions"));
+    }
+
+    @Test
+    public void putOfSwappedVersionIsDropped() {
+        InferenceCache cache = new InferenceCache(true, 100);
+        ModelVersion v1 = version("m", 1);
+        ModelVersion v2 = version("m", 2);
+        cache.onModelSwapped(new ModelSwappedEvent(REGISTRY, "m", v1, v2));
+
+        // An inference on v1 that completed after the swap.
+        cache.put(new double[] { 1 }, new Prediction(new double[] { 1 }, v1));
+        assertNull(cache.get(v1, new double[] { 1 }));
+        assertEquals(0, metrics(cache).get("inference.cache.size"));
+
+        cache.put(new double[] { 1 }, new Prediction(new double[] { 2 }, v2));
+        assertEquals(2, cache.get(v2, new double[] { 1 }).getOutput()[0], 0);
+
+        // Retired: no version is current any more.
+        cache.onModelSwapped(new ModelSwappedEvent(REGISTRY, "m", v2, null));
+        cache.put(new double[] { 2 }, new Prediction(new double[] { 2 }, v2));
+        assertNull(cache.get(v2, new double[] { 2 }));
+    }
+
+    @Test
+    public void staleEntriesAreDroppedLazilyFromTheLruEnd() {
+        InferenceCache cache = new InferenceCache(true, 100);
+        ModelVersion v1 = version("m", 1);
+        ModelVersion v2 = version("m", 2);
+        ModelVersion other = version("other", 7);
+        for (int i = 0; i < 10; i++) {
+            cache.put(new double[] { i }, new Prediction(new double[] { i }, v1));
+        }
+        cache.put(new double[] { 0 }, new Prediction(new double[] { 0 }, other));
+        cache.onModelSwapped(new ModelSwappedEvent(REGISTRY, "m", v1, v2));
+        assertEquals(11, metrics(cache).get("inference.cache.size"));
+
+        // Each put drops a few of the stale eldest, until all are gone - but never other models' entries.
+        for (int i = 0; i < 5; i++) {
+            cache.put(new double[] { 100 + i }, new Prediction(new double[] { i }, v2));
+        }
+        assertEquals(1 + 5, metrics(cache).get("inference.cache.size"));
+        assertEquals(10L, metrics(cache).get("inference.cache.invalidations"));
+        assertEquals(0, cache.get(other, new double[] { 0 }).getOutput()[0], 0);
+    }
+
+    @Test
+    public void disabledCacheHoldsNothing() {
+        InferenceCache cache = new InferenceCache(false, 100);
+        ModelVersion v1 = version("m", 1);
+        cache.put(new double[] { 1 }, new Prediction(new double[] { 1 }, v1));
+        assertNull(cache.get(v1, new double[] { 1 }));
+        assertEquals(0, cache.metrics().size());
+    }
+
+    private static ModelVersion version(String name, long version) {
+        // The cache only looks at the name and version, not the network.
+        return new ModelVersion(name, version, null, 0, null);
+    }
+
+    private static Map<String, Number> metrics(InferenceCache cache) {
+        Map<String, Number> metrics = new HashMap<>();
+        for (Metric<?> metric : cache.metrics()) {
+            metrics.put(metric.getName(), metric.getValue());
+        }
+        return metrics;
+    }
+}
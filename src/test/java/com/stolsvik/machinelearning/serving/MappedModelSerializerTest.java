@@ -0,0 +1,84 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Round-trips a network through {@link MappedModelSerializer}: same configuration, parameters and output, and the
+ * file is left untouched when the loaded network's parameters change.
+ */
+public class MappedModelSerializerTest {
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripGivesSameParamsAndOutput() throws IOException {
+        MultiLayerNetwork network = network();
+        File file = new File(_folder.getRoot(), "model" + MappedModelSerializer.FILE_EXTENSION);
+        MappedModelSerializer.write(network, file);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        MultiLayerNetwork read = MappedModelSerializer.read(file);
+        assertEquals(network.getLayerWiseConfigurations().toJson(), read.getLayerWiseConfigurations().toJson());
+        assertArrayEquals(network.params().data().asDouble(), read.params().data().asDouble(), 0);
+
+        INDArray input = Nd4j.rand(5, 7);
+        assertArrayEquals(network.output(input, false).data().asDouble(), read.output(input, false).data()
+                .asDouble(), 1e-6);
+    }
+
+    @Test
+    public void changingLoadedParamsDoesNotChangeFile() throws IOException {
+        MultiLayerNetwork network = network();
+        File file = new File(_folder.getRoot(), "model" + MappedModelSerializer.FILE_EXTENSION);
+        MappedModelSerializer.write(network, file);
+
+        // The mapping is private: copy-on-write.
+        MultiLayerNetwork read = MappedModelSerializer.read(file);
+        read.params().assign(42);
+        assertArrayEquals(network.params().data().asDouble(), MappedModelSerializer.read(file).params().data()
+                .asDouble(), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = _folder.newFile("model.zip");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.write(new byte[64]);
+        }
+        MappedModelSerializer.read(file);
+    }
+
+    private static MultiLayerNetwork network() {
+        // Parameters not a multiple of the blob alignment, and more than one page of them.
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(7)
+                .list()
+                .layer(0, new DenseLayer.Builder().nIn(7).nOut(301).activation(Activation.TANH).build())
+                .layer(1, new OutputLayer.Builder(LossFunction.MCXENT).activation(Activation.SOFTMAX)
+                        .nIn(301).nOut(3).build())
+                .build();
+        MultiLayerNetwork network = new MultiLayerNetwork(conf);
+        network.init();
+        return network;
+    }
+}
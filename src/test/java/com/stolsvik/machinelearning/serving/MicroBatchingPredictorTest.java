@@ -0,0 +1,166 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.After;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link MicroBatchingPredictor} against small networks: batching, rejection of single bad requests, model swaps
+ * - also while requests wait - and shutdown with requests pending.
+ */
+public class MicroBatchingPredictorTest {
+
+    private final AtomicReference<ModelVersion> _current = new AtomicReference<>();
+    private MicroBatchingPredictor _predictor;
+
+    @After
+    public void shutdown() {
+        if (_predictor != null) {
+            _predictor.shutdown();
+        }
+    }
+
+    @Test
+    public void batchesConcurrentRequestsWithSameOutputAsAlone() throws Exception {
+        MultiLayerNetwork network = network(4);
+        _current.set(new ModelVersion("m", 1, null, 0, network));
+        // Long wait, so that all requests end up in one batch.
+        _predictor = new MicroBatchingPredictor("m", _current::get, 8, 2_000);
+
+        List<double[]> features = new ArrayList<>();
+        List<CompletableFuture<Prediction>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            double[] row = { i, -i, i / 2d, 1 };
+            features.add(row);
+            futures.add(_predictor.predict(row));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Prediction prediction = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertSame(_current.get(), prediction.getModelVersion());
+            double[] alone = network.output(Nd4j.create(features.get(i), new int[] { 1, 4 }), false).data()
+                    .asDouble();
+            assertArrayEquals(alone, prediction.getOutput(), 1e-6);
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> batchSize = (Map<String, Object>) _predictor.getStats().get("batchSize");
+        assertEquals(8, ((Number) batchSize.get("max")).intValue());
+    }
+
+    @Test
+    public void rejectsWrongFeatureCountAlone() throws Exception {
+        _current.set(new ModelVersion("m", 1, null, 0, network(4)));
+        _predictor = new MicroBatchingPredictor("m", _current::get, 8, 50);
+        try {
+            _predictor.predict(new double[3]);
+            fail("Expected IllegalArgumentException.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(2, _predictor.predict(new double[4]).get(10, TimeUnit.SECONDS).getOutput().length);
+    }
+
+    @Test
+    public void nextBatchRunsOnSwappedModel() throws Exception {
+        _current.set(new ModelVersion("m", 1, null, 0, network(4)));
+        _predictor = new MicroBatchingPredictor("m", _current::get, 8, 10);
+        assertEquals(1, _predictor.predict(new double[4]).get(10, TimeUnit.SECONDS).getModelVersion().getVersion());
+
+        ModelVersion v2 = new ModelVersion("m", 2, null, 0, network(4));
+        _current.set(v2);
+        assertSame(v2, _predictor.predict(new double[4]).get(10, TimeUnit.SECONDS).getModelVersion());
+        assertEquals(2L, _predictor.getStats().get("modelVersion"));
+    }
+
+    @Test
+    public void swapToOtherInputCountFailsOnlyTheMismatchingRequests() throws Exception {
+        _current.set(new ModelVersion("m", 1, null, 0, network(4)));
+        _predictor = new MicroBatchingPredictor("m", _current::get, 100, 1_000);
+
+        CompletableFuture<Prediction> old1 = _predictor.predict(new double[4]);
+        CompletableFuture<Prediction> old2 = _predictor.predict(new double[4]);
+        // Swapped while the first requests wait for their batch.
+        ModelVersion v2 = new ModelVersion("m", 2, null, 0, network(5));
+        _current.set(v2);
+        CompletableFuture<Prediction> fresh = _predictor.predict(new double[5]);
+
+        assertSame(v2, fresh.get(10, TimeUnit.SECONDS).getModelVersion());
+        assertFailedWith(IllegalArgumentException.class, old1);
+        assertFailedWith(IllegalArgumentException.class, old2);
+    }
+
+    @Test
+    public void shutdownFailsPendingAndRejectsNew() throws Exception {
+        _current.set(new ModelVersion("m", 1, null, 0, network(4)));
+        _predictor = new MicroBatchingPredictor("m", _current::get, 100, 60_000);
+
+        List<CompletableFuture<Prediction>> pending = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            pending.add(_predictor.predict(new double[4]));
+        }
+        _predictor.shutdown();
+        // None left waiting forever: all failed, whether taken into a batch or still queued.
+        for (CompletableFuture<Prediction> future : pending) {
+            assertFailedWith(IllegalStateException.class, future);
+        }
+        try {
+            _predictor.predict(new double[4]);
+            fail("Expected IllegalStateException.");
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = ModelNotAvailableException.class)
+    public void noModelIsNotAvailable() {
+        _predictor = new MicroBatchingPredictor("m", _current::get, 8, 10);
+        _predictor.predict(new double[4]);
+    }
+
+    private static void assertFailedWith(Class<? extends Throwable> expected, CompletableFuture<Prediction> future)
+            throws InterruptedException, TimeoutException {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Expected the future to fail with " + expected.getSimpleName() + ".");
+        }
+        catch (ExecutionException e) {
+            assertTrue("Failed with [" + e.getCause() + "].", expected.isInstance(e.getCause()));
+        }
+    }
+
+    private static MultiLayerNetwork network(int numInputs) {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(3)
+                .list()
+                .layer(0, new DenseLayer.Builder().nIn(numInputs).nOut(6).activation(Activation.TANH).build())
+                .layer(1, new OutputLayer.Builder(LossFunction.MCXENT).activation(Activation.SOFTMAX)
+                        .nIn(6).nOut(2).build())
+                .build();
+        MultiLayerNetwork network = new MultiLayerNetwork(conf);
+        network.init();
+        return network;
+    }
+}
@@ -0,0 +1,106 @@
+package com.stolsvik.machinelearning.serving;
+
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link ModelRegistry#scan()} against a directory holding both a ModelSerializer zip and a
+ * {@link MappedModelSerializer} file of the same model.
+ */
+public class ModelRegistryTest {
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void prefersMappedFileAndDoesNotRepublishWhenBothExist() throws IOException {
+        MultiLayerNetwork network = tinyNetwork();
+        File directory = _folder.getRoot();
+        File zip = new File(directory, "tiny.zip");
+        File mapped = new File(directory, "tiny" + MappedModelSerializer.FILE_EXTENSION);
+        ModelSerializer.writeModel(network, zip, false);
+        MappedModelSerializer.write(network, mapped);
+        // Different modification times, as when the mapped file is converted from the zip later.
+        assertTrue(zip.setLastModified(mapped.lastModified() - 60_000));
+
+        List<ModelSwappedEvent> events = new ArrayList<>();
+        ModelRegistry registry = new ModelRegistry(new ApplicationEventPublisher() {
+            @Override
+            public void publishEvent(ApplicationEvent event) {
+                events.add((ModelSwappedEvent) event);
+            }
+
+            @Override
+            public void publishEvent(Object event) {
+                publishEvent((ApplicationEvent) event);
+            }
+        });
+        ReflectionTestUtils.setField(registry, "_modelDirectory", directory.getPath());
+        ReflectionTestUtils.setField(registry, "_warmupBatches", 2);
+        ReflectionTestUtils.setField(registry, "_maxBatchSize", 4);
+
+        registry.scan();
+        ModelVersion published = registry.get("tiny");
+        assertEquals(mapped, published.getFile());
+        assertEquals(1, events.size());
+        assertNull(events.get(0).getPrevious());
+
+        // Nothing changed: no reload, no republish - so no invalidation of the InferenceCache either.
+        registry.scan();
+        registry.scan();
+        assertEquals(1, events.size());
+        assertSame(published, registry.get("tiny"));
+
+        // With the mapped file gone, the zip takes over - once.
+        assertTrue(mapped.delete());
+        registry.scan();
+        registry.scan();
+        assertEquals(2, events.size());
+        assertEquals(zip, registry.get("tiny").getFile());
+    }
+
+    @Test
+    public void modelFilesByNamePrefersMappedInEitherOrder() {
+        File zip = new File("a.zip");
+        File mapped = new File("a" + MappedModelSerializer.FILE_EXTENSION);
+        File other = new File("b.zip");
+        assertEquals(mapped, ModelRegistry.modelFilesByName(new File[] { zip, mapped, other }).get("a"));
+        assertEquals(mapped, ModelRegistry.modelFilesByName(new File[] { mapped, zip, other }).get("a"));
+        assertEquals(other, ModelRegistry.modelFilesByName(new File[] { zip, mapped, other }).get("b"));
+    }
+
+    private static MultiLayerNetwork tinyNetwork() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(1)
+                .list()
+                .layer(0, new DenseLayer.Builder().nIn(4).nOut(3).activation(Activation.RELU).build())
+                .layer(1, new OutputLayer.Builder(LossFunction.MCXENT).activation(Activation.SOFTMAX)
+                        .nIn(3).nOut(2).build())
+                .build();
+        MultiLayerNetwork network = new MultiLayerNetwork(conf);
+        network.init();
+        return network;
+    }
+}
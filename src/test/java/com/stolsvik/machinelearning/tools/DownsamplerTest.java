@@ -0,0 +1,99 @@
+package com.stolsvik.machinelearning.tools;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link Downsampler}: the first and last point of the range are always kept, the indexes are ascending and
+ * within the range, and the output never exceeds the target.
+ */
+public class DownsamplerTest {
+
+    @Test
+    public void shortRangesAreReturnedWhole() {
+        double[] y = { 1, 5, 2, 4 };
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, Downsampler.minMax(y, 0, 4, 10));
+        assertArrayEquals(new int[] { 1, 2 }, Downsampler.lttb(xs(4), y, 1, 3, 10));
+        assertArrayEquals(new int[0], Downsampler.minMax(y, 2, 2, 10));
+    }
+
+    @Test
+    public void minMaxKeepsEndsAndSpikesWithinBound() {
+        double[] y = randomWalk(10_000, 1);
+        y[4321] = 1_000;
+        y[8765] = -1_000;
+        for (int target : new int[] { 4, 5, 17, 100, 999 }) {
+            for (int[] range : new int[][] { { 0, y.length }, { 123, 9_876 } }) {
+                int[] indexes = Downsampler.minMax(y, range[0], range[1], target);
+                assertValid(indexes, range[0], range[1], target);
+                if (range[0] == 0) {
+                    assertContains(indexes, 4321);
+                    assertContains(indexes, 8765);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lttbKeepsEndsWithinBound() {
+        double[] x = xs(10_000);
+        double[] y = randomWalk(10_000, 2);
+        for (int target : new int[] { 3, 4, 17, 100, 999 }) {
+            for (int[] range : new int[][] { { 0, y.length }, { 123, 9_876 } }) {
+                int[] indexes = Downsampler.lttb(x, y, range[0], range[1], target);
+                assertValid(indexes, range[0], range[1], target);
+                // LTTB fills its buckets exactly.
+                assertEquals(target, indexes.length);
+            }
+        }
+    }
+
+    @Test
+    public void lttbPicksTheOutlierOfABucket() {
+        double[] x = xs(12);
+        double[] y = new double[12];
+        y[5] = 10;
+        // 4 buckets of 2.5 points between the ends: the peak must survive.
+        assertContains(Downsampler.lttb(x, y, 0, 12, 6), 5);
+    }
+
+    private static void assertValid(int[] indexes, int from, int to, int target) {
+        assertTrue("Got [" + indexes.length + "] points for target [" + target + "].", indexes.length <= target);
+        assertEquals(from, indexes[0]);
+        assertEquals(to - 1, indexes[indexes.length - 1]);
+        for (int i = 1; i < indexes.length; i++) {
+            assertTrue("Indexes not ascending at [" + i + "].", indexes[i] > indexes[i - 1]);
+        }
+    }
+
+    private static void assertContains(int[] indexes, int index) {
+        for (int i : indexes) {
+            if (i == index) {
+                return;
+            }
+        }
+        throw new AssertionError("Index [" + index + "] was dropped.");
+    }
+
+    private static double[] xs(int count) {
+        double[] x = new double[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = i;
+        }
+        return x;
+    }
+
+    private static double[] randomWalk(int count, long seed) {
+        Random random = new Random(seed);
+        double[] y = new double[count];
+        for (int i = 1; i < count; i++) {
+            y[i] = y[i - 1] + random.nextGaussian();
+        }
+        return y;
+    }
+}
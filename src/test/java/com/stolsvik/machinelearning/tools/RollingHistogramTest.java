@@ -0,0 +1,89 @@
+package com.stolsvik.machinelearning.tools;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link RollingHistogram}: the window, nearest-rank percentiles, buckets, and concurrent recording.
+ */
+public class RollingHistogramTest {
+
+    @Test
+    public void emptySnapshotIsNaN() {
+        RollingHistogram.Snapshot snapshot = new RollingHistogram(10).snapshot();
+        assertEquals(0, snapshot.getWindowCount());
+        assertTrue(Double.isNaN(snapshot.getMean()));
+        assertTrue(Double.isNaN(snapshot.getPercentile(50)));
+        assertArrayEquals(new long[3], snapshot.getBucketCounts(3));
+    }
+
+    @Test
+    public void statisticsCoverOnlyTheWindow() {
+        RollingHistogram histogram = new RollingHistogram(100);
+        for (int i = 1; i <= 250; i++) {
+            histogram.record(i);
+        }
+        RollingHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(250, snapshot.getTotalCount());
+        assertEquals(100, snapshot.getWindowCount());
+        assertEquals(151, snapshot.getMin(), 0);
+        assertEquals(250, snapshot.getMax(), 0);
+        assertEquals(200.5, snapshot.getMean(), 1e-9);
+        // Nearest rank: p50 of 151..250 is the 50th value, p99 the 99th, p100 the last.
+        assertEquals(200, snapshot.getPercentile(50), 0);
+        assertEquals(249, snapshot.getPercentile(99), 0);
+        assertEquals(250, snapshot.getPercentile(100), 0);
+        assertEquals(151, snapshot.getPercentile(0), 0);
+    }
+
+    @Test
+    public void bucketCountsSpanMinToMax() {
+        RollingHistogram histogram = new RollingHistogram(10);
+        for (double value : new double[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 10 }) {
+            histogram.record(value);
+        }
+        // Width 2.5: [0, 2.5), [2.5, 5), [5, 7.5), [7.5, 10] - the max goes in the last bucket.
+        assertArrayEquals(new long[] { 3, 2, 3, 2 }, histogram.snapshot().getBucketCounts(4));
+
+        RollingHistogram constant = new RollingHistogram(5);
+        constant.record(3);
+        constant.record(3);
+        assertArrayEquals(new long[] { 2, 0 }, constant.snapshot().getBucketCounts(2));
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        RollingHistogram histogram = new RollingHistogram(1000);
+        AtomicBoolean inconsistent = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    histogram.record(1);
+                    if (i % 1000 == 0) {
+                        // Snapshots while recording must always be consistent.
+                        RollingHistogram.Snapshot snapshot = histogram.snapshot();
+                        if ((snapshot.getMin() != 1) || (snapshot.getMax() != 1)) {
+                            inconsistent.set(true);
+                        }
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(inconsistent.get());
+        assertEquals(200_000, histogram.getTotalCount());
+        assertEquals(1000, histogram.snapshot().getWindowCount());
+    }
+}
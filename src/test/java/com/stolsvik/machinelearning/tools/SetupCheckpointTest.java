@@ -0,0 +1,124 @@
+package com.stolsvik.machinelearning.tools;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round-trips values through {@link SetupCheckpoint}: the {@link SetupCheckpoint.PrimitiveArrayCodec} with nested
+ * arrays, nulls and lengths around its 64 KB chunk, and the {@link SetupCheckpoint.SerializableCodec} fallback.
+ */
+public class SetupCheckpointTest {
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void primitiveArraysAroundChunkBoundary() throws Exception {
+        Random random = new Random(1);
+        Map<String, Object> values = new LinkedHashMap<>();
+        // 64 KB holds 16384 ints/floats and 8192 longs/doubles.
+        for (int length : new int[] { 0, 1, 8191, 8192, 8193, 16383, 16384, 16385, 40_000 }) {
+            double[] doubles = new double[length];
+            long[] longs = new long[length];
+            int[] ints = new int[length];
+            float[] floats = new float[length];
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                doubles[i] = random.nextGaussian();
+                longs[i] = random.nextLong();
+                ints[i] = random.nextInt();
+                floats[i] = random.nextFloat();
+            }
+            random.nextBytes(bytes);
+            values.put("doubles" + length, doubles);
+            values.put("longs" + length, longs);
+            values.put("ints" + length, ints);
+            values.put("floats" + length, floats);
+            values.put("bytes" + length, bytes);
+        }
+
+        Map<String, Object> restored = roundTrip(values);
+
+        assertEquals(new ArrayList<>(values.keySet()), new ArrayList<>(restored.keySet()));
+        for (String name : values.keySet()) {
+            assertTrue("Value [" + name + "] differs.", Arrays.deepEquals(new Object[] { values.get(name) },
+                    new Object[] { restored.get(name) }));
+        }
+    }
+
+    @Test
+    public void nestedArraysWithNulls() throws Exception {
+        double[][] matrix = { { 1, 2, 3 }, null, {}, { 4 } };
+        int[][][] cube = { { { 1, 2 }, null }, null, { {} } };
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("matrix", matrix);
+        values.put("cube", cube);
+
+        Map<String, Object> restored = roundTrip(values);
+
+        assertTrue(restored.get("matrix") instanceof double[][]);
+        assertTrue(restored.get("cube") instanceof int[][][]);
+        assertTrue(Arrays.deepEquals(matrix, (double[][]) restored.get("matrix")));
+        assertTrue(Arrays.deepEquals(cube, (int[][][]) restored.get("cube")));
+    }
+
+    @Test
+    public void serializableFallbackAndNull() throws Exception {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("list", new ArrayList<>(Arrays.asList("a", "b")));
+        values.put("string", "text");
+        values.put("nothing", null);
+        values.put("boxed", new Integer[] { 1, null, 3 });
+
+        Map<String, Object> restored = roundTrip(values);
+
+        assertEquals(Arrays.asList("a", "b"), restored.get("list"));
+        assertEquals("text", restored.get("string"));
+        assertTrue(restored.containsKey("nothing"));
+        assertNull(restored.get("nothing"));
+        assertArrayEquals(new Integer[] { 1, null, 3 }, (Integer[]) restored.get("boxed"));
+    }
+
+    @Test
+    public void otherKeyOrMissingFileIsIgnored() throws Exception {
+        File file = new File(_folder.getRoot(), "setup.checkpoint");
+        assertNull(new SetupCheckpoint(file, "key").restore());
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("x", new double[] { 1 });
+        assertTrue(new SetupCheckpoint(file, "key").save(values));
+        assertNull(new SetupCheckpoint(file, "otherKey").restore());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void unwritableValueWritesNothing() throws Exception {
+        File file = new File(_folder.getRoot(), "setup.checkpoint");
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("thread", new Thread());
+        assertFalse(new SetupCheckpoint(file, "key").save(values));
+        assertFalse(file.exists());
+    }
+
+    private Map<String, Object> roundTrip(Map<String, Object> values) throws Exception {
+        File file = new File(_folder.getRoot(), "setup.checkpoint");
+        assertTrue(new SetupCheckpoint(file, "key").save(values));
+        Map<String, Object> restored = new SetupCheckpoint(file, "key").restore();
+        assertEquals(values.size(), restored.size());
+        return restored;
+    }
+}
@@ -0,0 +1,97 @@
+package com.stolsvik.machinelearning.tools;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests {@link SingleWriterRingBuffer}: sequential reads, readers falling behind, and readers racing a writer that
+ * laps them continuously.
+ */
+public class SingleWriterRingBufferTest {
+
+    @Test
+    public void readsWhatWasPublishedSinceLastRead() {
+        SingleWriterRingBuffer<Long> buffer = new SingleWriterRingBuffer<>(8);
+        for (long i = 0; i < 5; i++) {
+            buffer.publish(i);
+        }
+        List<Long> read = new ArrayList<>();
+        long next = buffer.readFrom(0, read::add);
+        assertEquals(5, next);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), read);
+
+        buffer.publish(5L);
+        read.clear();
+        assertEquals(6, buffer.readFrom(next, read::add));
+        assertEquals(Arrays.asList(5L), read);
+    }
+
+    @Test
+    public void readerFallenBehindGetsTheLastCapacityMinusOne() {
+        SingleWriterRingBuffer<Long> buffer = new SingleWriterRingBuffer<>(4);
+        for (long i = 0; i < 10; i++) {
+            buffer.publish(i);
+        }
+        List<Long> read = new ArrayList<>();
+        assertEquals(10, buffer.readFrom(0, read::add));
+        assertEquals(Arrays.asList(7L, 8L, 9L), read);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePowerOfTwo() {
+        new SingleWriterRingBuffer<Long>(6);
+    }
+
+    /**
+     * The writer publishes its sequence numbers as fast as it can into a tiny buffer, so that it laps the readers all
+     * the time. Whatever a reader gets must be strictly increasing, within the range it asked for - a value read from a
+     * slot that was overwritten before being published would break the order.
+     */
+    @Test
+    public void concurrentReadersNeverSeeValuesOutOfOrder() throws InterruptedException {
+        SingleWriterRingBuffer<Long> buffer = new SingleWriterRingBuffer<>(4);
+        long values = 2_000_000;
+        Thread writer = new Thread(() -> {
+            for (long i = 0; i < values; i++) {
+                buffer.publish(i);
+            }
+        }, "SingleWriterRingBufferTest writer");
+
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(new Thread(() -> {
+                long next = 0;
+                long[] last = { -1 };
+                while ((next < values) && (failure.get() == null)) {
+                    long from = next;
+                    next = buffer.readFrom(from, value -> {
+                        if ((value <= last[0]) || (value < from)) {
+                            failure.compareAndSet(null, "Got [" + value + "] after [" + last[0] + "], reading from ["
+                                    + from + "].");
+                        }
+                        last[0] = value;
+                    });
+                    if (last[0] >= next) {
+                        failure.compareAndSet(null, "Got [" + last[0] + "], beyond published count [" + next + "].");
+                    }
+                }
+            }, "SingleWriterRingBufferTest reader " + r));
+        }
+        readers.forEach(Thread::start);
+        writer.start();
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertEquals(values, buffer.getPublishedCount());
+    }
+}